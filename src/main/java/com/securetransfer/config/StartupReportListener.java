@@ -0,0 +1,23 @@
+package com.securetransfer.config;
+
+import com.securetransfer.util.StartupTimings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+
+@Component
+public class StartupReportListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(StartupReportListener.class);
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        logger.info("Application ready {} ms after JVM start. Work started in the background:",
+                ManagementFactory.getRuntimeMXBean().getUptime());
+        StartupTimings.report().forEach(line -> logger.info("  {}", line));
+    }
+}
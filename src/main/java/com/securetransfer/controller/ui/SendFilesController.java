@@ -28,7 +28,6 @@ import org.springframework.beans.factory.annotation.Autowired;
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.IvParameterSpec;
-import javafx.concurrent.Task;
 import java.security.SecureRandom;
 
 import java.io.File;
@@ -82,15 +81,12 @@ public class SendFilesController extends BaseController implements Initializable
     @Autowired
     private TransferService transferService;
 
-    private List<File> encryptedFiles = new ArrayList<>();
-
     private String currentTransferCode;
     private String currentSessionId;
     private long transferStartTime;
 
     private Stage transferStage;
     private ProgressBar encryptionProgressBar;
-    private Task<Void> encryptionTask;
 
     private enum PopupState {
         ENCRYPTING, READY_TO_TRANSFER
@@ -543,7 +539,7 @@ public class SendFilesController extends BaseController implements Initializable
         icon.setFont(Font.font("Segoe UI Emoji", 48));
         icon.setAlignment(Pos.CENTER);
 
-        Label status = new Label("Encrypting files...");
+        Label status = new Label("Preparing encrypted transfer...");
         status.getStyleClass().add("label");
         status.setFont(Font.font("Inter", FontWeight.BOLD, 18));
         status.setTextFill(Color.web("#333"));
@@ -593,77 +589,43 @@ public class SendFilesController extends BaseController implements Initializable
             byte[] ivBytes = new byte[16];
             new java.security.SecureRandom().nextBytes(ivBytes);
             IvParameterSpec iv = new IvParameterSpec(ivBytes);
-            encryptionTask = new Task<>() {
-                @Override
-                protected Void call() throws Exception {
-                    encryptedFiles.clear();
-                    int total = selectedFiles.size();
-                    for (int i = 0; i < total; i++) {
-                        final int fileIndex = i;
-                        File inputFile = selectedFiles.get(i);
-                        File outputFile = new File(inputFile.getParent(), inputFile.getName() + ".enc");
-                        encryptionService.encryptFile(inputFile, outputFile, aesKey, iv, percent -> {
-                            double progress = (fileIndex + percent) / total;
-                            Platform.runLater(() -> {
-                                if (encryptionProgressBar.progressProperty().isBound()) {
-                                    encryptionProgressBar.progressProperty().unbind();
-                                }
-                                encryptionProgressBar.setProgress(progress);
-                            });
-                        }, () -> encryptionTask.isCancelled());
-                        encryptedFiles.add(outputFile);
-                    }
-                    return null;
-                }
-            };
-            encryptionProgressBar.progressProperty().bind(encryptionTask.progressProperty());
-            encryptionTask.setOnSucceeded(e -> {
-                popupState = PopupState.READY_TO_TRANSFER;
-                encryptionProgressBar.progressProperty().unbind();
-                encryptionProgressBar.setProgress(1.0);
-                // Generate and show code immediately after encryption
-                currentTransferCode = generateTransferCode();
-                logger.info("Encryption completed - generated transfer code: {}", currentTransferCode);
-
-                // Register the transfer with the service
-                String fileName = encryptedFiles.size() == 1 ? encryptedFiles.get(0).getName() : "MultipleFiles.zip";
-                long fileSize = encryptedFiles.size() == 1 ? encryptedFiles.get(0).length()
-                        : encryptedFiles.stream().mapToLong(File::length).sum();
-                logger.info("About to call initiateTransfer with code: {}", currentTransferCode);
-
-                transferService
-                        .initiateTransfer(currentTransferCode, selectedFiles,
-                                UserSession.getInstance().getCurrentUser().getUsername(), fileName, fileSize)
-                        .thenAccept(session -> {
-                            Platform.runLater(() -> {
-                                logger.info("Transfer initiated successfully - session ID: {}",
-                                        session.getSender().getSessionId());
-                                currentSessionId = session.getSender().getSessionId();
-                                showCodeDetailsInPopup(currentTransferCode);
-                                registerForReceiverConnection();
-                            });
-                        })
-                        .exceptionally(throwable -> {
-                            Platform.runLater(() -> {
-                                logger.error("Failed to initialize transfer: {}", throwable.getMessage(), throwable);
-                                showToast("Failed to initialize transfer: " + throwable.getMessage(),
-                                        ToastNotification.NotificationType.ERROR);
-                                if (transferStage != null)
-                                    transferStage.close();
-                                disableFileUI(false);
-                            });
-                            return null;
+            // Files are encrypted while they are sent, so the code can be shown straight away
+            popupState = PopupState.READY_TO_TRANSFER;
+            encryptionProgressBar.setProgress(1.0);
+            currentTransferCode = generateTransferCode();
+            logger.info("Encryption key ready - generated transfer code: {}", currentTransferCode);
+
+            // Register the transfer with the service
+            // Multiple files are announced individually in the session manifest, this is only the display label
+            String fileName = selectedFiles.size() == 1 ? selectedFiles.get(0).getName()
+                    : selectedFiles.size() + " files";
+            long fileSize = selectedFiles.stream().mapToLong(File::length).sum();
+            logger.info("About to call initiateTransfer with code: {}", currentTransferCode);
+
+            transferService
+                    .initiateTransfer(currentTransferCode, selectedFiles,
+                            UserSession.getInstance().getCurrentUser().getUsername(), fileName, fileSize,
+                            new EncryptionService.KeyAndIv(aesKey, iv))
+                    .thenAccept(session -> {
+                        Platform.runLater(() -> {
+                            logger.info("Transfer initiated successfully - session ID: {}",
+                                    session.getSender().getSessionId());
+                            currentSessionId = session.getSender().getSessionId();
+                            showCodeDetailsInPopup(currentTransferCode);
+                            registerForReceiverConnection();
                         });
-            });
-            encryptionTask.setOnFailed(e -> {
-                encryptionProgressBar.progressProperty().unbind();
-                showToast("Encryption failed: " + encryptionTask.getException().getMessage(),
-                        ToastNotification.NotificationType.ERROR);
-                if (transferStage != null)
-                    transferStage.close();
-                disableFileUI(false);
-            });
-            new Thread(encryptionTask).start();
+                    })
+                    .exceptionally(throwable -> {
+                        Platform.runLater(() -> {
+                            logger.error("Failed to initialize transfer: {}", throwable.getMessage(), throwable);
+                            showToast("Failed to initialize transfer: " + throwable.getMessage(),
+                                    ToastNotification.NotificationType.ERROR);
+                            if (transferStage != null)
+                                transferStage.close();
+                            disableFileUI(false);
+                        });
+                        return null;
+                    });
         } catch (Exception ex) {
             showToast("Encryption setup failed: " + ex.getMessage(), ToastNotification.NotificationType.ERROR);
             if (transferStage != null)
@@ -908,15 +870,7 @@ public class SendFilesController extends BaseController implements Initializable
                 transferStage = null;
             }
             disableFileUI(false);
-            if (popupState == PopupState.ENCRYPTING) {
-                if (encryptionTask != null && encryptionTask.isRunning()) {
-                    logger.info("Cancelling encryption task...");
-                    encryptionTask.cancel();
-                }
-                showToast("Encryption cancelled.", ToastNotification.NotificationType.INFO);
-            } else {
-                showToast("Transfer cancelled.", ToastNotification.NotificationType.INFO);
-            }
+            showToast("Transfer cancelled.", ToastNotification.NotificationType.INFO);
         });
     }
 
@@ -12,7 +12,7 @@ import java.time.LocalDateTime;
  * Stores metadata about received files and their save status.
  */
 @Entity
-@Table(name = "receiver_transfers")
+@Table(name = "receiver_transfers", indexes = @Index(name = "idx_receiver_transfers_checksum", columnList = "checksum"))
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -45,7 +45,12 @@ public class ReceiverTransfer {
     @Column(name = "file_path", length = 500)
     private String filePath;
     
-    @Column(name = "checksum", length = 64)
+    @Column(name = "file_modified")
+    private Long fileModified;
+    
+    // Hex SHA-256 of the whole file, or, when the sender sent leaf hashes, the Merkle root as
+    // "sha256-tree:" or "blake3-tree:" and 64 hex digits (76 characters)
+    @Column(name = "checksum", length = 100)
     private String checksum;
     
     @Column(name = "session_id", length = 255)
@@ -75,6 +80,8 @@ public class ReceiverTransfer {
     public void setSavedTime(LocalDateTime savedTime) { this.savedTime = savedTime; }
     public String getFilePath() { return filePath; }
     public void setFilePath(String filePath) { this.filePath = filePath; }
+    public Long getFileModified() { return fileModified; }
+    public void setFileModified(Long fileModified) { this.fileModified = fileModified; }
     public String getChecksum() { return checksum; }
     public void setChecksum(String checksum) { this.checksum = checksum; }
     public String getSessionId() { return sessionId; }
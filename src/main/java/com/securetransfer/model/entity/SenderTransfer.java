@@ -42,7 +42,9 @@ public class SenderTransfer {
     @Column(name = "end_time")
     private LocalDateTime endTime;
     
-    @Column(name = "checksum", length = 64)
+    // Hex SHA-256 of the whole file, or, when the sender sent leaf hashes, the Merkle root as
+    // "sha256-tree:" or "blake3-tree:" and 64 hex digits (76 characters)
+    @Column(name = "checksum", length = 100)
     private String checksum;
     
     @Column(name = "session_id", length = 255)
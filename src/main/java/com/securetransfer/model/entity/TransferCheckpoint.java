@@ -0,0 +1,88 @@
+package com.securetransfer.model.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.time.LocalDateTime;
+
+/**
+ * Entity for resumable transfers.
+ * Stores, per file of a transfer, which blocks one side has completed so a reconnect
+ * with the same transfer code can pick up where the connection dropped.
+ */
+@Entity
+@Table(name = "transfer_checkpoints")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TransferCheckpoint {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "transfer_code", nullable = false, length = 6)
+    private String transferCode;
+
+    @Column(name = "side", nullable = false, length = 20)
+    @Enumerated(EnumType.STRING)
+    private Side side;
+
+    @Column(name = "file_index", nullable = false)
+    private Integer fileIndex;
+
+    @Column(name = "file_name", nullable = false)
+    private String fileName;
+
+    @Column(name = "file_size", nullable = false)
+    private Long fileSize;
+
+    @Lob
+    @Column(name = "chunk_bitmap")
+    private byte[] chunkBitmap;
+
+    @Column(name = "part_file", length = 500)
+    private String partFile;
+
+    @Column(name = "updated_time", nullable = false)
+    private LocalDateTime updatedTime;
+
+    public String getTransferCode() { return transferCode; }
+    public void setTransferCode(String transferCode) { this.transferCode = transferCode; }
+    public Side getSide() { return side; }
+    public void setSide(Side side) { this.side = side; }
+    public Integer getFileIndex() { return fileIndex; }
+    public void setFileIndex(Integer fileIndex) { this.fileIndex = fileIndex; }
+    public String getFileName() { return fileName; }
+    public void setFileName(String fileName) { this.fileName = fileName; }
+    public Long getFileSize() { return fileSize; }
+    public void setFileSize(Long fileSize) { this.fileSize = fileSize; }
+    public byte[] getChunkBitmap() { return chunkBitmap; }
+    public void setChunkBitmap(byte[] chunkBitmap) { this.chunkBitmap = chunkBitmap; }
+    public String getPartFile() { return partFile; }
+    public void setPartFile(String partFile) { this.partFile = partFile; }
+    public LocalDateTime getUpdatedTime() { return updatedTime; }
+    public void setUpdatedTime(LocalDateTime updatedTime) { this.updatedTime = updatedTime; }
+
+    /**
+     * Returns true if this checkpoint was written for the same file.
+     */
+    public boolean matches(String fileName, long fileSize) {
+        return this.fileName.equals(fileName) && this.fileSize == fileSize;
+    }
+
+    @PrePersist
+    @PreUpdate
+    protected void onSave() {
+        updatedTime = LocalDateTime.now();
+    }
+
+    /**
+     * Which end of the transfer a checkpoint belongs to
+     */
+    public enum Side {
+        SENDER,    // Chunks the receiver has acknowledged
+        RECEIVER   // Chunks written to the part-file
+    }
+}
@@ -23,6 +23,11 @@ public interface ReceiverTransferRepository extends JpaRepository<ReceiverTransf
      * Find transfers by session ID
      */
     List<ReceiverTransfer> findBySessionIdOrderByReceivedTimeDesc(String sessionId);
+
+    /**
+     * Find the transfers of one file of a session, newest first
+     */
+    List<ReceiverTransfer> findBySessionIdAndFileNameOrderByReceivedTimeDesc(String sessionId, String fileName);
     
     /**
      * Find transfers by status
@@ -52,6 +57,17 @@ public interface ReceiverTransferRepository extends JpaRepository<ReceiverTransf
     @Query("SELECT rt FROM ReceiverTransfer rt WHERE LOWER(rt.fileName) LIKE LOWER(CONCAT('%', :fileName, '%')) ORDER BY rt.receivedTime DESC")
     List<ReceiverTransfer> findByFileNameContainingIgnoreCase(@Param("fileName") String fileName);
     
+    /**
+     * Find transfers by content checksum and status, most recently saved first
+     */
+    List<ReceiverTransfer> findByChecksumAndTransferStatusOrderBySavedTimeDesc(String checksum, ReceiverTransfer.TransferStatus status);
+
+    /**
+     * Find transfers by file name, sender and status, most recently saved first
+     */
+    List<ReceiverTransfer> findByFileNameAndSenderUsernameAndTransferStatusOrderBySavedTimeDesc(String fileName,
+            String senderUsername, ReceiverTransfer.TransferStatus status);
+    
     /**
      * Count transfers by status
      */
@@ -0,0 +1,62 @@
+package com.securetransfer.repository;
+
+import com.securetransfer.model.entity.TransferCheckpoint;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface TransferCheckpointRepository extends JpaRepository<TransferCheckpoint, Long> {
+
+    /**
+     * Find the checkpoint of one file of a transfer
+     */
+    Optional<TransferCheckpoint> findByTransferCodeAndSideAndFileIndex(String transferCode,
+            TransferCheckpoint.Side side, Integer fileIndex);
+
+    /**
+     * Find all checkpoints one side holds for a transfer
+     */
+    List<TransferCheckpoint> findByTransferCodeAndSideOrderByFileIndex(String transferCode,
+            TransferCheckpoint.Side side);
+
+    /**
+     * Create or update the checkpoint of one file
+     */
+    default TransferCheckpoint saveBitmap(String transferCode, TransferCheckpoint.Side side, int fileIndex,
+            String fileName, long fileSize, byte[] chunkBitmap, String partFile) {
+        TransferCheckpoint checkpoint = findByTransferCodeAndSideAndFileIndex(transferCode, side, fileIndex)
+                .orElseGet(TransferCheckpoint::new);
+        checkpoint.setTransferCode(transferCode);
+        checkpoint.setSide(side);
+        checkpoint.setFileIndex(fileIndex);
+        checkpoint.setFileName(fileName);
+        checkpoint.setFileSize(fileSize);
+        checkpoint.setChunkBitmap(chunkBitmap);
+        checkpoint.setPartFile(partFile);
+        return save(checkpoint);
+    }
+
+    /**
+     * Delete the checkpoint of one file once it has been fully transferred
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM TransferCheckpoint tc WHERE tc.transferCode = :transferCode AND tc.side = :side AND tc.fileIndex = :fileIndex")
+    int deleteFile(@Param("transferCode") String transferCode, @Param("side") TransferCheckpoint.Side side,
+            @Param("fileIndex") Integer fileIndex);
+
+    /**
+     * Delete every checkpoint one side holds for a transfer
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM TransferCheckpoint tc WHERE tc.transferCode = :transferCode AND tc.side = :side")
+    int deleteTransfer(@Param("transferCode") String transferCode, @Param("side") TransferCheckpoint.Side side);
+}
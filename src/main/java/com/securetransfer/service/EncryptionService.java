@@ -1,12 +1,18 @@
 package com.securetransfer.service;
 
+import com.securetransfer.util.HashAlgorithm;
+
 import javax.crypto.SecretKey;
 import javax.crypto.spec.IvParameterSpec;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.security.GeneralSecurityException;
 import java.security.KeyPair;
 import java.security.PrivateKey;
 import java.security.PublicKey;
+import java.util.List;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
@@ -32,13 +38,14 @@ public interface EncryptionService {
     /**
      * Encrypts data using AES encryption.
      * @param data The data to encrypt
-     * @return The encrypted data as a Base64 encoded string
+     * @return The id of the key used, a colon, and the encrypted data as a Base64 encoded string
      */
     String encrypt(String data);
 
     /**
-     * Decrypts previously encrypted data.
-     * @param encryptedData The encrypted data as a Base64 encoded string
+     * Decrypts previously encrypted data with the key named by its key id. Untagged Base64 values
+     * from before key ids are still accepted.
+     * @param encryptedData The encrypted data as returned by {@link #encrypt}
      * @return The decrypted data
      */
     String decrypt(String encryptedData);
@@ -55,6 +62,59 @@ public interface EncryptionService {
      */
     void decryptFile(File inputFile, File outputFile, SecretKey aesKey, IvParameterSpec iv, Consumer<Double> progressCallback, Supplier<Boolean> isCancelled) throws IOException;
 
+    /**
+     * Encrypts a file in independently authenticated segments, sealing the segments in parallel
+     * with AES-GCM or ChaCha20-Poly1305, whichever calibration found faster here. Reports progress via callback (0.0-1.0). Accepts a cancellation supplier to abort if needed.
+     */
+    void encryptFileSegmented(File inputFile, File outputFile, SecretKey aesKey, Consumer<Double> progressCallback, Supplier<Boolean> isCancelled) throws IOException;
+
+    /**
+     * Decrypts a file written by {@link #encryptFileSegmented}, opening the segments in parallel.
+     * Fails, and removes the output, if the file was truncated or any segment does not authenticate.
+     */
+    void decryptFileSegmented(File inputFile, File outputFile, SecretKey aesKey, Consumer<Double> progressCallback, Supplier<Boolean> isCancelled) throws IOException;
+
+    /**
+     * Opens a channel that yields the file encrypted with AES-CTR under the provided key and IV as it is read.
+     * The ciphertext is as long as the file, and any part of it starting on a 16-byte boundary can be
+     * decrypted on its own with {@link #decryptStreamChunk}, so chunks may arrive out of order or resume mid-file.
+     */
+    ReadableByteChannel openEncryptingChannel(File inputFile, SecretKey aesKey, IvParameterSpec iv) throws IOException;
+
+    /**
+     * Like {@link #openEncryptingChannel(File, SecretKey, IvParameterSpec)}, encrypting whatever {@code source}
+     * yields. The returned channel takes over {@code source} and closes it.
+     */
+    ReadableByteChannel openEncryptingChannel(ReadableByteChannel source, SecretKey aesKey, IvParameterSpec iv) throws IOException;
+
+    /**
+     * Decrypts in place the remaining bytes of {@code chunk}, which hold the stream produced by
+     * {@link #openEncryptingChannel} from byte {@code offset} on. The buffer's position is left unchanged.
+     */
+    void decryptStreamChunk(SecretKey aesKey, IvParameterSpec iv, long offset, ByteBuffer chunk) throws IOException;
+
+    /**
+     * Encrypts in place the remaining bytes of {@code chunk}, which hold the file from byte {@code offset}
+     * on, into what {@link #openEncryptingChannel} yields at that offset. Used to send part of a file again
+     * without encrypting everything before it. The buffer's position is left unchanged.
+     */
+    void encryptStreamChunk(SecretKey aesKey, IvParameterSpec iv, long offset, ByteBuffer chunk) throws IOException;
+
+    /**
+     * Like {@link #encryptStreamChunk(SecretKey, IvParameterSpec, long, ByteBuffer)}, but reads the
+     * remaining bytes of {@code source} and writes them encrypted into {@code target} from its
+     * position, so a chunk can go from a mapped file into its frame in one pass. Neither buffer's
+     * position is moved.
+     */
+    void encryptStreamChunk(SecretKey aesKey, IvParameterSpec iv, long offset, ByteBuffer source, ByteBuffer target)
+            throws IOException;
+
+    /**
+     * Derives the IV for one file of a multi-file transfer from the transfer's IV, so no two
+     * files are encrypted under the same key and IV while only one IV has to be shared.
+     */
+    IvParameterSpec deriveFileIv(IvParameterSpec transferIv, int fileIndex);
+
     /**
      * Encrypts the AES key and IV using the provided RSA public key (for secure transfer).
      * Returns the encrypted key+IV as a byte array.
@@ -67,6 +127,44 @@ public interface EncryptionService {
      */
     KeyAndIv decryptKeyAndIvWithRSA(PrivateKey privateKey, byte[] encryptedKeyAndIv) throws Exception;
 
+    /**
+     * Generates a one-off X25519 key pair for a single key agreement.
+     */
+    KeyPair generateAgreementKeyPair();
+
+    /**
+     * Derives a 256-bit AES session key from an X25519 agreement between our private key and the
+     * peer's public key, passed through HKDF-SHA256 salted with the transfer code. Both sides of
+     * one handshake derive the same key.
+     */
+    SecretKey deriveSessionKey(PrivateKey ownKey, PublicKey peerKey, String transferCode) throws GeneralSecurityException;
+
+    /**
+     * Encrypts the AES key and IV under a session key from {@link #deriveSessionKey} with AES-GCM.
+     * Unlike {@link #encryptKeyAndIvWithRSA}, the receiver needs no RSA private-key operation.
+     */
+    byte[] wrapKeyAndIv(SecretKey sessionKey, SecretKey aesKey, IvParameterSpec iv) throws GeneralSecurityException;
+
+    /**
+     * Decrypts and authenticates a key and IV wrapped by {@link #wrapKeyAndIv}.
+     */
+    KeyAndIv unwrapKeyAndIv(SecretKey sessionKey, byte[] wrappedKeyAndIv) throws GeneralSecurityException;
+
+    /**
+     * Tags the digest sent after a file encrypted with {@link #openEncryptingChannel}: HMAC-SHA256 of the
+     * file index and digest, under a key derived from the transfer key. AES-CTR does not authenticate,
+     * so anyone on the path could flip bits of the file and send a matching unkeyed digest; a receiver
+     * that only accepts a tagged digest knows the file is what the holder of the key sent.
+     */
+    byte[] digestTag(SecretKey aesKey, int fileIndex, byte[] digest) throws GeneralSecurityException;
+
+
+    /**
+     * Leaf hashes for incoming transfers, fastest on this machine first. Until calibration has
+     * finished, SHA-256 comes first.
+     */
+    List<HashAlgorithm> getHashAlgorithmPreference();
+
     /**
      * Generates a new RSA key pair (for the device).
      */
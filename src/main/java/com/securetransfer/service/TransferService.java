@@ -34,6 +34,19 @@ public interface TransferService {
      * @return CompletableFuture that completes when receiver connects
      */
     CompletableFuture<TransferSession> initiateTransfer(String transferCode, List<File> files, String username, String fileName, long fileSize);
+
+    /**
+     * Initialize a file transfer session as sender, encrypting each file while it is sent
+     * rather than writing an encrypted copy first
+     * @param transferCode 6-digit transfer code
+     * @param files list of plaintext files to transfer
+     * @param username sender username
+     * @param fileName name of the file to transfer
+     * @param fileSize size of the file to transfer
+     * @param encryption AES key and IV the files are encrypted with on the way out
+     * @return CompletableFuture that completes when receiver connects
+     */
+    CompletableFuture<TransferSession> initiateTransfer(String transferCode, List<File> files, String username, String fileName, long fileSize, EncryptionService.KeyAndIv encryption);
     
     /**
      * Connect to a transfer session as receiver
@@ -58,7 +71,7 @@ public interface TransferService {
      * Save received file to disk
      * @param transferCode transfer code for the session
      * @param fileName name of the file to save
-     * @param fileData encrypted file data
+     * @param fileData encrypted file data, or null to move the streamed part-file into place
      * @param targetDirectory directory to save the file
      * @return CompletableFuture that completes when file is saved
      */
@@ -1,5 +1,8 @@
 package com.securetransfer.service;
 
+import com.securetransfer.util.DigestingReadableChannel;
+import com.securetransfer.util.HashAlgorithm;
+
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 
@@ -38,6 +41,29 @@ public interface WebSocketService {
      */
     CompletableFuture<Void> sendFile(String transferCode, java.io.File file, String fileName, long fileSize);
 
+    /**
+     * Send several encrypted files back-to-back over the session's single connection.
+     * The manifest is announced to the receiver first; frames then carry the file's index
+     * in the manifest so the receiver can write each file as it arrives.
+     * 
+     * @param transferCode transfer code for the session
+     * @param files        sources of the bytes to send, in manifest order
+     * @param manifest     one entry per file describing name, size, stream offset and checksum
+     * @return CompletableFuture that completes when every file is sent
+     */
+    CompletableFuture<Void> sendFiles(String transferCode, java.util.List<OutgoingFile> files,
+            java.util.List<ManifestEntry> manifest);
+
+    /**
+     * Like {@link #sendFiles(String, java.util.List, java.util.List)}, for files encrypted while they
+     * are sent. The transfer key is first wrapped with the receiver's RSA public key and sent ahead
+     * of the manifest, so the receiver can decrypt each chunk as it arrives.
+     * 
+     * @param transferKey AES key and transfer IV the files' per-file IVs are derived from
+     */
+    CompletableFuture<Void> sendFiles(String transferCode, java.util.List<OutgoingFile> files,
+            java.util.List<ManifestEntry> manifest, EncryptionService.KeyAndIv transferKey);
+
     /**
      * Send encrypted file data to receiver (legacy byte array)
      * 
@@ -166,6 +192,191 @@ public interface WebSocketService {
         }
     }
 
+    /**
+     * One file in a session manifest
+     */
+    class ManifestEntry {
+        private final int index;
+        private final String fileName;
+        private final long fileSize;
+        private final long offset;
+        private final String checksum;
+        private final long resumeOffset;
+        private final boolean delta;
+
+        public ManifestEntry(int index, String fileName, long fileSize, long offset, String checksum) {
+            this(index, fileName, fileSize, offset, checksum, 0);
+        }
+
+        public ManifestEntry(int index, String fileName, long fileSize, long offset, String checksum,
+                long resumeOffset) {
+            this(index, fileName, fileSize, offset, checksum, resumeOffset, false);
+        }
+
+        public ManifestEntry(int index, String fileName, long fileSize, long offset, String checksum,
+                long resumeOffset, boolean delta) {
+            this.index = index;
+            this.fileName = fileName;
+            this.fileSize = fileSize;
+            this.offset = offset;
+            this.checksum = checksum;
+            this.resumeOffset = resumeOffset;
+            this.delta = delta;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public long getFileSize() {
+            return fileSize;
+        }
+
+        /** Position of the file's first byte within the whole session stream. */
+        public long getOffset() {
+            return offset;
+        }
+
+        public String getChecksum() {
+            return checksum;
+        }
+
+        /** Offset within the file the sender starts from; non-zero when resuming an interrupted transfer. */
+        public long getResumeOffset() {
+            return resumeOffset;
+        }
+
+        /** True if the sender can send the file as a delta against a copy the receiver already has. */
+        public boolean isDelta() {
+            return delta;
+        }
+
+        public ManifestEntry withResumeOffset(long resumeOffset) {
+            return new ManifestEntry(index, fileName, fileSize, offset, checksum, resumeOffset, delta);
+        }
+
+        public ManifestEntry withChecksum(String checksum) {
+            return new ManifestEntry(index, fileName, fileSize, offset, checksum, resumeOffset, delta);
+        }
+
+        public ManifestEntry withDelta(boolean delta) {
+            return new ManifestEntry(index, fileName, fileSize, offset, checksum, resumeOffset, delta);
+        }
+    }
+
+    /**
+     * Where the bytes of one outgoing file come from: the file on disk as it is, or the file
+     * passed through a stage such as encryption while it is being sent.
+     */
+    class OutgoingFile {
+        private final java.io.File file;
+        private final long size;
+        private final Opener opener;
+        private final boolean encrypted;
+        private volatile String checksum;
+
+        private OutgoingFile(java.io.File file, long size, Opener opener, boolean encrypted) {
+            this.file = file;
+            this.size = size;
+            this.opener = opener;
+            this.encrypted = encrypted;
+        }
+
+        /** Sends the file's bytes unchanged. */
+        public static OutgoingFile plain(java.io.File file) {
+            return new OutgoingFile(file, file.length(), null, false);
+        }
+
+        /** Sends what {@code opener} produces from the file's bytes, which must be exactly {@code size} bytes. */
+        public static OutgoingFile transformed(java.io.File file, long size, Opener opener) {
+            return new OutgoingFile(file, size, opener, false);
+        }
+
+        /**
+         * Sends the file encrypted under the session's transfer key, which the receiver decrypts on arrival.
+         * The sender supplies the encrypting stage when it opens the file, keyed to the index the file
+         * is sent at, see {@link #open(java.util.function.Consumer, Opener)}.
+         */
+        public static OutgoingFile encrypted(java.io.File file) {
+            return new OutgoingFile(file, file.length(), null, true);
+        }
+
+        public java.io.File getFile() {
+            return file;
+        }
+
+        /** Number of bytes that go on the wire. */
+        public long getSize() {
+            return size;
+        }
+
+        public boolean isTransformed() {
+            return opener != null || encrypted;
+        }
+
+        public boolean isEncrypted() {
+            return encrypted;
+        }
+
+        /**
+         * Checksum of the bytes the receiver stores, known once the file has been streamed: their hex
+         * SHA-256, or the {@link HashAlgorithm#treeChecksum tree checksum} when leaf hashes are sent.
+         */
+        public String getChecksum() {
+            return checksum;
+        }
+
+        public void setChecksum(String checksum) {
+            this.checksum = checksum;
+        }
+
+        public java.nio.channels.ReadableByteChannel open() throws java.io.IOException {
+            return open(null);
+        }
+
+        /**
+         * Opens the bytes to send and, if {@code digest} is given, feeds it the bytes the receiver will
+         * store while they are read: the file's own bytes when it is sent plain or encrypted, since the
+         * receiver decrypts on arrival, and the transformed bytes otherwise.
+         */
+        public java.nio.channels.ReadableByteChannel open(java.util.function.Consumer<java.nio.ByteBuffer> digest)
+                throws java.io.IOException {
+            if (encrypted) {
+                throw new IllegalStateException(file.getName() + " is encrypted as it is sent, open it with its stage");
+            }
+            return open(digest, opener);
+        }
+
+        /**
+         * Like {@link #open(java.util.function.Consumer)}, passing the file's bytes through {@code stage}
+         * instead of the stage it was created with; used for files encrypted on the way out.
+         */
+        public java.nio.channels.ReadableByteChannel open(java.util.function.Consumer<java.nio.ByteBuffer> digest,
+                Opener stage) throws java.io.IOException {
+            java.nio.channels.ReadableByteChannel source =
+                    java.nio.channels.FileChannel.open(file.toPath(), java.nio.file.StandardOpenOption.READ);
+            if (stage == null) {
+                return digest != null ? new DigestingReadableChannel(source, digest) : source;
+            }
+            if (encrypted && digest != null) {
+                source = new DigestingReadableChannel(source, digest);
+            }
+            java.nio.channels.ReadableByteChannel output = stage.open(source);
+            return !encrypted && digest != null ? new DigestingReadableChannel(output, digest) : output;
+        }
+
+        /** Produces the bytes to send from the file's bytes, taking over {@code source}. */
+        @FunctionalInterface
+        public interface Opener {
+            java.nio.channels.ReadableByteChannel open(java.nio.channels.ReadableByteChannel source)
+                    throws java.io.IOException;
+        }
+    }
+
     /**
      * Device types for transfer sessions
      */
@@ -186,6 +397,11 @@ public interface WebSocketService {
         private org.java_websocket.WebSocket receiverWebSocket;
         private String fileName;
         private long fileSize;
+        private java.util.List<ManifestEntry> manifest;
+        private volatile boolean fileDigests;
+        private volatile HashAlgorithm leafHashAlgorithm;
+        private volatile boolean dedup;
+        private volatile boolean delta;
 
         public TransferSession(String transferCode, SenderInfo sender, ReceiverInfo receiver, String fileName,
                 long fileSize) {
@@ -259,6 +475,55 @@ public interface WebSocketService {
         public void setFileSize(long fileSize) {
             this.fileSize = fileSize;
         }
+
+        public java.util.List<ManifestEntry> getManifest() {
+            return manifest;
+        }
+
+        public void setManifest(java.util.List<ManifestEntry> manifest) {
+            this.manifest = manifest;
+        }
+
+        /** True if the receiver takes a digest frame after each file instead of a checksum in the manifest. */
+        public boolean isFileDigests() {
+            return fileDigests;
+        }
+
+        public void setFileDigests(boolean fileDigests) {
+            this.fileDigests = fileDigests;
+        }
+
+        /** True if the receiver takes Merkle leaf hashes to check each part of a file as it lands. */
+        public boolean isLeafHashes() {
+            return leafHashAlgorithm != null;
+        }
+
+        /** Hash agreed with the receiver for the leaves and root of each file's tree, or null without leaf hashes. */
+        public HashAlgorithm getLeafHashAlgorithm() {
+            return leafHashAlgorithm;
+        }
+
+        public void setLeafHashAlgorithm(HashAlgorithm leafHashAlgorithm) {
+            this.leafHashAlgorithm = leafHashAlgorithm;
+        }
+
+        /** True if the receiver looks up content checksums in the manifest among the files it has saved. */
+        public boolean isDedup() {
+            return dedup;
+        }
+
+        public void setDedup(boolean dedup) {
+            this.dedup = dedup;
+        }
+
+        /** True if the receiver signs its saved copies of files, so updated versions can be sent as deltas. */
+        public boolean isDelta() {
+            return delta;
+        }
+
+        public void setDelta(boolean delta) {
+            this.delta = delta;
+        }
     }
 
     /**
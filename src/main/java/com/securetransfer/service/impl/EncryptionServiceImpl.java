@@ -1,6 +1,13 @@
 package com.securetransfer.service.impl;
 
 import com.securetransfer.service.EncryptionService;
+import com.securetransfer.util.CryptoCalibration;
+import com.securetransfer.util.CryptoEngine;
+import com.securetransfer.util.HashAlgorithm;
+import com.securetransfer.util.ProgressThrottle;
+import com.securetransfer.util.SegmentedCipher;
+import com.securetransfer.util.StartupTimings;
+import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -11,16 +18,31 @@ import org.springframework.stereotype.Service;
 import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
 import javax.crypto.CipherOutputStream;
+import javax.crypto.KeyAgreement;
 import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
 import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.security.*;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayDeque;
 import java.util.Base64;
+import java.util.Deque;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
@@ -32,11 +54,32 @@ public class EncryptionServiceImpl implements EncryptionService {
     private static final String ALGORITHM = "AES";
     private static final int KEY_SIZE = 256;
     private static final int KEY_ROTATION_INTERVAL = 24 * 60 * 60 * 1000; // 24 hours
+    // Bulk file jobs and encrypting send channels that may hold crypto buffers at the same time
+    private static final int CRYPTO_ENGINE_JOBS = 16;
+    // Files encrypted while they are sent, see openEncryptingChannel
+    private static final String STREAM_TRANSFORMATION = CryptoCalibration.AES_CTR;
+    // Encrypted strings are "<key id>:<Base64 ciphertext>" so decrypt can pick the key directly
+    private static final char KEY_ID_SEPARATOR = ':';
+    private static final int RETAINED_PREVIOUS_KEYS = 2;
+    // Ephemeral key agreement for the transfer key, see deriveSessionKey
+    private static final String AGREEMENT_ALGORITHM = "X25519";
+    private static final byte[] SESSION_KEY_INFO = "SecureTransfer transfer key wrap v1".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] DIGEST_TAG_INFO = "SecureTransfer file digest tag v1".getBytes(StandardCharsets.US_ASCII);
+    private static final String WRAP_TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int GCM_NONCE_SIZE = 12;
+
+    // Cipher.getInstance does a provider lookup per call; a Cipher is reusable after init but not thread-safe
+    private static final ThreadLocal<Cipher> STRING_CIPHER = ThreadLocal.withInitial(() -> newCipher(ALGORITHM));
+    // Replaced once calibration has picked a faster provider, see streamCipher
+    private static final ThreadLocal<Cipher> STREAM_CIPHER = new ThreadLocal<>();
 
     private final BCryptPasswordEncoder passwordEncoder;
-    private final AtomicReference<byte[]> currentKey;
-    private final ConcurrentHashMap<String, byte[]> previousKeys;
+    private final AtomicReference<KeyEntry> currentKey;
+    private final ConcurrentHashMap<String, KeyEntry> previousKeys;
+    // Ids in previousKeys, oldest first, so rotation drops the oldest
+    private final Deque<String> retiredKeyIds = new ArrayDeque<>();
     private final SecureRandom secureRandom;
+    private final CryptoEngine cryptoEngine = new CryptoEngine(CRYPTO_ENGINE_JOBS);
 
     public EncryptionServiceImpl(@Value("${app.encryption.key}") String initialKey) {
         this.passwordEncoder = new BCryptPasswordEncoder();
@@ -50,8 +93,8 @@ public class EncryptionServiceImpl implements EncryptionService {
             if (decodedKey.length != 32) {
                 throw new IllegalArgumentException("Initial encryption key must be 32 bytes for AES-256");
             }
-            this.currentKey.set(decodedKey);
-            logger.info("Encryption service initialized with provided key");
+            this.currentKey.set(KeyEntry.of(decodedKey));
+            logger.info("Encryption service initialized with provided key {}", currentKey.get().id());
         } catch (Exception e) {
             logger.error("Failed to initialize encryption service with provided key", e);
             throw new IllegalArgumentException("Invalid encryption key format: " + e.getMessage());
@@ -79,11 +122,11 @@ public class EncryptionServiceImpl implements EncryptionService {
     @Override
     public String encrypt(String data) {
         try {
-            SecretKeySpec secretKey = new SecretKeySpec(currentKey.get(), ALGORITHM);
-            Cipher cipher = Cipher.getInstance(ALGORITHM);
-            cipher.init(Cipher.ENCRYPT_MODE, secretKey);
+            KeyEntry key = currentKey.get();
+            Cipher cipher = STRING_CIPHER.get();
+            cipher.init(Cipher.ENCRYPT_MODE, key.spec());
             byte[] encryptedBytes = cipher.doFinal(data.getBytes(StandardCharsets.UTF_8));
-            String encryptedData = Base64.getEncoder().encodeToString(encryptedBytes);
+            String encryptedData = key.id() + KEY_ID_SEPARATOR + Base64.getEncoder().encodeToString(encryptedBytes);
             logger.debug("Data encrypted successfully");
             return encryptedData;
         } catch (Exception e) {
@@ -95,154 +138,266 @@ public class EncryptionServiceImpl implements EncryptionService {
     @Override
     public String decrypt(String encryptedData) {
         try {
-            // Try current key first
-            try {
-                return decryptWithKey(encryptedData, currentKey.get());
-            } catch (Exception e) {
-                // If current key fails, try previous keys
-                for (byte[] key : previousKeys.values()) {
-                    try {
-                        return decryptWithKey(encryptedData, key);
-                    } catch (Exception ignored) {
-                        // Continue trying other keys
-                    }
-                }
-                throw e; // If all keys fail, throw the original exception
+            // Base64 never contains the separator, so its absence marks a value written before key ids
+            int separator = encryptedData.indexOf(KEY_ID_SEPARATOR);
+            if (separator < 0) {
+                return decryptUntagged(encryptedData);
             }
+            String keyId = encryptedData.substring(0, separator);
+            KeyEntry key = currentKey.get();
+            if (!key.id().equals(keyId)) {
+                key = previousKeys.get(keyId);
+            }
+            if (key == null) {
+                throw new IllegalStateException("Unknown or expired encryption key " + keyId);
+            }
+            return decryptWithKey(encryptedData.substring(separator + 1), key);
         } catch (Exception e) {
             logger.error("Error decrypting data", e);
             throw new RuntimeException("Error decrypting data: " + e.getMessage(), e);
         }
     }
 
-    private String decryptWithKey(String encryptedData, byte[] key) throws Exception {
-        SecretKeySpec secretKey = new SecretKeySpec(key, ALGORITHM);
-        Cipher cipher = Cipher.getInstance(ALGORITHM);
-        cipher.init(Cipher.DECRYPT_MODE, secretKey);
+    // Values without a key id can only be matched by trying each key in turn
+    private String decryptUntagged(String encryptedData) throws Exception {
+        try {
+            return decryptWithKey(encryptedData, currentKey.get());
+        } catch (Exception e) {
+            for (KeyEntry key : previousKeys.values()) {
+                try {
+                    return decryptWithKey(encryptedData, key);
+                } catch (Exception ignored) {
+                    // Continue trying other keys
+                }
+            }
+            throw e; // If all keys fail, throw the original exception
+        }
+    }
+
+    private String decryptWithKey(String encryptedData, KeyEntry key) throws Exception {
+        Cipher cipher = STRING_CIPHER.get();
+        cipher.init(Cipher.DECRYPT_MODE, key.spec());
         byte[] decryptedBytes = cipher.doFinal(Base64.getDecoder().decode(encryptedData));
         return new String(decryptedBytes, StandardCharsets.UTF_8);
     }
 
     @Scheduled(fixedRate = KEY_ROTATION_INTERVAL)
-    public void rotateKey() {
+    public synchronized void rotateKey() {
         try {
-            // Generate new key
-            byte[] newKey = new byte[32];
-            secureRandom.nextBytes(newKey);
-
-            // Store current key in previous keys
-            String keyId = Base64.getEncoder().encodeToString(currentKey.get());
-            previousKeys.put(keyId, currentKey.get());
+            // Generate new key, with an id no retained key already uses
+            KeyEntry previous = currentKey.get();
+            KeyEntry next;
+            do {
+                byte[] newKey = new byte[32];
+                secureRandom.nextBytes(newKey);
+                next = KeyEntry.of(newKey);
+            } while (next.id().equals(previous.id()) || previousKeys.containsKey(next.id()));
 
-            // Update current key
-            currentKey.set(newKey);
+            // Keep the current key for decrypting what it encrypted, then switch
+            previousKeys.put(previous.id(), previous);
+            retiredKeyIds.addLast(previous.id());
+            currentKey.set(next);
 
             // Clean up old keys (keep only last 2)
-            if (previousKeys.size() > 2) {
-                previousKeys.keySet().stream()
-                    .limit(previousKeys.size() - 2)
-                    .forEach(previousKeys::remove);
+            while (retiredKeyIds.size() > RETAINED_PREVIOUS_KEYS) {
+                previousKeys.remove(retiredKeyIds.removeFirst());
             }
 
-            logger.info("Encryption key rotated successfully");
+            logger.info("Encryption key rotated successfully, now using key {}", next.id());
         } catch (Exception e) {
             logger.error("Failed to rotate encryption key", e);
             throw new RuntimeException("Failed to rotate encryption key", e);
         }
     }
 
+    private static Cipher newCipher(String transformation) {
+        try {
+            return Cipher.getInstance(transformation);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(transformation + " unavailable", e);
+        }
+    }
+
     // --- File-based AES encryption with IV and progress reporting ---
     @Override
     public void encryptFile(File inputFile, File outputFile, SecretKey aesKey, IvParameterSpec iv, Consumer<Double> progressCallback, Supplier<Boolean> isCancelled) throws IOException {
-        try (FileInputStream fis = new FileInputStream(inputFile);
-             FileOutputStream fos = new FileOutputStream(outputFile)) {
-            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-            cipher.init(Cipher.ENCRYPT_MODE, aesKey, iv);
-            long total = inputFile.length();
-            long processed = 0;
-            byte[] buffer = new byte[8192];
-            int read;
-            logger.info("[ENCRYPTFILE] Running on thread: {}", Thread.currentThread().getName());
-            logger.info("[ENCRYPTFILE] Input: {} ({} bytes) Output: {}", inputFile.getAbsolutePath(), total, outputFile.getAbsolutePath());
-            if (progressCallback != null) { logger.info("[ENCRYPTFILE] Progress callback: 0.0"); progressCallback.accept(0.0); }
-            while ((read = fis.read(buffer)) != -1) {
-                logger.info("[ENCRYPTFILE] Read {} bytes", read);
-                if (isCancelled != null && isCancelled.get()) {
-                    logger.info("[ENCRYPTFILE] Cancelled during read loop");
-                    break;
-                }
-                byte[] encryptedChunk = cipher.update(buffer, 0, read);
-                if (encryptedChunk != null) {
-                    fos.write(encryptedChunk);
-                    fos.flush();
-                    logger.info("[ENCRYPTFILE] Wrote {} encrypted bytes", encryptedChunk.length);
-                }
-                processed += read;
-                if (progressCallback != null && total > 0) {
-                    double prog = Math.min(1.0, (double) processed / total);
-                    logger.info("[ENCRYPTFILE] Progress callback: {}", prog);
-                    progressCallback.accept(prog);
-                }
-            }
-            // Write any final bytes
-            byte[] finalBytes = cipher.doFinal();
-            if (finalBytes != null) {
-                fos.write(finalBytes);
-                fos.flush();
-                logger.info("[ENCRYPTFILE] Wrote final {} encrypted bytes", finalBytes.length);
-            }
-            if (progressCallback != null) { logger.info("[ENCRYPTFILE] Progress callback: 1.0"); progressCallback.accept(1.0); }
-            logger.info("[ENCRYPTFILE] Finished successfully");
-        } catch (Exception e) {
-            logger.error("[ENCRYPTFILE] Exception: {}", e.getMessage(), e);
-            throw new IOException("Error encrypting file: " + e.getMessage(), e);
-        }
+        transformFile(inputFile, outputFile, Cipher.ENCRYPT_MODE, aesKey, iv, progressCallback, isCancelled);
     }
 
     @Override
     public void decryptFile(File inputFile, File outputFile, SecretKey aesKey, IvParameterSpec iv, Consumer<Double> progressCallback, Supplier<Boolean> isCancelled) throws IOException {
-        try (FileInputStream fis = new FileInputStream(inputFile);
-             FileOutputStream fos = new FileOutputStream(outputFile)) {
-            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-            cipher.init(Cipher.DECRYPT_MODE, aesKey, iv);
-            long total = inputFile.length();
-            long processed = 0;
-            byte[] buffer = new byte[8192];
-            int read;
-            logger.info("[DECRYPTFILE] Running on thread: {}", Thread.currentThread().getName());
-            logger.info("[DECRYPTFILE] Input: {} ({} bytes) Output: {}", inputFile.getAbsolutePath(), total, outputFile.getAbsolutePath());
-            if (progressCallback != null) { logger.info("[DECRYPTFILE] Progress callback: 0.0"); progressCallback.accept(0.0); }
-            while ((read = fis.read(buffer)) != -1) {
-                logger.info("[DECRYPTFILE] Read {} bytes", read);
-                if (isCancelled != null && isCancelled.get()) {
-                    logger.info("[DECRYPTFILE] Cancelled during read loop");
-                    break;
-                }
-                byte[] decryptedChunk = cipher.update(buffer, 0, read);
-                if (decryptedChunk != null) {
-                    fos.write(decryptedChunk);
-                    fos.flush();
-                    logger.info("[DECRYPTFILE] Wrote {} decrypted bytes", decryptedChunk.length);
-                }
-                processed += read;
-                if (progressCallback != null && total > 0) {
-                    double prog = Math.min(1.0, (double) processed / total);
-                    logger.info("[DECRYPTFILE] Progress callback: {}", prog);
-                    progressCallback.accept(prog);
-                }
+        transformFile(inputFile, outputFile, Cipher.DECRYPT_MODE, aesKey, iv, progressCallback, isCancelled);
+    }
+
+    private void transformFile(File inputFile, File outputFile, int mode, SecretKey aesKey, IvParameterSpec iv,
+                               Consumer<Double> progressCallback, Supplier<Boolean> isCancelled) throws IOException {
+        String action = mode == Cipher.ENCRYPT_MODE ? "encrypting" : "decrypting";
+        long start = System.nanoTime();
+        boolean done = false;
+        try (FileChannel in = FileChannel.open(inputFile.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(outputFile.toPath(), StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Provider provider = fastestProvider(CryptoCalibration.AES_CBC);
+            Cipher cipher = provider != null ? Cipher.getInstance(CryptoCalibration.AES_CBC, provider)
+                    : Cipher.getInstance(CryptoCalibration.AES_CBC);
+            cipher.init(mode, aesKey, iv);
+            ProgressThrottle progress = new ProgressThrottle(progressCallback, in.size());
+            progress.start();
+            long written = cryptoEngine.transform(in, out, cipher, progress, isCancelled);
+            done = true;
+            logger.info("Finished {} {} ({} -> {} bytes) in {} ms", action, inputFile.getName(), in.size(), written,
+                    (System.nanoTime() - start) / 1_000_000);
+        } catch (CancellationException e) {
+            logger.info("Cancelled {} {}", action, inputFile.getName());
+            throw new IOException("Cancelled " + action + " file", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while " + action + " file", e);
+        } catch (IOException | GeneralSecurityException e) {
+            logger.error("Error {} file {}: {}", action, inputFile.getName(), e.getMessage(), e);
+            throw new IOException("Error " + action + " file: " + e.getMessage(), e);
+        } finally {
+            if (!done) {
+                // A partial output file is of no use and may hold unverified plaintext
+                Files.deleteIfExists(outputFile.toPath());
             }
-            // Write any final bytes
-            byte[] finalBytes = cipher.doFinal();
-            if (finalBytes != null) {
-                fos.write(finalBytes);
-                fos.flush();
-                logger.info("[DECRYPTFILE] Wrote final {} decrypted bytes", finalBytes.length);
+        }
+    }
+
+    @Override
+    public void encryptFileSegmented(File inputFile, File outputFile, SecretKey aesKey, Consumer<Double> progressCallback, Supplier<Boolean> isCancelled) throws IOException {
+        long start = System.nanoTime();
+        try (FileChannel in = FileChannel.open(inputFile.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(outputFile.toPath(), StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            CryptoCalibration calibration = calibrationIfDone();
+            SegmentedCipher.Algorithm algorithm = calibration != null ? calibration.fastestAuthenticated()
+                    : SegmentedCipher.Algorithm.AES_GCM;
+            SegmentedCipher.encrypt(in, out, aesKey, algorithm, fastestProvider(algorithm.transformation()),
+                    SegmentedCipher.DEFAULT_SEGMENT_SIZE, secureRandom, progressCallback, isCancelled);
+        } catch (CancellationException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        logger.info("Segment-encrypted {} ({} bytes) in {} ms", inputFile.getName(), inputFile.length(),
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    @Override
+    public void decryptFileSegmented(File inputFile, File outputFile, SecretKey aesKey, Consumer<Double> progressCallback, Supplier<Boolean> isCancelled) throws IOException {
+        long start = System.nanoTime();
+        boolean decrypted = false;
+        try (FileChannel in = FileChannel.open(inputFile.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(outputFile.toPath(), StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            SegmentedCipher.decrypt(in, out, aesKey, algorithm -> fastestProvider(algorithm.transformation()),
+                    progressCallback, isCancelled);
+            decrypted = true;
+        } catch (CancellationException e) {
+            throw new IOException(e.getMessage(), e);
+        } finally {
+            if (!decrypted) {
+                // Never leave unauthenticated plaintext behind
+                Files.deleteIfExists(outputFile.toPath());
             }
-            if (progressCallback != null) { logger.info("[DECRYPTFILE] Progress callback: 1.0"); progressCallback.accept(1.0); }
-            logger.info("[DECRYPTFILE] Finished successfully");
-        } catch (Exception e) {
-            logger.error("[DECRYPTFILE] Exception: {}", e.getMessage(), e);
-            throw new IOException("Error decrypting file: " + e.getMessage(), e);
+        }
+        logger.info("Segment-decrypted {} ({} bytes) in {} ms", inputFile.getName(), outputFile.length(),
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    @Override
+    public ReadableByteChannel openEncryptingChannel(File inputFile, SecretKey aesKey, IvParameterSpec iv) throws IOException {
+        return openEncryptingChannel(FileChannel.open(inputFile.toPath(), StandardOpenOption.READ), aesKey, iv);
+    }
+
+    @Override
+    public ReadableByteChannel openEncryptingChannel(ReadableByteChannel source, SecretKey aesKey, IvParameterSpec iv) throws IOException {
+        try {
+            Provider provider = fastestProvider(STREAM_TRANSFORMATION);
+            Cipher cipher = provider != null ? Cipher.getInstance(STREAM_TRANSFORMATION, provider)
+                    : Cipher.getInstance(STREAM_TRANSFORMATION);
+            cipher.init(Cipher.ENCRYPT_MODE, aesKey, iv);
+            return cryptoEngine.openReadable(source, cipher);
+        } catch (GeneralSecurityException e) {
+            source.close();
+            throw new IOException("Error initialising encryption: " + e.getMessage(), e);
+        } catch (InterruptedException e) {
+            source.close();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for an encryption buffer", e);
+        }
+    }
+
+    @Override
+    public void decryptStreamChunk(SecretKey aesKey, IvParameterSpec iv, long offset, ByteBuffer chunk) throws IOException {
+        transformStreamChunk(Cipher.DECRYPT_MODE, aesKey, iv, offset, chunk);
+    }
+
+    @Override
+    public void encryptStreamChunk(SecretKey aesKey, IvParameterSpec iv, long offset, ByteBuffer chunk) throws IOException {
+        transformStreamChunk(Cipher.ENCRYPT_MODE, aesKey, iv, offset, chunk);
+    }
+
+    @Override
+    public void encryptStreamChunk(SecretKey aesKey, IvParameterSpec iv, long offset, ByteBuffer source,
+            ByteBuffer target) throws IOException {
+        transformStreamChunk(Cipher.ENCRYPT_MODE, aesKey, iv, offset, source, target);
+    }
+
+    private void transformStreamChunk(int mode, SecretKey aesKey, IvParameterSpec iv, long offset, ByteBuffer chunk)
+            throws IOException {
+        // CTR output is as long as its input, so the result can overwrite the input
+        transformStreamChunk(mode, aesKey, iv, offset, chunk, chunk);
+    }
+
+    private void transformStreamChunk(int mode, SecretKey aesKey, IvParameterSpec iv, long offset, ByteBuffer source,
+            ByteBuffer target) throws IOException {
+        if (offset % 16 != 0) {
+            throw new IllegalArgumentException("Stream chunks must start on a block boundary: " + offset);
+        }
+        try {
+            Cipher cipher = streamCipher();
+            cipher.init(mode, aesKey, counterAt(iv, offset));
+            cipher.doFinal(source.duplicate(), target.duplicate());
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Error " + (mode == Cipher.ENCRYPT_MODE ? "encrypting" : "decrypting")
+                    + " chunk at offset " + offset + ": " + e.getMessage(), e);
+        }
+    }
+
+    // This thread's CTR cipher, on the provider calibration found fastest once it has finished
+    private Cipher streamCipher() throws GeneralSecurityException {
+        Provider provider = fastestProvider(STREAM_TRANSFORMATION);
+        Cipher cipher = STREAM_CIPHER.get();
+        if (cipher == null || (provider != null && cipher.getProvider() != provider)) {
+            cipher = provider != null ? Cipher.getInstance(STREAM_TRANSFORMATION, provider)
+                    : Cipher.getInstance(STREAM_TRANSFORMATION);
+            STREAM_CIPHER.set(cipher);
+        }
+        return cipher;
+    }
+
+    // The CTR counter block for a byte offset: the initial counter plus the number of blocks before it
+    private static IvParameterSpec counterAt(IvParameterSpec iv, long offset) {
+        byte[] counter = iv.getIV().clone();
+        long carry = offset / 16;
+        for (int i = counter.length - 1; i >= 0 && carry != 0; i--) {
+            long sum = (counter[i] & 0xFF) + (carry & 0xFF);
+            counter[i] = (byte) sum;
+            carry = (carry >>> 8) + (sum >>> 8);
+        }
+        return new IvParameterSpec(counter);
+    }
+
+    @Override
+    public IvParameterSpec deriveFileIv(IvParameterSpec transferIv, int fileIndex) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(transferIv.getIV());
+            digest.update(new byte[] { (byte) (fileIndex >>> 24), (byte) (fileIndex >>> 16),
+                    (byte) (fileIndex >>> 8), (byte) fileIndex });
+            return new IvParameterSpec(digest.digest(), 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 unavailable", e);
         }
     }
 
@@ -271,15 +426,126 @@ public class EncryptionServiceImpl implements EncryptionService {
         return new KeyAndIv(aesKey, iv);
     }
 
+    // --- X25519 key agreement, an alternative to RSA key wrapping ---
+    @Override
+    public KeyPair generateAgreementKeyPair() {
+        try {
+            return KeyPairGenerator.getInstance(AGREEMENT_ALGORITHM).generateKeyPair();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(AGREEMENT_ALGORITHM + " unavailable", e);
+        }
+    }
+
+    @Override
+    public SecretKey deriveSessionKey(PrivateKey ownKey, PublicKey peerKey, String transferCode) throws GeneralSecurityException {
+        KeyAgreement agreement = KeyAgreement.getInstance(AGREEMENT_ALGORITHM);
+        agreement.init(ownKey);
+        agreement.doPhase(peerKey, true);
+        byte[] shared = agreement.generateSecret();
+        byte[] key = hkdfSha256(shared, transferCode.getBytes(StandardCharsets.UTF_8), SESSION_KEY_INFO, 32);
+        return new SecretKeySpec(key, ALGORITHM);
+    }
+
+    @Override
+    public byte[] wrapKeyAndIv(SecretKey sessionKey, SecretKey aesKey, IvParameterSpec iv) throws GeneralSecurityException {
+        byte[] nonce = new byte[GCM_NONCE_SIZE];
+        secureRandom.nextBytes(nonce);
+        Cipher cipher = Cipher.getInstance(WRAP_TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, sessionKey, new GCMParameterSpec(128, nonce));
+        byte[] sealed = cipher.doFinal(ByteBuffer.allocate(48).put(aesKey.getEncoded()).put(iv.getIV()).array());
+        return ByteBuffer.allocate(nonce.length + sealed.length).put(nonce).put(sealed).array();
+    }
+
+    @Override
+    public KeyAndIv unwrapKeyAndIv(SecretKey sessionKey, byte[] wrappedKeyAndIv) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(WRAP_TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, sessionKey, new GCMParameterSpec(128, wrappedKeyAndIv, 0, GCM_NONCE_SIZE));
+        byte[] decoded = cipher.doFinal(wrappedKeyAndIv, GCM_NONCE_SIZE, wrappedKeyAndIv.length - GCM_NONCE_SIZE);
+        if (decoded.length != 48) {
+            throw new GeneralSecurityException("Wrapped key has unexpected length " + decoded.length);
+        }
+        return new KeyAndIv(new SecretKeySpec(decoded, 0, 32, ALGORITHM), new IvParameterSpec(decoded, 32, 16));
+    }
+
+    @Override
+    public byte[] digestTag(SecretKey aesKey, int fileIndex, byte[] digest) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(hkdfSha256(aesKey.getEncoded(), new byte[0], DIGEST_TAG_INFO, 32), "HmacSHA256"));
+        mac.update(ByteBuffer.allocate(4).putInt(fileIndex).array());
+        return mac.doFinal(digest);
+    }
+
+    // RFC 5869 extract-then-expand
+    private static byte[] hkdfSha256(byte[] inputKey, byte[] salt, byte[] info, int length) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(salt.length > 0 ? salt : new byte[32], "HmacSHA256"));
+        byte[] pseudoRandomKey = mac.doFinal(inputKey);
+        mac.init(new SecretKeySpec(pseudoRandomKey, "HmacSHA256"));
+        byte[] output = new byte[length];
+        byte[] block = new byte[0];
+        for (int i = 0, counter = 1; i < length; i += block.length, counter++) {
+            mac.update(block);
+            mac.update(info);
+            mac.update((byte) counter);
+            block = mac.doFinal();
+            System.arraycopy(block, 0, output, i, Math.min(block.length, length - i));
+        }
+        return output;
+    }
+
     // --- RSA key pair management ---
     private static final String KEY_DIR = System.getProperty("user.home") + File.separator + ".securetransfer";
     private static final String PUB_KEY_FILE = KEY_DIR + File.separator + "rsa_public.key";
     private static final String PRIV_KEY_FILE = KEY_DIR + File.separator + "rsa_private.key";
-    private KeyPair rsaKeyPair;
+    // Loaded, or on a fresh install generated, in the background from startup on
+    private CompletableFuture<KeyPair> rsaKeyPair;
+
+    // Provider and algorithm benchmarks, run once in the background after the RSA key pair
+    private volatile CompletableFuture<CryptoCalibration> calibration;
+
+    @Override
+    public List<HashAlgorithm> getHashAlgorithmPreference() {
+        CryptoCalibration done = calibrationIfDone();
+        return done != null ? done.hashPreference() : List.of(HashAlgorithm.values());
+    }
+
+    // Work that starts before calibration has finished uses the defaults rather than waiting for it
+    private CryptoCalibration calibrationIfDone() {
+        CompletableFuture<CryptoCalibration> current = calibration;
+        return current != null && current.isDone() && !current.isCompletedExceptionally() ? current.join() : null;
+    }
+
+    private Provider fastestProvider(String transformation) {
+        CryptoCalibration done = calibrationIfDone();
+        return done != null ? done.fastestProvider(transformation) : null;
+    }
+
+    @PostConstruct
+    public void preloadRSAKeyPair() {
+        // Calibrate afterwards, so key generation does not skew the measurements
+        calibration = rsaKeyPair().handle((keyPair, error) -> null)
+                .thenCompose(ignored -> StartupTimings.runInBackground("Crypto calibration", CryptoCalibration::run))
+                .whenComplete((result, error) -> {
+                    if (result != null) {
+                        result.report().forEach(line -> logger.info("Crypto calibration: {}", line));
+                    } else {
+                        logger.warn("Crypto calibration failed, using default providers: {}", error.getMessage());
+                    }
+                });
+    }
 
     @Override
     public KeyPair generateRSAKeyPair() {
+        KeyPair keyPair = createRSAKeyPair();
+        synchronized (this) {
+            rsaKeyPair = CompletableFuture.completedFuture(keyPair);
+        }
+        return keyPair;
+    }
+
+    private KeyPair createRSAKeyPair() {
         try {
+            long start = System.nanoTime();
             KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
             keyGen.initialize(4096);
             KeyPair keyPair = keyGen.generateKeyPair();
@@ -291,7 +557,7 @@ public class EncryptionServiceImpl implements EncryptionService {
                 pubOut.write(keyPair.getPublic().getEncoded());
                 privOut.write(keyPair.getPrivate().getEncoded());
             }
-            this.rsaKeyPair = keyPair;
+            logger.info("Generated RSA key pair in {} ms", (System.nanoTime() - start) / 1_000_000);
             return keyPair;
         } catch (Exception e) {
             throw new RuntimeException("Failed to generate RSA key pair", e);
@@ -300,33 +566,55 @@ public class EncryptionServiceImpl implements EncryptionService {
 
     @Override
     public PublicKey getPublicKey() {
-        ensureRSAKeyPairLoaded();
-        return rsaKeyPair.getPublic();
+        return awaitRSAKeyPair().getPublic();
     }
 
     @Override
     public PrivateKey getPrivateKey() {
-        ensureRSAKeyPairLoaded();
-        return rsaKeyPair.getPrivate();
+        return awaitRSAKeyPair().getPrivate();
     }
 
-    private void ensureRSAKeyPairLoaded() {
-        if (rsaKeyPair != null) return;
+    // Only blocks when the first transfer comes before the background load has finished
+    private KeyPair awaitRSAKeyPair() {
         try {
-            File pubFile = new File(PUB_KEY_FILE);
-            File privFile = new File(PRIV_KEY_FILE);
-            if (!pubFile.exists() || !privFile.exists()) {
-                rsaKeyPair = generateRSAKeyPair();
-                return;
+            return rsaKeyPair().join();
+        } catch (CompletionException e) {
+            throw new RuntimeException("Failed to load RSA key pair", e.getCause());
+        }
+    }
+
+    private synchronized CompletableFuture<KeyPair> rsaKeyPair() {
+        if (rsaKeyPair == null || rsaKeyPair.isCompletedExceptionally()) {
+            rsaKeyPair = StartupTimings.runInBackground("RSA key pair", this::loadRSAKeyPair);
+        }
+        return rsaKeyPair;
+    }
+
+    private KeyPair loadRSAKeyPair() throws GeneralSecurityException, IOException {
+        File pubFile = new File(PUB_KEY_FILE);
+        File privFile = new File(PRIV_KEY_FILE);
+        if (!pubFile.exists() || !privFile.exists()) {
+            return createRSAKeyPair();
+        }
+        byte[] pubBytes = java.nio.file.Files.readAllBytes(pubFile.toPath());
+        byte[] privBytes = java.nio.file.Files.readAllBytes(privFile.toPath());
+        KeyFactory kf = KeyFactory.getInstance("RSA");
+        PublicKey pub = kf.generatePublic(new X509EncodedKeySpec(pubBytes));
+        PrivateKey priv = kf.generatePrivate(new PKCS8EncodedKeySpec(privBytes));
+        return new KeyPair(pub, priv);
+    }
+
+    /**
+     * A string encryption key with the short id written in front of everything it encrypts.
+     */
+    private record KeyEntry(String id, SecretKeySpec spec) {
+        static KeyEntry of(byte[] key) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(key);
+                return new KeyEntry(HexFormat.of().formatHex(digest, 0, 4), new SecretKeySpec(key, ALGORITHM));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 unavailable", e);
             }
-            byte[] pubBytes = java.nio.file.Files.readAllBytes(pubFile.toPath());
-            byte[] privBytes = java.nio.file.Files.readAllBytes(privFile.toPath());
-            KeyFactory kf = KeyFactory.getInstance("RSA");
-            PublicKey pub = kf.generatePublic(new X509EncodedKeySpec(pubBytes));
-            PrivateKey priv = kf.generatePrivate(new PKCS8EncodedKeySpec(privBytes));
-            rsaKeyPair = new KeyPair(pub, priv);
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to load RSA key pair", e);
         }
     }
-} 
\ No newline at end of file
+}
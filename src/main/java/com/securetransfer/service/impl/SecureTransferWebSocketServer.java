@@ -1,26 +1,56 @@
 package com.securetransfer.service.impl;
 
+import com.securetransfer.service.EncryptionService;
 import com.securetransfer.service.WebSocketService.TransferSession;
 import com.securetransfer.service.WebSocketService.SenderInfo;
 import com.securetransfer.service.WebSocketService.ReceiverInfo;
+import com.securetransfer.service.WebSocketService.ManifestEntry;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.java_websocket.WebSocket;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
 import org.java_websocket.handshake.ClientHandshake;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.crypto.SecretKey;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.KeyManagerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.beans.factory.annotation.Autowired;
+import com.securetransfer.model.entity.TransferCheckpoint;
+import com.securetransfer.repository.TransferCheckpointRepository;
+import com.securetransfer.util.BlockSignatures;
+import com.securetransfer.util.ChunkBitmap;
+import com.securetransfer.util.ChunkSizeController;
+import com.securetransfer.util.HashAlgorithm;
+import com.securetransfer.util.TransferStripes;
 import com.securetransfer.util.KeystoreManager;
+import com.securetransfer.util.MerkleTree;
+import com.securetransfer.util.StartupTimings;
+import com.securetransfer.util.TransferFrame;
+import java.security.KeyFactory;
+import java.security.KeyPair;
 import java.security.KeyStore;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
 import java.util.function.BiConsumer;
 
 @Component
@@ -29,6 +59,53 @@ public class SecureTransferWebSocketServer extends org.java_websocket.server.Web
     private final Map<String, TransferSession> activeSessions = new ConcurrentHashMap<>();
     private final ObjectMapper objectMapper = new ObjectMapper();
     
+    // Receiver connections per transfer, each with its own send window
+    private final Map<String, TransferStripes> receiverStripes = new ConcurrentHashMap<>();
+
+    @Value("${transfer.window-frames:8}")
+    private int windowFrames;
+
+    @Value("${transfer.window-bytes:16777216}")
+    private long windowBytes;
+
+    @Value("${transfer.credit-timeout-ms:30000}")
+    private long creditTimeoutMs;
+
+    @Autowired
+    private TransferCheckpointRepository checkpointRepository;
+
+    @Autowired
+    private EncryptionService encryptionService;
+
+    // RSA public keys receivers announce, used to wrap the transfer key for them
+    private final Map<String, PublicKey> receiverPublicKeys = new ConcurrentHashMap<>();
+    private final Map<String, PublicKey> receiverAgreementKeys = new ConcurrentHashMap<>();
+    private static final String KEY_AGREEMENT = "X25519";
+
+    // Resume points a reconnecting receiver reported, by transfer code and file index
+    private final Map<String, Map<Integer, ManifestEntry>> resumeRequests = new ConcurrentHashMap<>();
+
+    // Chunks the receiver has acknowledged, by transfer code and file index
+    private final Map<String, Map<Integer, ChunkBitmap>> acknowledgedChunks = new ConcurrentHashMap<>();
+    private final Map<String, Long> lastCheckpointSaved = new ConcurrentHashMap<>();
+    private static final long CHECKPOINT_INTERVAL_NANOS = 1_000_000_000L;
+
+    // Chunk size controllers of transfers being sent, fed with acknowledgement timings
+    private final Map<String, ChunkSizeController> chunkSizers = new ConcurrentHashMap<>();
+
+    // Ranges the receiver found corrupt on disk and asked for again, by transfer code
+    private final Map<String, Queue<ResendRange>> resendRequests = new ConcurrentHashMap<>();
+
+    // Replies to manifests that offered content checksums: the files the receiver already holds
+    private final Map<String, CompletableFuture<Set<Integer>>> duplicateReplies = new ConcurrentHashMap<>();
+
+    // Signatures of the receiver's old copies of files offered as deltas, by transfer code and file index
+    private final Map<String, Map<Integer, CompletableFuture<BlockSignatures>>> signatureReplies =
+            new ConcurrentHashMap<>();
+
+    private final CompletableFuture<SSLContext> sslContext;
+    private CompletableFuture<Void> started;
+
     private BiConsumer<String, WebSocket> receiverConnectedCallback;
     public void setReceiverConnectedCallback(BiConsumer<String, WebSocket> callback) {
         this.receiverConnectedCallback = callback;
@@ -38,18 +115,44 @@ public class SecureTransferWebSocketServer extends org.java_websocket.server.Web
         // Try to bind to the preferred port, but fall back to other ports if needed
         super(new InetSocketAddress("0.0.0.0", findAvailablePort(preferredPort)));
         logger.info("Initializing WebSocket server on port {} bound to all interfaces", getPort());
-        try {
-            KeystoreManager km = new KeystoreManager();
-            KeyStore ks = km.loadOrCreateKeystore();
-            String password = km.getKeystorePassword();
-            KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
-            kmf.init(ks, password.toCharArray());
-            SSLContext sslContext = SSLContext.getInstance("TLS");
-            sslContext.init(kmf.getKeyManagers(), null, null);
-            setWebSocketFactory(new org.java_websocket.server.DefaultSSLWebSocketServerFactory(sslContext));
-        } catch (Exception e) {
-            logger.warn("Could not initialize SSL for WebSocket server, running in non-SSL mode: {}", e.getMessage());
+        // A fresh install creates its keystore here, which takes seconds, so it must not hold up startup
+        this.sslContext = StartupTimings.runInBackground("TLS keystore", SecureTransferWebSocketServer::createSslContext);
+    }
+
+    private static SSLContext createSslContext() throws Exception {
+        KeystoreManager km = new KeystoreManager();
+        KeyStore ks = km.loadOrCreateKeystore();
+        String password = km.getKeystorePassword();
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(ks, password.toCharArray());
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(kmf.getKeyManagers(), null, null);
+        return sslContext;
+    }
+
+    /**
+     * Starts the server once its TLS context is ready, in plain mode if that failed. Safe to call
+     * repeatedly; everything that needs the server listening waits on the returned future.
+     */
+    public synchronized CompletableFuture<Void> startWhenReady() {
+        if (started == null) {
+            started = sslContext.handle((context, error) -> {
+                if (context != null) {
+                    setWebSocketFactory(new org.java_websocket.server.DefaultSSLWebSocketServerFactory(context));
+                } else {
+                    logger.warn("Could not initialize SSL for WebSocket server, running in non-SSL mode: {}",
+                            error.getMessage());
+                }
+                try {
+                    start();
+                    logger.info("WebSocket server started successfully on port {}", getActualPort());
+                } catch (Exception e) {
+                    logger.error("Failed to start WebSocket server", e);
+                }
+                return null;
+            });
         }
+        return started;
     }
 
     private static int findAvailablePort(int preferredPort) {
@@ -102,8 +205,23 @@ public class SecureTransferWebSocketServer extends org.java_websocket.server.Web
             
             String transferCode = params.get("code");
             String role = params.get("role");
-            
-            if (transferCode != null && role != null) {
+            String stripe = params.get("stripe");
+
+            if (transferCode != null && "receiver".equalsIgnoreCase(role) && stripe != null) {
+                // Additional connection striping an existing receiver's transfer
+                TransferStripes stripes = receiverStripes.get(transferCode);
+                try {
+                    int index = Integer.parseInt(stripe);
+                    if (stripes == null || index <= 0) {
+                        throw new IllegalArgumentException("no primary receiver connection");
+                    }
+                    stripes.addStripe(index, conn);
+                    conn.setAttachment(new ConnectionRole(transferCode, false));
+                } catch (IllegalArgumentException e) {
+                    logger.warn("Rejecting stripe {} for transfer code {}: {}", stripe, transferCode, e.getMessage());
+                    conn.close();
+                }
+            } else if (transferCode != null && role != null) {
                 boolean isSender = "sender".equalsIgnoreCase(role);
                 logger.info("Registering {} WebSocket for transfer code: {} from {}", 
                             role, transferCode, remoteAddress);
@@ -142,6 +260,13 @@ public class SecureTransferWebSocketServer extends org.java_websocket.server.Web
         }
     }
     
+    /**
+     * The transfer a connection belongs to and which side of it the connection is, kept as the
+     * connection's attachment from the moment it registers until it closes.
+     */
+    private record ConnectionRole(String transferCode, boolean sender) {
+    }
+
     private Map<String, String> parseQueryParams(String query) {
         Map<String, String> params = new HashMap<>();
         String[] pairs = query.split("&");
@@ -155,9 +280,55 @@ public class SecureTransferWebSocketServer extends org.java_websocket.server.Web
         }
         return params;
     }
+
+    /**
+     * Picks the leaf hash from the receiver's list, which is in its order of preference, or null if
+     * it does not check leaves or offers nothing this side knows.
+     */
+    private static HashAlgorithm chooseLeafHash(Object offered) {
+        if (offered instanceof List<?> ids) {
+            for (Object id : ids) {
+                HashAlgorithm algorithm = HashAlgorithm.fromId(String.valueOf(id));
+                if (algorithm != null) {
+                    return algorithm;
+                }
+            }
+            return null;
+        }
+        // Receivers from before the choice only took SHA-256 leaves
+        return Boolean.TRUE.equals(offered) ? HashAlgorithm.SHA_256 : null;
+    }
+
     @Override
     public void onClose(WebSocket conn, int code, String reason, boolean remote) {
         logger.info("WebSocket connection closed: {} (code: {}, reason: {})", conn.getRemoteSocketAddress(), code, reason);
+        ConnectionRole role = conn.getAttachment();
+        conn.setAttachment(null);
+        if (role == null || role.sender()) {
+            return;
+        }
+        String transferCode = role.transferCode();
+        TransferSession session = activeSessions.get(transferCode);
+        boolean primary = session != null && session.getReceiverWebSocket() == conn;
+        if (primary) {
+            // A reconnecting receiver shares fresh keys
+            receiverPublicKeys.remove(transferCode);
+            receiverAgreementKeys.remove(transferCode);
+        }
+        // Release a sender that is waiting on credit from this receiver
+        TransferStripes stripes = receiverStripes.get(transferCode);
+        if (stripes != null) {
+            // What was in flight on a lost stripe goes again on the others
+            stripes.removeConnection(conn, lost -> resendRequests
+                    .computeIfAbsent(transferCode, key -> new ConcurrentLinkedQueue<>())
+                    .add(new ResendRange(lost.fileIndex(), lost.offset(), lost.length())));
+            if (stripes.isEmpty() || primary) {
+                receiverStripes.remove(transferCode, stripes);
+                stripes.close();
+            } else {
+                logger.warn("Lost a receiver stripe for transfer code {}, continuing on the others", transferCode);
+            }
+        }
     }
     @Override
     public void onMessage(WebSocket conn, String message) {
@@ -181,6 +352,90 @@ public class SecureTransferWebSocketServer extends org.java_websocket.server.Web
                     long bytesTransferred = ((Number) msg.get("bytesTransferred")).longValue();
                     logger.info("Progress for {}: {}% ({} bytes)", transferCode, progress * 100, bytesTransferred);
                     break;
+                case "resend":
+                    // Sent ahead of the credit for the frame that exposed the bad range, on the same connection
+                    resendRequests.computeIfAbsent(transferCode, code -> new ConcurrentLinkedQueue<>())
+                            .add(new ResendRange(((Number) msg.get("fileIndex")).intValue(),
+                                    ((Number) msg.get("offset")).longValue(), ((Number) msg.get("length")).intValue()));
+                    logger.info("Receiver asked for {} bytes at {} of file {} again for transfer code: {}",
+                            msg.get("length"), msg.get("offset"), msg.get("fileIndex"), transferCode);
+                    break;
+                case "credit":
+                    int frames = ((Number) msg.getOrDefault("credits", 1)).intValue();
+                    long bytes = ((Number) msg.getOrDefault("bytes", 0)).longValue();
+                    TransferStripes stripes = receiverStripes.get(transferCode);
+                    if (msg.get("fileIndex") instanceof Number fileIndex) {
+                        long offset = ((Number) msg.getOrDefault("offset", 0)).longValue();
+                        long length = ((Number) msg.getOrDefault("length", 0)).longValue();
+                        if (stripes != null && length > 0) {
+                            stripes.acknowledge(conn, fileIndex.intValue(), offset);
+                        }
+                        ChunkSizeController sizer = chunkSizers.get(transferCode);
+                        if (sizer != null) {
+                            sizer.onAcknowledged(fileIndex.intValue(), offset, length);
+                        }
+                        if (recordAcknowledged(transferCode, fileIndex.intValue(), offset, length) && sizer != null) {
+                            // Chunks of the file still timed were never acknowledged, e.g. lost with a stripe
+                            sizer.forgetFile(fileIndex.intValue());
+                        }
+                    }
+                    // Credit last, so a sender woken by it already sees the frame acknowledged
+                    if (stripes != null) {
+                        stripes.grant(conn, frames, bytes);
+                    }
+                    break;
+                case "publicKey":
+                    byte[] encoded = Base64.getDecoder().decode((String) msg.get("key"));
+                    receiverPublicKeys.put(transferCode,
+                            KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(encoded)));
+                    // Receivers that support key agreement also send a one-off X25519 key
+                    String agreementKey = (String) msg.get("agreementKey");
+                    if (agreementKey != null) {
+                        receiverAgreementKeys.put(transferCode, KeyFactory.getInstance(KEY_AGREEMENT)
+                                .generatePublic(new X509EncodedKeySpec(Base64.getDecoder().decode(agreementKey))));
+                    } else {
+                        receiverAgreementKeys.remove(transferCode);
+                    }
+                    TransferSession keySession = activeSessions.get(transferCode);
+                    if (keySession != null) {
+                        keySession.setFileDigests(Boolean.TRUE.equals(msg.get("fileDigests")));
+                        keySession.setLeafHashAlgorithm(chooseLeafHash(msg.get("leafHashes")));
+                        keySession.setDedup(Boolean.TRUE.equals(msg.get("dedup")));
+                        keySession.setDelta(Boolean.TRUE.equals(msg.get("delta")));
+                    }
+                    logger.info("Receiver shared its public key for transfer code: {} (key agreement: {})",
+                            transferCode, agreementKey != null ? KEY_AGREEMENT : "none, using RSA");
+                    break;
+                case "resume":
+                    @SuppressWarnings("unchecked")
+                    List<Map<String, Object>> files = (List<Map<String, Object>>) msg.get("files");
+                    Map<Integer, ManifestEntry> requested = new HashMap<>();
+                    if (files != null) {
+                        for (Map<String, Object> file : files) {
+                            int index = ((Number) file.get("index")).intValue();
+                            requested.put(index, new ManifestEntry(index, (String) file.get("fileName"),
+                                    ((Number) file.get("fileSize")).longValue(), 0, null,
+                                    ((Number) file.get("offset")).longValue()));
+                        }
+                    }
+                    resumeRequests.put(transferCode, requested);
+                    logger.info("Receiver asked to resume {} file(s) for transfer code: {}", requested.size(), transferCode);
+                    break;
+                case "have":
+                    CompletableFuture<Set<Integer>> reply = duplicateReplies.get(transferCode);
+                    if (reply != null) {
+                        Set<Integer> held = new HashSet<>();
+                        Object indexes = msg.get("files");
+                        if (indexes instanceof List<?> list) {
+                            list.forEach(index -> held.add(((Number) index).intValue()));
+                        }
+                        reply.complete(held);
+                    }
+                    break;
+                case "signatures":
+                    completeSignatures(transferCode, ((Number) msg.get("fileIndex")).intValue(),
+                            (String) msg.get("signatures"));
+                    break;
                 case "complete":
                     boolean success = Boolean.TRUE.equals(msg.get("success"));
                     String error = (String) msg.get("error");
@@ -196,27 +451,21 @@ public class SecureTransferWebSocketServer extends org.java_websocket.server.Web
     @Override
     public void onMessage(WebSocket conn, ByteBuffer message) {
         logger.debug("Received binary message of {} bytes", message.remaining());
+        // The connection carries the transfer and role it registered for, so no session has to be searched
+        ConnectionRole role = conn.getAttachment();
+        TransferSession session = role != null ? activeSessions.get(role.transferCode()) : null;
         String transferCode = null;
         boolean isSender = false;
-        
-        // Find which transfer session and role this connection belongs to
-        for (Map.Entry<String, TransferSession> entry : activeSessions.entrySet()) {
-            if (entry.getValue().getSenderWebSocket() == conn) {
-                transferCode = entry.getKey();
-                isSender = true;
-                break;
-            } else if (entry.getValue().getReceiverWebSocket() == conn) {
-                transferCode = entry.getKey();
-                isSender = false;
-                break;
-            }
+        if (session != null && (!role.sender() || session.getSenderWebSocket() == conn)) {
+            transferCode = role.transferCode();
+            isSender = role.sender();
         }
         
         if (transferCode != null) {
             if (isSender) {
                 logger.info("Received binary data from sender for transfer code: {} ({} bytes)", 
                             transferCode, message.remaining());
-                sendFileChunk(transferCode, message.array());
+                sendFileChunk(transferCode, message);
             } else {
                 logger.info("Received binary data from receiver for transfer code: {} ({} bytes)", 
                             transferCode, message.remaining());
@@ -240,6 +489,7 @@ public class SecureTransferWebSocketServer extends org.java_websocket.server.Web
         
         if (session != null) {
             logger.info("Found existing session for transfer code: {}", transferCode);
+            conn.setAttachment(new ConnectionRole(transferCode, isSender));
             if (isSender) {
                 session.setSenderWebSocket(conn);
                 logger.info("Sender WebSocket registered for code {}", transferCode);
@@ -268,6 +518,13 @@ public class SecureTransferWebSocketServer extends org.java_websocket.server.Web
             } else {
                 session.setReceiverWebSocket(conn);
                 logger.info("Receiver WebSocket registered for code {}", transferCode);
+                // A new receiver connection starts with a full window as stripe 0
+                TransferStripes stripes = new TransferStripes(transferCode, windowFrames, windowBytes);
+                stripes.addStripe(0, conn);
+                TransferStripes previous = receiverStripes.put(transferCode, stripes);
+                if (previous != null) {
+                    previous.close();
+                }
                 
                 // If sender is already connected, notify both parties
                 if (session.getSenderWebSocket() != null) {
@@ -307,54 +564,431 @@ public class SecureTransferWebSocketServer extends org.java_websocket.server.Web
             logger.warn("No active session for code {} to register WebSocket", transferCode);
         }
     }
-    public void sendFileChunk(String transferCode, byte[] chunk) {
+    /**
+     * Sends one frame of a transfer, waiting until the receiver has room for it.
+     * The frame goes out on the receiver connection its chunk index is striped to; transfers
+     * whose receiver never registered on this server use the primary connection unthrottled.
+     * The frame is sent as one WebSocket message, never in fragments, so text messages other
+     * threads send on the same connection cannot land inside it. A frame that finds its stripe
+     * closed is not an error: the stripe hands it back for sending again once it is dropped.
+     *
+     * @param frame      header and payload, from the buffer's position to its limit
+     * @param dataLength length of file data the frame stands for, larger than its payload for a delta
+     */
+    public void sendFrame(String transferCode, long chunkIndex, ByteBuffer frame, int dataLength)
+            throws IOException, InterruptedException {
         TransferSession session = activeSessions.get(transferCode);
-        if (session != null && session.getReceiverWebSocket() != null) {
-            // Check if this is the last chunk by looking for EOF marker
-            boolean isLastChunk = false;
-            if (chunk.length >= 8) {
-                byte[] lastBytes = new byte[8];
-                System.arraycopy(chunk, chunk.length - 8, lastBytes, 0, 8);
-                String marker = new String(lastBytes);
-                isLastChunk = "EOF_MARK".equals(marker);
+        if (session == null || session.getReceiverWebSocket() == null) {
+            logger.warn("No receiver WebSocket for code {}", transferCode);
+            return;
+        }
+        TransferStripes stripes = receiverStripes.get(transferCode);
+        WebSocket target = stripes != null
+                ? stripes.acquire(chunkIndex, frame, dataLength, creditTimeoutMs)
+                : session.getReceiverWebSocket();
+        try {
+            deliverFrame(session, transferCode, target, frame);
+        } catch (WebsocketNotConnectedException e) {
+            if (target == session.getReceiverWebSocket()) {
+                throw new IOException("Receiver connection closed for transfer code " + transferCode, e);
             }
-            
-            if (isLastChunk) {
-                logger.info("Sending final chunk with EOF marker for transfer code: {} ({} bytes)", 
-                    transferCode, chunk.length);
-                
-                // Send a notification message first
-                try {
-                    Map<String, Object> notification = new HashMap<>();
-                    notification.put("type", "finalChunk");
-                    notification.put("transferCode", transferCode);
-                    notification.put("timestamp", System.currentTimeMillis());
-                    session.getReceiverWebSocket().send(objectMapper.writeValueAsString(notification));
-                } catch (Exception e) {
-                    logger.error("Error sending final chunk notification: {}", e.getMessage());
-                }
+            logger.info("Stripe closed under chunk {} of transfer code {}, it will be sent again", chunkIndex,
+                    transferCode);
+        }
+    }
+
+    /**
+     * Tells the receiver the transfer is complete. Only called once every stripe has drained, so
+     * the message cannot overtake frames still queued on other connections.
+     */
+    public void sendTransferComplete(String transferCode) {
+        TransferSession session = activeSessions.get(transferCode);
+        if (session == null || session.getReceiverWebSocket() == null) {
+            return;
+        }
+        try {
+            Map<String, Object> completion = new HashMap<>();
+            completion.put("type", "transferComplete");
+            completion.put("transferCode", transferCode);
+            completion.put("success", true);
+            completion.put("timestamp", System.currentTimeMillis());
+            session.getReceiverWebSocket().send(objectMapper.writeValueAsString(completion));
+            logger.info("Sent transfer completion notification for code: {}", transferCode);
+        } catch (Exception e) {
+            logger.error("Error sending transfer completion notification: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Announces the files of a session to the receiver ahead of the first frame.
+     */
+    public void sendManifest(String transferCode, List<ManifestEntry> manifest) throws IOException {
+        TransferSession session = activeSessions.get(transferCode);
+        if (session == null || session.getReceiverWebSocket() == null) {
+            throw new IOException("No receiver connected for transfer code " + transferCode);
+        }
+        session.setManifest(manifest);
+        resumeRequests.remove(transferCode);
+        resendRequests.remove(transferCode);
+        startAcknowledgedTracking(transferCode, manifest);
+
+        List<Map<String, Object>> files = new ArrayList<>();
+        for (ManifestEntry entry : manifest) {
+            Map<String, Object> file = new HashMap<>();
+            file.put("index", entry.getIndex());
+            file.put("fileName", entry.getFileName());
+            file.put("fileSize", entry.getFileSize());
+            file.put("offset", entry.getOffset());
+            file.put("checksum", entry.getChecksum());
+            file.put("resumeOffset", entry.getResumeOffset());
+            file.put("delta", entry.isDelta());
+            files.add(file);
+        }
+        Map<String, Object> message = new HashMap<>();
+        message.put("type", "manifest");
+        message.put("transferCode", transferCode);
+        message.put("files", files);
+        // Saved by the receiver with what it got, so only this sender's old copies are used for deltas
+        if (session.getSender() != null) {
+            message.put("sender", session.getSender().getUsername());
+        }
+        // Digests are computed while sending, so they follow each file instead of coming up front
+        message.put("fileDigests", session.isFileDigests());
+        if (session.isLeafHashes()) {
+            message.put("leafSize", MerkleTree.LEAF_SIZE);
+            message.put("hashAlgorithm", session.getLeafHashAlgorithm().id());
+        }
+        // Asks the receiver which of the files it already holds, before anything is sent
+        if (session.isDedup() && manifest.stream().anyMatch(entry -> entry.getChecksum() != null)) {
+            duplicateReplies.put(transferCode, new CompletableFuture<>());
+            message.put("dedup", true);
+        } else {
+            duplicateReplies.remove(transferCode);
+        }
+        // The receiver signs its old copy of each file offered as a delta, or says it has none
+        Map<Integer, CompletableFuture<BlockSignatures>> signatures = new ConcurrentHashMap<>();
+        manifest.stream().filter(ManifestEntry::isDelta)
+                .forEach(entry -> signatures.put(entry.getIndex(), new CompletableFuture<>()));
+        signatureReplies.put(transferCode, signatures);
+        message.put("timestamp", System.currentTimeMillis());
+        session.getReceiverWebSocket().send(objectMapper.writeValueAsString(message));
+        logger.info("Sent manifest with {} file(s) for transfer code: {}", manifest.size(), transferCode);
+    }
+
+    /**
+     * Waits for the receiver to say which files of the manifest it already holds, by index. Empty if
+     * the manifest offered no checksums, or if the receiver does not answer within the credit timeout,
+     * in which case every file is sent.
+     */
+    public Set<Integer> awaitDuplicates(String transferCode) throws InterruptedException {
+        CompletableFuture<Set<Integer>> reply = duplicateReplies.get(transferCode);
+        if (reply == null) {
+            return Set.of();
+        }
+        try {
+            return reply.get(creditTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            logger.warn("Receiver did not say which files it holds for transfer code: {}, sending all", transferCode);
+            return Set.of();
+        } finally {
+            duplicateReplies.remove(transferCode);
+        }
+    }
+
+    private void completeSignatures(String transferCode, int fileIndex, String encoded) {
+        Map<Integer, CompletableFuture<BlockSignatures>> signatures = signatureReplies.get(transferCode);
+        CompletableFuture<BlockSignatures> reply = signatures != null ? signatures.get(fileIndex) : null;
+        TransferSession session = activeSessions.get(transferCode);
+        if (reply == null || session == null) {
+            return;
+        }
+        if (encoded == null || session.getLeafHashAlgorithm() == null) {
+            reply.complete(null);
+            return;
+        }
+        try {
+            reply.complete(BlockSignatures.fromByteArray(Base64.getDecoder().decode(encoded),
+                    session.getLeafHashAlgorithm()));
+        } catch (IllegalArgumentException e) {
+            logger.warn("Ignoring malformed block signatures for file {} of transfer code: {}", fileIndex,
+                    transferCode);
+            reply.complete(null);
+        }
+    }
+
+    /**
+     * Waits for the signatures of the receiver's old copy of a file offered as a delta. Null if the
+     * file was not offered, the receiver has no copy, or it does not answer within the credit
+     * timeout; the file is then sent whole.
+     */
+    public BlockSignatures awaitSignatures(String transferCode, int fileIndex) throws InterruptedException {
+        Map<Integer, CompletableFuture<BlockSignatures>> signatures = signatureReplies.get(transferCode);
+        CompletableFuture<BlockSignatures> reply = signatures != null ? signatures.remove(fileIndex) : null;
+        if (reply == null) {
+            return null;
+        }
+        try {
+            return reply.get(creditTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            logger.warn("Receiver did not sign its copy of file {} in time for transfer code: {}, sending it whole",
+                    fileIndex, transferCode);
+            return null;
+        }
+    }
+
+    public void forgetSignatures(String transferCode) {
+        signatureReplies.remove(transferCode);
+    }
+
+    /**
+     * Sends the transfer key ahead of the manifest and the first encrypted frame. If the receiver
+     * offered an X25519 key, the transfer key is wrapped under a key agreed with a one-off key of
+     * ours; otherwise, for receivers that predate key agreement, it is wrapped with their RSA key.
+     */
+    public void sendKeyExchange(String transferCode, EncryptionService.KeyAndIv transferKey) throws IOException {
+        TransferSession session = activeSessions.get(transferCode);
+        if (session == null || session.getReceiverWebSocket() == null) {
+            throw new IOException("No receiver connected for transfer code " + transferCode);
+        }
+        // Kept until the receiver reconnects, so a retry over the same connection can send a key again
+        PublicKey receiverKey = receiverPublicKeys.get(transferCode);
+        PublicKey receiverAgreementKey = receiverAgreementKeys.get(transferCode);
+        if (receiverKey == null) {
+            throw new IOException("Receiver has not shared a public key for transfer code " + transferCode);
+        }
+        Map<String, Object> message = new HashMap<>();
+        message.put("type", "key");
+        message.put("transferCode", transferCode);
+        long start = System.nanoTime();
+        try {
+            if (receiverAgreementKey != null) {
+                KeyPair ownKey = encryptionService.generateAgreementKeyPair();
+                SecretKey sessionKey = encryptionService.deriveSessionKey(ownKey.getPrivate(), receiverAgreementKey,
+                        transferCode);
+                message.put("agreement", KEY_AGREEMENT);
+                message.put("agreementKey", Base64.getEncoder().encodeToString(ownKey.getPublic().getEncoded()));
+                message.put("wrappedKey", Base64.getEncoder().encodeToString(
+                        encryptionService.wrapKeyAndIv(sessionKey, transferKey.key(), transferKey.iv())));
+            } else {
+                message.put("wrappedKey", Base64.getEncoder().encodeToString(
+                        encryptionService.encryptKeyAndIvWithRSA(receiverKey, transferKey.key(), transferKey.iv())));
             }
-            
-            // Send the actual binary data
-            session.getReceiverWebSocket().send(chunk);
-            logger.debug("Sent file chunk to receiver for code {} ({} bytes)", transferCode, chunk.length);
-            
-            // If this was the last chunk, also send a completion message
-            if (isLastChunk) {
-                try {
-                    Map<String, Object> completion = new HashMap<>();
-                    completion.put("type", "transferComplete");
-                    completion.put("transferCode", transferCode);
-                    completion.put("success", true);
-                    completion.put("timestamp", System.currentTimeMillis());
-                    session.getReceiverWebSocket().send(objectMapper.writeValueAsString(completion));
-                    logger.info("Sent transfer completion notification for code: {}", transferCode);
-                } catch (Exception e) {
-                    logger.error("Error sending transfer completion notification: {}", e.getMessage());
-                }
+        } catch (Exception e) {
+            throw new IOException("Failed to wrap transfer key: " + e.getMessage(), e);
+        }
+        long micros = (System.nanoTime() - start) / 1_000;
+        session.getReceiverWebSocket().send(objectMapper.writeValueAsString(message));
+        logger.info("Sent transfer key for transfer code: {} wrapped with {} in {} us", transferCode,
+                receiverAgreementKey != null ? KEY_AGREEMENT : "RSA", micros);
+    }
+
+    /**
+     * Returns where the sender may resume a file, or 0 to send it from the start.
+     * A reconnecting receiver's resume point is only honoured if this side also holds a
+     * checkpoint for the same file under the same code, so a stale part-file from an
+     * unrelated transfer that happened to reuse the code is never continued.
+     */
+    public long resumeOffsetFor(String transferCode, ManifestEntry entry) {
+        Map<Integer, ManifestEntry> requested = resumeRequests.get(transferCode);
+        ManifestEntry request = requested != null ? requested.get(entry.getIndex()) : null;
+        if (request == null || !entry.getFileName().equals(request.getFileName())
+                || entry.getFileSize() != request.getFileSize()) {
+            return 0;
+        }
+        boolean known = checkpointRepository
+                .findByTransferCodeAndSideAndFileIndex(transferCode, TransferCheckpoint.Side.SENDER, entry.getIndex())
+                .filter(checkpoint -> checkpoint.matches(entry.getFileName(), entry.getFileSize()))
+                .isPresent();
+        if (!known) {
+            logger.info("Ignoring resume request for {} in transfer {}: no matching sender checkpoint",
+                    entry.getFileName(), transferCode);
+            return 0;
+        }
+        return request.getResumeOffset();
+    }
+
+    /**
+     * Starts timing acknowledgements of a transfer's chunks for the given controller.
+     */
+    public void trackChunkTiming(String transferCode, ChunkSizeController sizer) {
+        chunkSizers.put(transferCode, sizer);
+    }
+
+    public void stopChunkTiming(String transferCode) {
+        ChunkSizeController sizer = chunkSizers.remove(transferCode);
+        if (sizer != null) {
+            sizer.forgetAll();
+        }
+    }
+
+    /**
+     * A range of a file to send again, because it failed verification on the receiver or was in
+     * flight on a stripe that closed.
+     */
+    public record ResendRange(int fileIndex, long offset, int length) {
+    }
+
+    /**
+     * Takes the next range the receiver asked for again, or null if there is none.
+     */
+    public ResendRange pollResend(String transferCode) {
+        Queue<ResendRange> requests = resendRequests.get(transferCode);
+        return requests != null ? requests.poll() : null;
+    }
+
+    public void forgetResends(String transferCode) {
+        resendRequests.remove(transferCode);
+    }
+
+    /**
+     * Waits until the receiver has processed every frame sent so far, so any range it is going to
+     * ask for again has been asked for.
+     */
+    public void awaitAcknowledged(String transferCode) throws IOException, InterruptedException {
+        TransferStripes stripes = receiverStripes.get(transferCode);
+        if (stripes != null) {
+            stripes.awaitDrained(creditTimeoutMs);
+        }
+    }
+
+    /**
+     * Persists the acknowledged chunks of every file now, e.g. because the transfer failed.
+     */
+    public void saveCheckpoints(String transferCode) {
+        TransferSession session = activeSessions.get(transferCode);
+        Map<Integer, ChunkBitmap> acknowledged = acknowledgedChunks.get(transferCode);
+        if (session == null || session.getManifest() == null || acknowledged == null) {
+            return;
+        }
+        for (ManifestEntry entry : session.getManifest()) {
+            ChunkBitmap bitmap = acknowledged.get(entry.getIndex());
+            if (bitmap != null) {
+                saveCheckpoint(transferCode, entry, bitmap);
+            }
+        }
+    }
+
+    /**
+     * Drops the checkpoints of a transfer that completed.
+     */
+    public void clearCheckpoints(String transferCode) {
+        acknowledgedChunks.remove(transferCode);
+        lastCheckpointSaved.keySet().removeIf(key -> key.startsWith(transferCode + ":"));
+        try {
+            checkpointRepository.deleteTransfer(transferCode, TransferCheckpoint.Side.SENDER);
+        } catch (Exception e) {
+            logger.warn("Failed to delete checkpoints for transfer {}: {}", transferCode, e.getMessage());
+        }
+    }
+
+    // Resumed files continue from their stored bitmap, everything else starts from an empty one
+    private void startAcknowledgedTracking(String transferCode, List<ManifestEntry> manifest) {
+        Map<Integer, ChunkBitmap> acknowledged = new ConcurrentHashMap<>();
+        for (ManifestEntry entry : manifest) {
+            ChunkBitmap bitmap = null;
+            if (entry.getResumeOffset() > 0) {
+                bitmap = checkpointRepository
+                        .findByTransferCodeAndSideAndFileIndex(transferCode, TransferCheckpoint.Side.SENDER, entry.getIndex())
+                        .filter(checkpoint -> checkpoint.matches(entry.getFileName(), entry.getFileSize()))
+                        .map(checkpoint -> ChunkBitmap.fromByteArray(checkpoint.getChunkBitmap()))
+                        .orElse(null);
+            }
+            if (bitmap == null) {
+                bitmap = new ChunkBitmap();
+            }
+            bitmap.setFileSize(entry.getFileSize());
+            acknowledged.put(entry.getIndex(), bitmap);
+            saveCheckpoint(transferCode, entry, bitmap);
+        }
+        acknowledgedChunks.put(transferCode, acknowledged);
+    }
+
+    /**
+     * @return true if every byte of the file has now been acknowledged
+     */
+    private boolean recordAcknowledged(String transferCode, int fileIndex, long offset, long length) {
+        Map<Integer, ChunkBitmap> acknowledged = acknowledgedChunks.get(transferCode);
+        ChunkBitmap bitmap = acknowledged != null ? acknowledged.get(fileIndex) : null;
+        TransferSession session = activeSessions.get(transferCode);
+        if (bitmap == null || session == null || session.getManifest() == null
+                || fileIndex >= session.getManifest().size()) {
+            return false;
+        }
+        bitmap.mark(offset, length);
+        String key = transferCode + ":" + fileIndex;
+        long now = System.nanoTime();
+        Long last = lastCheckpointSaved.get(key);
+        if (last == null || now - last >= CHECKPOINT_INTERVAL_NANOS) {
+            saveCheckpoint(transferCode, session.getManifest().get(fileIndex), bitmap);
+        }
+        return bitmap.isComplete(session.getManifest().get(fileIndex).getFileSize());
+    }
+
+    private void saveCheckpoint(String transferCode, ManifestEntry entry, ChunkBitmap bitmap) {
+        try {
+            checkpointRepository.saveBitmap(transferCode, TransferCheckpoint.Side.SENDER, entry.getIndex(),
+                    entry.getFileName(), entry.getFileSize(), bitmap.toByteArray(), null);
+            lastCheckpointSaved.put(transferCode + ":" + entry.getIndex(), System.nanoTime());
+        } catch (Exception e) {
+            logger.warn("Failed to save checkpoint for {} in transfer {}: {}", entry.getFileName(), transferCode, e.getMessage());
+        }
+    }
+
+    public void sendFileChunk(String transferCode, byte[] chunk) {
+        sendFileChunk(transferCode, ByteBuffer.wrap(chunk));
+    }
+
+    public void sendFileChunk(String transferCode, ByteBuffer frame) {
+        if (!TransferFrame.isValid(frame)) {
+            logger.warn("Dropping malformed frame for transfer code: {} ({} bytes)", transferCode, frame.remaining());
+            return;
+        }
+        TransferSession session = activeSessions.get(transferCode);
+        if (session != null && session.getReceiverWebSocket() != null) {
+            // Relayed frames all go on the primary connection, so completion can follow the last one directly
+            deliverFrame(session, transferCode, session.getReceiverWebSocket(), frame);
+            List<ManifestEntry> manifest = session.getManifest();
+            if (TransferFrame.isLastChunk(frame)
+                    && (manifest == null || TransferFrame.fileIndex(frame) >= manifest.size() - 1)) {
+                sendTransferComplete(transferCode);
             }
         } else {
             logger.warn("No receiver WebSocket for code {}", transferCode);
         }
     }
-} 
\ No newline at end of file
+
+    /**
+     * Writes a frame to the given receiver connection as a single binary message.
+     * End-of-file notifications always go on the session's primary connection.
+     */
+    private void deliverFrame(TransferSession session, String transferCode, WebSocket receiver, ByteBuffer frame) {
+        boolean isLastChunk = TransferFrame.isLastChunk(frame);
+        int frameLength = frame.remaining();
+
+        if (isLastChunk) {
+            logger.info("Sending final chunk for transfer code: {} ({} bytes)",
+                transferCode, frameLength);
+            
+            // Send a notification message first
+            try {
+                Map<String, Object> notification = new HashMap<>();
+                notification.put("type", "finalChunk");
+                notification.put("transferCode", transferCode);
+                notification.put("fileIndex", TransferFrame.fileIndex(frame));
+                notification.put("timestamp", System.currentTimeMillis());
+                session.getReceiverWebSocket().send(objectMapper.writeValueAsString(notification));
+            } catch (Exception e) {
+                logger.error("Error sending final chunk notification: {}", e.getMessage());
+            }
+        }
+        
+        ChunkSizeController sizer = chunkSizers.get(transferCode);
+        if (sizer != null && TransferFrame.carriesFileData(frame)) {
+            sizer.onSent(TransferFrame.fileIndex(frame), TransferFrame.offset(frame));
+        }
+
+        // Send the actual binary data
+        receiver.send(frame);
+        logger.debug("Sent file chunk to receiver for code {} ({} bytes)", transferCode, frameLength);
+    }
+}
\ No newline at end of file
@@ -2,17 +2,30 @@ package com.securetransfer.service.impl;
 
 import com.securetransfer.model.entity.ReceiverTransfer;
 import com.securetransfer.model.entity.SenderTransfer;
+import com.securetransfer.model.entity.TransferCheckpoint;
 import com.securetransfer.repository.ReceiverTransferRepository;
 import com.securetransfer.repository.SenderTransferRepository;
+import com.securetransfer.repository.TransferCheckpointRepository;
 import com.securetransfer.service.EncryptionService;
 import com.securetransfer.service.TransferService;
 import com.securetransfer.service.WebSocketService;
 import com.securetransfer.service.WebSocketService.TransferSession;
 import com.securetransfer.service.WebSocketService.SenderInfo;
 import com.securetransfer.service.WebSocketService.ReceiverInfo;
+import com.securetransfer.service.WebSocketService.ManifestEntry;
+import com.securetransfer.service.WebSocketService.OutgoingFile;
 import com.securetransfer.util.WebSocketClientManager;
 import com.securetransfer.util.ToastNotification;
 import com.securetransfer.util.NetworkUtils;
+import com.securetransfer.util.BlockSignatures;
+import com.securetransfer.util.ChunkBitmap;
+import com.securetransfer.util.DeltaEncoder;
+import com.securetransfer.util.FileReadPools;
+import com.securetransfer.util.HashAlgorithm;
+import com.securetransfer.util.MerkleTree;
+import com.securetransfer.util.ReceiveFileSink;
+import com.securetransfer.util.ReceivePipeline;
+import com.securetransfer.util.TransferFrame;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -27,15 +40,25 @@ import javax.crypto.spec.IvParameterSpec;
 import java.io.*;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.security.DigestInputStream;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.KeyFactory;
+import java.security.KeyPair;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
 import java.security.SecureRandom;
+import java.security.spec.X509EncodedKeySpec;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.function.Consumer;
 import java.util.Arrays;
 import org.java_websocket.client.WebSocketClient;
@@ -45,6 +68,7 @@ import javafx.scene.control.Alert;
 import javafx.scene.control.ButtonType;
 import javafx.scene.control.ButtonBar;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import com.securetransfer.service.impl.SecureTransferWebSocketServer;
 import org.java_websocket.WebSocket;
 import java.util.function.BiConsumer;
@@ -73,14 +97,17 @@ public class TransferServiceImpl implements TransferService {
     @Autowired
     private ReceiverTransferRepository receiverTransferRepository;
 
+    @Autowired
+    private TransferCheckpointRepository checkpointRepository;
+
     @Autowired
     private SecureTransferWebSocketServer webSocketServer;
 
     // Active transfer sessions
     private final Map<String, TransferSession> activeSessions = new ConcurrentHashMap<>();
 
-    // File data storage (temporary, in-memory)
-    private final Map<String, byte[]> receivedFiles = new ConcurrentHashMap<>();
+    // Completed part-files waiting to be saved, keyed by transfer code and file name
+    private final Map<String, ReceivedFile> receivedFiles = new ConcurrentHashMap<>();
 
     // Transfer progress tracking
     private final Map<String, TransferProgress> transferProgress = new ConcurrentHashMap<>();
@@ -88,14 +115,80 @@ public class TransferServiceImpl implements TransferService {
     // Store active WebSocket clients by transfer code
     private final Map<String, WebSocketClient> activeClients = new ConcurrentHashMap<>();
 
-    private final Map<String, ByteArrayOutputStream> incomingFileBuffers = new ConcurrentHashMap<>();
+    // Extra receiver connections striping a transfer, keyed by transfer code then stripe index
+    private final Map<String, Map<Integer, WebSocketClient>> stripeClients = new ConcurrentHashMap<>();
+
+    @Value("${transfer.stripes.max:4}")
+    private int maxStripes;
+
+    // Offering deltas shows a sender the block signatures of a saved file, so it is opt-in
+    @Value("${transfer.delta.enabled:false}")
+    private boolean deltaEnabled;
+
+    // Streaming sinks for files currently being received, keyed by transfer code and manifest index
+    private final Map<String, ReceiveFileSink> incomingFileSinks = new ConcurrentHashMap<>();
+
+    // Sources of each outgoing transfer's files, keyed by transfer code then record file name
+    private final Map<String, Map<String, OutgoingFile>> outgoingFiles = new ConcurrentHashMap<>();
+
+    // Transfer keys: generated for outgoing transfers, unwrapped from the key exchange for incoming ones
+    private final Map<String, EncryptionService.KeyAndIv> outgoingKeys = new ConcurrentHashMap<>();
+    private final Map<String, EncryptionService.KeyAndIv> incomingKeys = new ConcurrentHashMap<>();
+    // One-off X25519 keys offered to senders, kept until their key message arrives
+    private final Map<String, KeyPair> agreementKeys = new ConcurrentHashMap<>();
+
+    // Manifests announced by senders for transfers this device is receiving
+    private final Map<String, List<ManifestEntry>> incomingManifests = new ConcurrentHashMap<>();
+    // Incoming transfers whose sender follows each file with a digest frame
+    private final Set<String> incomingDigests = ConcurrentHashMap.newKeySet();
+    // Leaf size and hash of incoming transfers whose sender sends Merkle leaf hashes to check each leaf against
+    private final Map<String, IncomingLeaves> incomingLeaves = new ConcurrentHashMap<>();
+    // Reads leaves back from disk to check them against the sender's leaf hashes
+    private ExecutorService leafCheckExecutor;
+
+    @Value("${transfer.verify.threads:0}")
+    private int verifyThreads;
+    // Manifest indexes of incoming files that were copied from saved files instead of being sent
+    private final Map<String, Set<Integer>> incomingDuplicates = new ConcurrentHashMap<>();
+    // Manifest indexes of incoming files already complete, kept past the end of the transfer so a range
+    // sent again after its stripe closed, which had made it here after all, cannot reopen the file
+    private final Map<String, Set<Integer>> incomingCompleted = new ConcurrentHashMap<>();
+    // Username each incoming transfer's sender goes by, recorded with its files
+    private final Map<String, String> incomingSenders = new ConcurrentHashMap<>();
+    // Old copies that incoming files are sent as deltas against, by transfer code and file index
+    private final Map<String, FileChannel> incomingBases = new ConcurrentHashMap<>();
+    private static final int MAX_DELTA_WINDOW = 16 * 1024 * 1024;
+    private static final ThreadLocal<ByteBuffer> DELTA_WINDOWS = new ThreadLocal<>();
+
+    // Per-transfer I/O workers that take binary frames off the socket thread
+    private final Map<String, ReceivePipeline<IncomingFrame>> receivePipelines = new ConcurrentHashMap<>();
+    private final Map<String, Long> lastProgressPublished = new ConcurrentHashMap<>();
+    private final Map<String, Long> lastCheckpointSaved = new ConcurrentHashMap<>();
+    private static final int RECEIVE_QUEUE_CAPACITY = 16;
+    private static final long PROGRESS_INTERVAL_NANOS = 100_000_000L;
+    private static final long CHECKPOINT_INTERVAL_NANOS = 1_000_000_000L;
+    private static final String KEY_AGREEMENT = "X25519";
+    private static final String DUPLICATE_SUFFIX = ".copy";
     private final ObjectMapper objectMapper = new ObjectMapper();
 
+    @Value("${transfer.temp-dir:./temp}")
+    private String tempDir;
+
     @PostConstruct
     public void registerWebSocketCallbacks() {
         webSocketServer.setReceiverConnectedCallback(this::onReceiverConnected);
     }
 
+    @PostConstruct
+    public void initLeafCheckPool() {
+        leafCheckExecutor = FileReadPools.newPool("leaf-check", FileReadPools.threads(verifyThreads));
+    }
+
+    @PreDestroy
+    public void shutdownLeafCheckPool() {
+        leafCheckExecutor.shutdownNow();
+    }
+
     private void onReceiverConnected(String transferCode, WebSocket conn) {
         logger.info("Receiver connected (callback) - showing confirmation dialog for transfer code: {}", transferCode);
         javafx.application.Platform.runLater(() -> {
@@ -167,29 +260,7 @@ public class TransferServiceImpl implements TransferService {
                     }
 
                     // Save transfer records for each file
-                    for (File file : files) {
-                        try {
-                            // Create and save a sender transfer record
-                            SenderTransfer transfer = new SenderTransfer();
-                            transfer.setSessionId(sessionId);
-                            transfer.setReceiverCode(transferCode);
-                            transfer.setFileName(file.getName());
-                            transfer.setFileSize(file.length());
-                            transfer.setStartTime(LocalDateTime.now());
-                            transfer.setReceiverUsername(username);
-                            transfer.setTransferStatus(SenderTransfer.TransferStatus.PENDING);
-
-                            // Generate checksum for verification
-                            String checksum = calculateChecksum(file);
-                            transfer.setChecksum(checksum);
-
-                            // Save to repository
-                            senderTransferRepository.save(transfer);
-
-                        } catch (Exception e) {
-                            logger.error("Error saving transfer record for file: {}", file.getName(), e);
-                        }
-                    }
+                    saveSenderTransferRecords(transferCode, sessionId, username, files, null);
                 })
                 .thenRun(() -> {
                     // Connect sender to its own WebSocket server to receive notifications
@@ -215,7 +286,7 @@ public class TransferServiceImpl implements TransferService {
                                 url -> logger.info("Sender WebSocket open: {}", url),
                                 reason -> logger.info("Sender WebSocket closed: {}", reason),
                                 msg -> handleIncomingMessage(transferCode, msg),
-                                bytes -> handleIncomingBinary(transferCode, bytes)).thenAccept(connResult -> {
+                                bytes -> enqueueIncomingBinary(transferCode, bytes)).thenAccept(connResult -> {
                                     activeClients.put(transferCode, connResult.client);
                                     logger.info("Sender connected to WebSocket server for transfer code: {}",
                                             transferCode);
@@ -283,6 +354,12 @@ public class TransferServiceImpl implements TransferService {
     @Override
     public CompletableFuture<TransferSession> initiateTransfer(String transferCode, List<File> files, String username,
             String fileName, long fileSize) {
+        return initiateTransfer(transferCode, files, username, fileName, fileSize, null);
+    }
+
+    @Override
+    public CompletableFuture<TransferSession> initiateTransfer(String transferCode, List<File> files, String username,
+            String fileName, long fileSize, EncryptionService.KeyAndIv encryption) {
         logger.info("Initiating transfer for code: {} with explicit file info", transferCode);
         CompletableFuture<TransferSession> future = new CompletableFuture<>();
 
@@ -307,19 +384,9 @@ public class TransferServiceImpl implements TransferService {
                         storeSenderLocalIp(transferCode);
                         logger.info("Stored sender local IP for transfer code: {}", transferCode);
 
-                        // Create and save a sender transfer record for the file
-                        SenderTransfer transfer = new SenderTransfer();
-                        transfer.setSessionId(sessionId);
-                        transfer.setReceiverCode(transferCode);
-                        transfer.setFileName(fileName);
-                        transfer.setFileSize(fileSize);
-                        transfer.setStartTime(LocalDateTime.now());
-                        transfer.setReceiverUsername(username);
-                        transfer.setTransferStatus(SenderTransfer.TransferStatus.PENDING);
-
-                        // Save to repository
-                        senderTransferRepository.save(transfer);
-                        logger.info("Saved sender transfer record for transfer code: {}", transferCode);
+                        // Create and save a sender transfer record for each file
+                        saveSenderTransferRecords(transferCode, sessionId, username, files, encryption);
+                        logger.info("Saved sender transfer records for transfer code: {}", transferCode);
                         logger.info("=== FIRST THENRUN BLOCK COMPLETED SUCCESSFULLY ===");
                     } catch (Exception e) {
                         logger.error("Error in first thenRun block for transfer code {}: {}", transferCode,
@@ -346,7 +413,7 @@ public class TransferServiceImpl implements TransferService {
                                 url -> logger.info("Sender WebSocket open: {}", url),
                                 reason -> logger.info("Sender WebSocket closed: {}", reason),
                                 msg -> handleIncomingMessage(transferCode, msg),
-                                bytes -> handleIncomingBinary(transferCode, bytes)).thenAccept(connResult -> {
+                                bytes -> enqueueIncomingBinary(transferCode, bytes)).thenAccept(connResult -> {
                                     activeClients.put(transferCode, connResult.client);
                                     logger.info("Sender connected to WebSocket server for transfer code: {}",
                                             transferCode);
@@ -479,11 +546,18 @@ public class TransferServiceImpl implements TransferService {
                     // When connection is established, log this important event
                     logger.info("WebSocket connection established successfully for transfer code: {}", transferCode);
                 },
-                reason -> logger.info("WebSocket closed: {}", reason),
+                reason -> {
+                    logger.info("WebSocket closed: {}", reason);
+                    // Keep partial files so a reconnect with the same code can resume them
+                    closeReceivePipeline(transferCode, true);
+                },
                 msg -> handleIncomingMessage(transferCode, msg),
-                bytes -> handleIncomingBinary(transferCode, bytes)).thenAccept(connResult -> {
+                bytes -> enqueueIncomingBinary(transferCode, bytes)).thenAccept(connResult -> {
                     logger.info("Connection result received for transfer code {}: {}", transferCode, connResult.type);
                     activeClients.put(transferCode, connResult.client);
+                    sendPublicKey(transferCode, connResult.client);
+                    sendResumeRequest(transferCode, connResult.client);
+                    openStripes(transferCode, connResult.client);
 
                     // Register receiver in the WebSocket service
                     WebSocketService.ReceiverInfo receiverInfo = new WebSocketService.ReceiverInfo(
@@ -552,14 +626,17 @@ public class TransferServiceImpl implements TransferService {
                 throw new IllegalStateException("No files found for transfer");
             }
 
+            // Session-wide values are resolved once here rather than on every progress event
+            String fileName = transfers.size() == 1 ? transfers.get(0).getFileName()
+                    : session.getFileName() != null ? session.getFileName() : transfers.size() + " files";
+            long totalBytes = transfers.stream().mapToLong(SenderTransfer::getFileSize).sum();
+            // The checksum is computed while the file streams, so it is read when the transfer completes
+            OutgoingFile single = transfers.size() == 1
+                    ? outgoingFiles.getOrDefault(transferCode, Map.of()).get(transfers.get(0).getFileName())
+                    : null;
+
             // Register callbacks
             webSocketService.registerProgressCallback(transferCode, progress -> {
-                // Use transferCode to look up file info if needed
-                List<SenderTransfer> transfersForCode = senderTransferRepository
-                        .findBySessionIdOrderByStartTimeDesc(session.getSender().getSessionId());
-                String fileName = !transfersForCode.isEmpty() ? transfersForCode.get(0).getFileName() : "Unknown";
-                long totalBytes = !transfersForCode.isEmpty() ? transfersForCode.get(0).getFileSize()
-                        : progress.getBytesTransferred();
                 TransferProgress transferProgress = new TransferProgress(
                         transferCode,
                         fileName,
@@ -570,16 +647,13 @@ public class TransferServiceImpl implements TransferService {
             });
 
             webSocketService.registerCompletionCallback(transferCode, complete -> {
-                List<SenderTransfer> transfersForCode = senderTransferRepository
-                        .findBySessionIdOrderByStartTimeDesc(session.getSender().getSessionId());
-                String fileName = !transfersForCode.isEmpty() ? transfersForCode.get(0).getFileName() : "Unknown";
-                String checksum = !transfersForCode.isEmpty() ? transfersForCode.get(0).getChecksum() : null;
                 TransferComplete transferComplete = new TransferComplete(
                         transferCode,
                         fileName,
                         complete.isSuccess(),
                         complete.getErrorMessage(),
-                        checksum);
+                        single != null && single.getChecksum() != null ? single.getChecksum()
+                                : transfers.size() == 1 ? transfers.get(0).getChecksum() : null);
                 completionCallback.accept(transferComplete);
             });
 
@@ -594,51 +668,110 @@ public class TransferServiceImpl implements TransferService {
         return future;
     }
 
+    /**
+     * Saves one PENDING record per outgoing file and remembers where its bytes come from.
+     * With {@code encryption} set each file is encrypted while it is streamed, under the IV derived
+     * from the manifest index it is sent at, and the receiver decrypts it on arrival; otherwise an
+     * encrypted {@code .enc} sibling is sent where one exists.
+     */
+    private void saveSenderTransferRecords(String transferCode, String sessionId, String username, List<File> files,
+            EncryptionService.KeyAndIv encryption) {
+        Map<String, OutgoingFile> outgoing = new LinkedHashMap<>();
+        for (File file : files) {
+            String fileName;
+            OutgoingFile source;
+            if (encryption != null) {
+                // Its IV depends on where it ends up in the manifest, so the sender derives it then
+                fileName = file.getName();
+                source = OutgoingFile.encrypted(file);
+            } else {
+                File encrypted = new File(file.getParentFile(), file.getName() + ".enc");
+                File onDisk = !file.getName().endsWith(".enc") && encrypted.exists() ? encrypted : file;
+                fileName = onDisk.getName();
+                source = OutgoingFile.plain(onDisk);
+            }
+            try {
+                // Create and save a sender transfer record
+                SenderTransfer transfer = new SenderTransfer();
+                transfer.setSessionId(sessionId);
+                transfer.setReceiverCode(transferCode);
+                transfer.setFileName(fileName);
+                transfer.setFileSize(source.getSize());
+                transfer.setStartTime(LocalDateTime.now());
+                transfer.setReceiverUsername(username);
+                transfer.setTransferStatus(SenderTransfer.TransferStatus.PENDING);
+                // The checksum is filled in once the file has been hashed on its way out
+
+                // Save to repository
+                senderTransferRepository.save(transfer);
+                outgoing.put(fileName, source);
+
+            } catch (Exception e) {
+                logger.error("Error saving transfer record for file: {}", file.getName(), e);
+            }
+        }
+        outgoingFiles.put(transferCode, outgoing);
+        if (encryption != null) {
+            outgoingKeys.put(transferCode, encryption);
+        }
+    }
+
     private void transferFiles(String transferCode, List<SenderTransfer> transfers, CompletableFuture<Void> future) {
         try {
             // Real file transfer implementation
             CompletableFuture.runAsync(() -> {
+                // Records come back newest first, the manifest follows the order the files were added
+                List<SenderTransfer> ordered = new ArrayList<>(transfers);
+                Collections.reverse(ordered);
                 try {
-                    for (SenderTransfer transfer : transfers) {
+                    List<OutgoingFile> files = new ArrayList<>();
+                    List<ManifestEntry> manifest = new ArrayList<>();
+                    long offset = 0;
+                    for (SenderTransfer transfer : ordered) {
+                        OutgoingFile source = resolveOutgoingFile(transferCode, transfer);
+                        manifest.add(new ManifestEntry(files.size(), transfer.getFileName(), source.getSize(),
+                                offset, transfer.getChecksum()));
+                        files.add(source);
+                        offset += source.getSize();
+
                         // Update transfer status
                         transfer.setTransferStatus(SenderTransfer.TransferStatus.TRANSFERRING);
                         senderTransferRepository.save(transfer);
+                    }
 
-                        // Read the encrypted file
-                        String encryptedFilePath = transfer.getFilePath();
-                        if (encryptedFilePath == null) {
-                            // If no encrypted file path, look for .enc file
-                            String originalFileName = transfer.getFileName();
-                            String encryptedFileName = originalFileName + ".enc";
-                            encryptedFilePath = findEncryptedFile(originalFileName, encryptedFileName);
-                        }
+                    // Each attempt gets its own key, so nothing re-sent after a failure, such as a delta
+                    // that came out differently, is encrypted under keystream an earlier attempt used
+                    EncryptionService.KeyAndIv transferKey = outgoingKeys.computeIfPresent(transferCode,
+                            (code, previous) -> newTransferKey());
 
-                        if (encryptedFilePath != null) {
-                            File encryptedFile = new File(encryptedFilePath);
-                            if (encryptedFile.exists()) {
-                                // Send file through WebSocket (Streaming)
-                                webSocketService.sendFile(transferCode, encryptedFile, transfer.getFileName(),
-                                        transfer.getFileSize());
+                    // One manifest up front, then every file back-to-back over the same connection
+                    webSocketService.sendFiles(transferCode, files, manifest, transferKey).join();
 
-                                // Update transfer status to completed
-                                transfer.setTransferStatus(SenderTransfer.TransferStatus.COMPLETED);
-                                transfer.setEndTime(LocalDateTime.now());
-                                senderTransferRepository.save(transfer);
-
-                                logger.info("File transferred successfully: {}", transfer.getFileName());
-                            } else {
-                                throw new FileNotFoundException("Encrypted file not found: " + encryptedFilePath);
-                            }
-                        } else {
-                            throw new FileNotFoundException(
-                                    "Could not locate encrypted file for: " + transfer.getFileName());
+                    for (int i = 0; i < ordered.size(); i++) {
+                        SenderTransfer transfer = ordered.get(i);
+                        // Update transfer status to completed, with the checksum computed while sending
+                        if (files.get(i).getChecksum() != null) {
+                            transfer.setChecksum(files.get(i).getChecksum());
                         }
+                        transfer.setTransferStatus(SenderTransfer.TransferStatus.COMPLETED);
+                        transfer.setEndTime(LocalDateTime.now());
+                        senderTransferRepository.save(transfer);
                     }
+                    logger.info("Transferred {} file(s) for code: {}", files.size(), transferCode);
+                    outgoingFiles.remove(transferCode);
+                    outgoingKeys.remove(transferCode);
 
                     future.complete(null);
 
                 } catch (Exception e) {
                     logger.error("Error during file transfer for code: {}", transferCode, e);
+                    for (SenderTransfer transfer : ordered) {
+                        if (transfer.getTransferStatus() == SenderTransfer.TransferStatus.TRANSFERRING) {
+                            transfer.setTransferStatus(SenderTransfer.TransferStatus.FAILED);
+                            transfer.setErrorMessage(e.getMessage());
+                            senderTransferRepository.save(transfer);
+                        }
+                    }
                     future.completeExceptionally(e);
                 }
             });
@@ -649,6 +782,38 @@ public class TransferServiceImpl implements TransferService {
         }
     }
 
+    private static EncryptionService.KeyAndIv newTransferKey() {
+        try {
+            KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+            keyGen.init(256);
+            byte[] iv = new byte[16];
+            new SecureRandom().nextBytes(iv);
+            return new EncryptionService.KeyAndIv(keyGen.generateKey(), new IvParameterSpec(iv));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("AES is not available", e);
+        }
+    }
+
+    private OutgoingFile resolveOutgoingFile(String transferCode, SenderTransfer transfer) throws FileNotFoundException {
+        Map<String, OutgoingFile> outgoing = outgoingFiles.get(transferCode);
+        OutgoingFile source = outgoing != null ? outgoing.get(transfer.getFileName()) : null;
+        if (source == null) {
+            // Records from before this run: look for the file in the usual places
+            String path = findEncryptedFile(transfer.getFileName(), transfer.getFileName());
+            if (path == null) {
+                path = findEncryptedFile(transfer.getFileName(), transfer.getFileName() + ".enc");
+            }
+            if (path == null) {
+                throw new FileNotFoundException("Could not locate encrypted file for: " + transfer.getFileName());
+            }
+            source = OutgoingFile.plain(new File(path));
+        }
+        if (!source.getFile().exists()) {
+            throw new FileNotFoundException("Encrypted file not found: " + source.getFile().getAbsolutePath());
+        }
+        return source;
+    }
+
     private String findEncryptedFile(String originalFileName, String encryptedFileName) {
         // Look for encrypted file in common locations
         String[] searchPaths = {
@@ -685,22 +850,34 @@ public class TransferServiceImpl implements TransferService {
             String uniqueFileName = generateUniqueFileName(fileName, targetDirectory);
             File targetFile = new File(targetDirectory, uniqueFileName);
 
-            // Write file data
-            try (FileOutputStream fos = new FileOutputStream(targetFile)) {
-                fos.write(fileData);
-            }
+            String checksum;
+            if (fileData == null) {
+                // Streamed transfer: move the completed part-file into place
+                ReceivedFile received = receivedFiles.remove(receivedFileKey(transferCode, fileName));
+                if (received == null) {
+                    throw new FileNotFoundException("No received file for transfer code: " + transferCode);
+                }
+                Files.move(received.partFile(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                checksum = received.checksum();
+            } else {
+                // Write file data
+                try (FileOutputStream fos = new FileOutputStream(targetFile)) {
+                    fos.write(fileData);
+                }
 
-            // Calculate checksum
-            String checksum = calculateFileChecksum(fileData);
+                // Calculate checksum
+                checksum = calculateFileChecksum(fileData);
+            }
 
-            // Update receiver transfer record
+            // Update this file's record; a session has one per file of its manifest
             List<ReceiverTransfer> transfers = receiverTransferRepository
-                    .findBySessionIdOrderByReceivedTimeDesc(transferCode);
+                    .findBySessionIdAndFileNameOrderByReceivedTimeDesc(transferCode, fileName);
             if (!transfers.isEmpty()) {
                 ReceiverTransfer transfer = transfers.get(0);
                 transfer.setTransferStatus(ReceiverTransfer.TransferStatus.SAVED);
                 transfer.setSavedTime(LocalDateTime.now());
                 transfer.setFilePath(targetFile.getAbsolutePath());
+                transfer.setFileModified(Files.getLastModifiedTime(targetFile.toPath()).toMillis());
                 transfer.setChecksum(checksum);
                 transfer.setAutoSaved(true);
                 receiverTransferRepository.save(transfer);
@@ -764,6 +941,26 @@ public class TransferServiceImpl implements TransferService {
             webSocketService.disconnect(transferCode, WebSocketService.DeviceType.SENDER);
             webSocketService.disconnect(transferCode, WebSocketService.DeviceType.RECEIVER);
 
+            // Stop the receive worker and discard any partially received file
+            closeReceivePipeline(transferCode, false);
+            incomingFileSinks.entrySet().removeIf(entry -> {
+                if (entry.getKey().startsWith(transferCode + ":")) {
+                    entry.getValue().abort();
+                    return true;
+                }
+                return false;
+            });
+            incomingManifests.remove(transferCode);
+            incomingDigests.remove(transferCode);
+            incomingLeaves.remove(transferCode);
+            incomingDuplicates.remove(transferCode);
+            incomingCompleted.remove(transferCode);
+            incomingSenders.remove(transferCode);
+            incomingKeys.remove(transferCode);
+            closeBases(transferCode);
+            agreementKeys.remove(transferCode);
+            checkpointRepository.deleteTransfer(transferCode, TransferCheckpoint.Side.RECEIVER);
+
             // Remove from active sessions
             activeSessions.remove(transferCode);
 
@@ -793,8 +990,8 @@ public class TransferServiceImpl implements TransferService {
             senderTransferRepository.deleteOldTransfers(cutoffDate);
             receiverTransferRepository.deleteOldTransfers(cutoffDate);
 
-            // Clean up received files from memory
-            receivedFiles.clear();
+            // Forget received part-files that no longer exist on disk
+            receivedFiles.values().removeIf(received -> !Files.exists(received.partFile()));
 
         } catch (Exception e) {
             logger.error("Error during transfer cleanup", e);
@@ -828,40 +1025,13 @@ public class TransferServiceImpl implements TransferService {
     private String calculateFileChecksum(byte[] fileData) {
         try {
             MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hash = digest.digest(fileData);
-            return Base64.getEncoder().encodeToString(hash);
+            return HexFormat.of().formatHex(digest.digest(fileData));
         } catch (Exception e) {
             logger.error("Error calculating file checksum", e);
             return null;
         }
     }
 
-    /**
-     * Calculates SHA-256 checksum for a file for integrity verification
-     * 
-     * @param file the file to calculate checksum for
-     * @return the hexadecimal string representation of the checksum
-     * @throws IOException              if an I/O error occurs
-     * @throws NoSuchAlgorithmException if SHA-256 algorithm is not available
-     */
-    private String calculateChecksum(File file) throws Exception {
-        MessageDigest digest = MessageDigest.getInstance("SHA-256");
-        try (InputStream is = new FileInputStream(file);
-                DigestInputStream digestInputStream = new DigestInputStream(is, digest)) {
-            byte[] buffer = new byte[8192];
-            while (digestInputStream.read(buffer) != -1) {
-                // Read the entire file through the digest stream
-            }
-            byte[] digestBytes = digest.digest();
-            // Convert to hex string
-            StringBuilder sb = new StringBuilder();
-            for (byte b : digestBytes) {
-                sb.append(String.format("%02x", b));
-            }
-            return sb.toString();
-        }
-    }
-
     /**
      * Calculates the total size of all files
      * 
@@ -935,6 +1105,76 @@ public class TransferServiceImpl implements TransferService {
                                 70);
                     }
                 }
+                case "manifest" -> {
+                    List<ManifestEntry> manifest = new ArrayList<>();
+                    for (JsonNode file : root.path("files")) {
+                        manifest.add(new ManifestEntry(
+                                file.path("index").asInt(manifest.size()),
+                                file.path("fileName").asText(transferCode),
+                                file.path("fileSize").asLong(0),
+                                file.path("offset").asLong(0),
+                                file.hasNonNull("checksum") ? file.get("checksum").asText() : null,
+                                file.path("resumeOffset").asLong(0),
+                                file.path("delta").asBoolean(false)));
+                    }
+                    manifest.sort(Comparator.comparingInt(ManifestEntry::getIndex));
+                    incomingManifests.put(transferCode, manifest);
+                    incomingCompleted.put(transferCode, ConcurrentHashMap.newKeySet());
+                    String sender = root.path("sender").asText(null);
+                    if (sender != null) {
+                        incomingSenders.put(transferCode, sender);
+                    } else {
+                        incomingSenders.remove(transferCode);
+                    }
+                    // Senders that hash while streaming send each file's digest after its last chunk
+                    if (root.path("fileDigests").asBoolean(false)) {
+                        incomingDigests.add(transferCode);
+                    } else {
+                        incomingDigests.remove(transferCode);
+                    }
+                    // and, if they build a Merkle tree, the hashes of its leaves as they complete
+                    // Senders from before the choice of hash always used SHA-256
+                    int leafSize = root.path("leafSize").asInt(0);
+                    HashAlgorithm leafHash = HashAlgorithm.fromId(
+                            root.path("hashAlgorithm").asText(HashAlgorithm.SHA_256.id()));
+                    if (leafSize > 0 && leafHash != null) {
+                        incomingLeaves.put(transferCode, new IncomingLeaves(leafSize, leafHash));
+                    } else {
+                        incomingLeaves.remove(transferCode);
+                    }
+                    logger.info("Received manifest with {} file(s) for transfer code: {}", manifest.size(),
+                            transferCode);
+                    // The sender waits for the answers, which may take a copy or a read per file, so off the socket thread
+                    incomingDuplicates.remove(transferCode);
+                    boolean dedup = root.path("dedup").asBoolean(false);
+                    if (dedup || manifest.stream().anyMatch(ManifestEntry::isDelta)) {
+                        CompletableFuture.runAsync(() -> signOldCopies(transferCode, manifest,
+                                dedup ? answerDuplicates(transferCode, manifest) : Set.of()));
+                    }
+                }
+                case "key" -> {
+                    byte[] wrapped = Base64.getDecoder().decode(root.path("wrappedKey").asText());
+                    // Kept, as a sender retrying without a reconnect wraps a fresh key against the same offer
+                    KeyPair agreementKey = agreementKeys.get(transferCode);
+                    // Senders that predate key agreement send no "agreement" and wrap with our RSA key
+                    String agreement = root.path("agreement").asText("RSA");
+                    long start = System.nanoTime();
+                    if (KEY_AGREEMENT.equals(agreement)) {
+                        if (agreementKey == null) {
+                            throw new IllegalStateException("Sender used key agreement that was not offered");
+                        }
+                        PublicKey senderKey = KeyFactory.getInstance(KEY_AGREEMENT).generatePublic(
+                                new X509EncodedKeySpec(Base64.getDecoder().decode(root.path("agreementKey").asText())));
+                        SecretKey sessionKey = encryptionService.deriveSessionKey(agreementKey.getPrivate(), senderKey,
+                                transferCode);
+                        incomingKeys.put(transferCode, encryptionService.unwrapKeyAndIv(sessionKey, wrapped));
+                    } else {
+                        incomingKeys.put(transferCode,
+                                encryptionService.decryptKeyAndIvWithRSA(encryptionService.getPrivateKey(), wrapped));
+                    }
+                    logger.info("Received transfer key for transfer code: {} wrapped with {}, unwrapped in {} us",
+                            transferCode, agreement, (System.nanoTime() - start) / 1_000);
+                }
                 case "ready" -> {
                     logger.info("Receiver is ready to receive files for transfer code: {}", transferCode);
                     // Could trigger file sending here if using a pull model
@@ -963,77 +1203,358 @@ public class TransferServiceImpl implements TransferService {
         }
     }
 
-    // Handle incoming binary data (file chunk)
-    private void handleIncomingBinary(String transferCode, java.nio.ByteBuffer bytes) {
+    // Called on the WebSocket reader thread; the frame is processed on the transfer's I/O worker
+    private void enqueueIncomingBinary(String transferCode, ByteBuffer bytes) {
+        enqueueIncomingBinary(transferCode, 0, bytes);
+    }
+
+    private void enqueueIncomingBinary(String transferCode, int stripe, ByteBuffer bytes) {
+        ReceivePipeline<IncomingFrame> pipeline = receivePipelines.computeIfAbsent(transferCode,
+                code -> new ReceivePipeline<>(code, RECEIVE_QUEUE_CAPACITY,
+                        incoming -> handleIncomingBinary(code, incoming.stripe(), incoming.frame())));
         try {
-            ByteArrayOutputStream buffer = incomingFileBuffers.computeIfAbsent(transferCode,
-                    k -> new ByteArrayOutputStream());
-            byte[] chunk = new byte[bytes.remaining()];
-            bytes.get(chunk);
-            buffer.write(chunk);
-
-            int chunkSize = chunk.length;
-            logger.info("Received file chunk ({} bytes) for transfer {}", chunkSize, transferCode);
-
-            // Look for EOF marker in the last 8 bytes of the chunk
-            // Check if the last 8 bytes contain our EOF marker sequence
-            if (chunkSize >= 8) {
-                // Extract and check the last 8 bytes
-                byte[] lastBytes = new byte[8];
-                System.arraycopy(chunk, chunkSize - 8, lastBytes, 0, 8);
-
-                // Check if this is our EOF marker (using a simple known sequence for example)
-                String marker = new String(lastBytes);
-                if ("EOF_MARK".equals(marker)) {
-                    // This is the end of file, process the complete file
-                    logger.info("EOF marker detected, processing complete file for transfer {}", transferCode);
-
-                    // Remove the EOF marker from the buffer
-                    byte[] completeFileData = buffer.toByteArray();
-                    byte[] fileDataWithoutMarker = new byte[completeFileData.length - 8];
-                    System.arraycopy(completeFileData, 0, fileDataWithoutMarker, 0, completeFileData.length - 8);
-
-                    // Store the complete file data
-                    receivedFiles.put(transferCode, fileDataWithoutMarker);
-
-                    // Look up session info to get filename
-                    TransferSession session = activeSessions.get(transferCode);
-                    if (session != null) {
-                        String fileName = session.getFileName();
-
-                        // Create a ReceiverTransfer record
-                        ReceiverTransfer transfer = new ReceiverTransfer();
-                        transfer.setSessionId(transferCode);
-                        transfer.setFileName(fileName);
-                        transfer.setFileSize((long) fileDataWithoutMarker.length);
-                        transfer.setReceivedTime(LocalDateTime.now());
-                        transfer.setTransferStatus(ReceiverTransfer.TransferStatus.RECEIVED);
-
-                        // Calculate checksum for verification
-                        String checksum = calculateFileChecksum(fileDataWithoutMarker);
-                        transfer.setChecksum(checksum);
-
-                        // Save to repository
-                        receiverTransferRepository.save(transfer);
-
-                        logger.info("File received successfully: {} ({} bytes)", fileName,
-                                fileDataWithoutMarker.length);
-
-                        // Notify user that file has been received and is ready for saving
-                        ToastNotification.show(null,
-                                "File received: " + fileName,
-                                ToastNotification.NotificationType.SUCCESS,
-                                javafx.util.Duration.seconds(5),
-                                70);
+            pipeline.submit(new IncomingFrame(stripe, bytes));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while queueing frame for transfer {}", transferCode);
+        }
+    }
+
+    /**
+     * Stops the receive worker once it has drained the frames already queued.
+     *
+     * @param resumable keep open part-files and checkpoint them for a later reconnect
+     */
+    private void closeReceivePipeline(String transferCode, boolean resumable) {
+        ReceivePipeline<IncomingFrame> pipeline = receivePipelines.remove(transferCode);
+        Runnable onDrained = resumable ? () -> suspendSinks(transferCode) : null;
+        if (pipeline != null) {
+            pipeline.close(onDrained);
+        } else if (onDrained != null) {
+            onDrained.run();
+        }
+        lastProgressPublished.remove(transferCode);
+        Map<Integer, WebSocketClient> stripes = stripeClients.remove(transferCode);
+        if (stripes != null) {
+            stripes.values().forEach(WebSocketClient::close);
+        }
+    }
+
+    // Runs on the receive worker after its last frame, so no sink is written to concurrently
+    private void suspendSinks(String transferCode) {
+        List<ManifestEntry> manifest = incomingManifests.get(transferCode);
+        incomingFileSinks.entrySet().removeIf(entry -> {
+            if (!entry.getKey().startsWith(transferCode + ":")) {
+                return false;
+            }
+            int fileIndex = Integer.parseInt(entry.getKey().substring(transferCode.length() + 1));
+            ReceiveFileSink sink = entry.getValue();
+            // Kept even if it cannot be synced; the checkpoint comes from the bitmap in memory
+            sink.suspend();
+            if (manifest != null && fileIndex < manifest.size()) {
+                saveCheckpoint(transferCode, manifest.get(fileIndex), sink);
+                logger.info("Kept {} bytes of {} for transfer {} to resume later", sink.getBytesWritten(),
+                        manifest.get(fileIndex).getFileName(), transferCode);
+            } else {
+                // Without a manifest entry the file cannot be matched up again on reconnect
+                sink.abort();
+            }
+            return true;
+        });
+        lastCheckpointSaved.keySet().removeIf(key -> key.startsWith(transferCode + ":"));
+    }
+
+    // The sender wraps the transfer key with this, so only this device can unwrap it
+    private void sendPublicKey(String transferCode, WebSocketClient client) {
+        try {
+            Map<String, Object> message = new HashMap<>();
+            message.put("type", "publicKey");
+            message.put("transferCode", transferCode);
+            message.put("key", Base64.getEncoder().encodeToString(encryptionService.getPublicKey().getEncoded()));
+            // Lets a sender that supports it agree a key instead of wrapping with RSA
+            KeyPair agreementKey = encryptionService.generateAgreementKeyPair();
+            agreementKeys.put(transferCode, agreementKey);
+            message.put("agreementKey", Base64.getEncoder().encodeToString(agreementKey.getPublic().getEncoded()));
+            // Asks for each file's digest after its last chunk, since senders no longer hash up front,
+            // and for leaf hashes, so a corrupt part is caught as it lands and sent again on its own
+            message.put("fileDigests", true);
+            // Offered fastest first as measured on this machine; the sender takes the first it knows
+            message.put("leafHashes", encryptionService.getHashAlgorithmPreference().stream()
+                    .map(HashAlgorithm::id)
+                    .toList());
+            // With saved files to copy from, asks for content checksums so files already here are not sent,
+            // and offers to sign older versions so updated ones arrive as deltas
+            boolean holdsSaved = receiverTransferRepository.countByTransferStatus(ReceiverTransfer.TransferStatus.SAVED) > 0;
+            message.put("dedup", holdsSaved);
+            message.put("delta", deltaEnabled && holdsSaved);
+            client.send(objectMapper.writeValueAsString(message));
+        } catch (Exception e) {
+            logger.warn("Failed to send public key for transfer {}: {}", transferCode, e.getMessage());
+        }
+    }
+
+    /**
+     * Tells the sender which files this side already holds part of, so it can skip the chunks
+     * that made it to disk before the previous connection dropped.
+     */
+    private void sendResumeRequest(String transferCode, WebSocketClient client) {
+        try {
+            List<Map<String, Object>> files = new ArrayList<>();
+            for (TransferCheckpoint checkpoint : checkpointRepository
+                    .findByTransferCodeAndSideOrderByFileIndex(transferCode, TransferCheckpoint.Side.RECEIVER)) {
+                if (checkpoint.getPartFile() == null || !Files.isRegularFile(Paths.get(checkpoint.getPartFile()))) {
+                    checkpointRepository.deleteFile(transferCode, TransferCheckpoint.Side.RECEIVER,
+                            checkpoint.getFileIndex());
+                    continue;
+                }
+                ChunkBitmap completed = ChunkBitmap.fromByteArray(checkpoint.getChunkBitmap());
+                completed.setFileSize(checkpoint.getFileSize());
+                Map<String, Object> file = new HashMap<>();
+                file.put("index", checkpoint.getFileIndex());
+                file.put("fileName", checkpoint.getFileName());
+                file.put("fileSize", checkpoint.getFileSize());
+                file.put("offset", completed.firstMissingOffset());
+                files.add(file);
+            }
+            if (files.isEmpty()) {
+                return;
+            }
+            Map<String, Object> request = new HashMap<>();
+            request.put("type", "resume");
+            request.put("transferCode", transferCode);
+            request.put("files", files);
+            client.send(objectMapper.writeValueAsString(request));
+            logger.info("Asked sender to resume {} file(s) for transfer {}", files.size(), transferCode);
+        } catch (Exception e) {
+            logger.warn("Failed to send resume request for transfer {}: {}", transferCode, e.getMessage());
+        }
+    }
+
+    // A resumed file continues in the part-file its checkpoint names, anything else starts empty
+    private ReceiveFileSink openSink(String transferCode, int fileIndex, String fileName, ManifestEntry entry)
+            throws IOException {
+        if (entry != null && entry.getResumeOffset() > 0) {
+            TransferCheckpoint checkpoint = checkpointRepository
+                    .findByTransferCodeAndSideAndFileIndex(transferCode, TransferCheckpoint.Side.RECEIVER, fileIndex)
+                    .filter(candidate -> candidate.matches(entry.getFileName(), entry.getFileSize()))
+                    .filter(candidate -> candidate.getPartFile() != null)
+                    .orElseThrow(() -> new IOException("Sender resumed " + fileName + " but its part-file is gone"));
+            ChunkBitmap completed = ChunkBitmap.fromByteArray(checkpoint.getChunkBitmap());
+            completed.setFileSize(entry.getFileSize());
+            logger.info("Resuming {} for transfer {} at byte {}", fileName, transferCode, entry.getResumeOffset());
+            return ReceiveFileSink.resume(Paths.get(checkpoint.getPartFile()), completed, transferCode);
+        }
+        checkpointRepository.deleteFile(transferCode, TransferCheckpoint.Side.RECEIVER, fileIndex);
+        ReceiveFileSink sink = new ReceiveFileSink(Paths.get(tempDir), transferCode, fileIndex + "-" + fileName);
+        if (entry != null) {
+            sink.getCompleted().setFileSize(entry.getFileSize());
+        }
+        return sink;
+    }
+
+    // Syncs the part-file first, so the stored bitmap never claims data a crash could still lose
+    private void saveCheckpoint(String transferCode, ManifestEntry entry, ReceiveFileSink sink) {
+        try {
+            checkpointRepository.saveBitmap(transferCode, TransferCheckpoint.Side.RECEIVER, entry.getIndex(),
+                    entry.getFileName(), entry.getFileSize(), sink.getCompleted().toByteArray(),
+                    sink.getPartFile().toString());
+            lastCheckpointSaved.put(sinkKey(transferCode, entry.getIndex()), System.nanoTime());
+        } catch (Exception e) {
+            logger.warn("Failed to save checkpoint for {} in transfer {}: {}", entry.getFileName(), transferCode,
+                    e.getMessage());
+        }
+    }
+
+    /**
+     * Opens the extra receiver connections a sender may stripe this transfer across.
+     * They are best effort: a stripe that fails to connect simply is not used.
+     */
+    private void openStripes(String transferCode, WebSocketClient primary) {
+        if (maxStripes <= 1 || primary.getURI() == null) {
+            return;
+        }
+        Map<Integer, WebSocketClient> stripes = new ConcurrentHashMap<>();
+        stripeClients.put(transferCode, stripes);
+        for (int i = 1; i < maxStripes; i++) {
+            final int stripe = i;
+            webSocketClientManager.connectStripe(primary, stripe,
+                    bytes -> enqueueIncomingBinary(transferCode, stripe, bytes))
+                    .thenAccept(client -> stripes.put(stripe, client))
+                    .exceptionally(ex -> {
+                        logger.info("Stripe {} for transfer {} not available: {}", stripe, transferCode, ex.getMessage());
+                        return null;
+                    });
+        }
+    }
+
+    // Handle incoming binary data (file chunk), runs on the transfer's I/O worker
+    private void handleIncomingBinary(String transferCode, int stripe, ByteBuffer bytes) {
+        String sinkKey = transferCode;
+        try {
+            if (!TransferFrame.isValid(bytes)) {
+                logger.warn("Ignoring malformed frame ({} bytes) for transfer {}", bytes.remaining(), transferCode);
+                return;
+            }
+            int fileIndex = TransferFrame.fileIndex(bytes);
+            sinkKey = sinkKey(transferCode, fileIndex);
+            if (incomingCompleted.getOrDefault(transferCode, Set.of()).contains(fileIndex)) {
+                // Sent again because its stripe closed before the credit for it got back
+                grantCredit(transferCode, stripe, bytes.remaining(), fileIndex, TransferFrame.offset(bytes),
+                        TransferFrame.carriesFileData(bytes) ? TransferFrame.payloadLength(bytes) : 0);
+                return;
+            }
+            logger.debug("Received chunk {} of file {} ({} bytes at offset {}) for transfer {}",
+                    TransferFrame.sequence(bytes), fileIndex, TransferFrame.payloadLength(bytes),
+                    TransferFrame.offset(bytes), transferCode);
+
+            // The manifest names the file; without one fall back to the session's single file
+            TransferSession session = activeSessions.get(transferCode);
+            List<ManifestEntry> manifest = incomingManifests.get(transferCode);
+            ManifestEntry entry = manifest != null && fileIndex < manifest.size() ? manifest.get(fileIndex) : null;
+            String fileName = entry != null ? entry.getFileName()
+                    : session != null && session.getFileName() != null ? session.getFileName() : transferCode;
+
+            ReceiveFileSink sink = incomingFileSinks.get(sinkKey);
+            if (sink == null) {
+                // A file said to be here is only sent if the sender stopped waiting for the answer, and
+                // then has to arrive like any other before the transfer is done
+                Set<Integer> duplicates = incomingDuplicates.get(transferCode);
+                if (duplicates != null && duplicates.remove(fileIndex)) {
+                    logger.info("Sender sends {} after all for transfer {}", fileName, transferCode);
+                }
+                sink = openSink(transferCode, fileIndex, fileName, entry);
+                IncomingLeaves leaves = incomingLeaves.get(transferCode);
+                if (leaves != null) {
+                    sink.verifyLeaves(leaves.leafSize(), leaves.algorithm(), leafCheckExecutor);
+                }
+                incomingFileSinks.put(sinkKey, sink);
+            }
+
+            long offset = TransferFrame.offset(bytes);
+            int frameLength = bytes.remaining();
+            ByteBuffer payload = TransferFrame.payload(bytes);
+            // The length of file data the frame stands for, larger than the payload for a delta
+            int payloadLength = payload.remaining();
+            boolean digestFrame = TransferFrame.isDigest(bytes);
+            if (digestFrame) {
+                // Can overtake the file's last chunk on another stripe, so it only records what to expect
+                byte[] hash = new byte[MerkleTree.HASH_SIZE];
+                payload.get(hash);
+                EncryptionService.KeyAndIv transferKey = incomingKeys.get(transferCode);
+                if (transferKey != null) {
+                    // AES-CTR does not authenticate the file, only a digest tagged under the transfer key does
+                    byte[] tag = new byte[payload.remaining()];
+                    payload.get(tag);
+                    if (!TransferFrame.isEncrypted(bytes) || !MessageDigest.isEqual(tag,
+                            encryptionService.digestTag(transferKey.key(), fileIndex, hash))) {
+                        throw new IOException("Digest of " + fileName + " does not authenticate");
+                    }
+                }
+                sink.setExpectedChecksum(sink.checksumFor(hash));
+            } else if (TransferFrame.isLeafHashes(bytes)) {
+                sink.addLeafHashes(offset, payload);
+            } else {
+                boolean delta = TransferFrame.isDelta(bytes);
+                if (TransferFrame.isEncrypted(bytes)) {
+                    // Decrypt in the frame buffer, so plaintext is the only thing that reaches the disk
+                    EncryptionService.KeyAndIv transferKey = incomingKeys.get(transferCode);
+                    if (transferKey == null) {
+                        throw new IOException("Encrypted chunk received before the transfer key");
+                    }
+                    // Deltas are encrypted under an IV of their own, see WebSocketServiceImpl
+                    encryptionService.decryptStreamChunk(transferKey.key(),
+                            encryptionService.deriveFileIv(transferKey.iv(), delta ? ~fileIndex : fileIndex), offset,
+                            payload);
+                }
+                if (delta) {
+                    FileChannel basis = incomingBases.get(sinkKey);
+                    if (basis == null) {
+                        throw new IOException("Delta received for " + fileName + " without an old copy to apply it to");
                     }
+                    ByteBuffer window = deltaWindow(payload.getInt(payload.position()));
+                    payloadLength = DeltaEncoder.apply(payload, basis, window);
+                    payload = window;
+                }
+                if (TransferFrame.isLastChunk(bytes)) {
+                    sink.setExpectedSize(offset + payloadLength);
+                }
+                sink.write(payload, offset);
+            }
+            if (sink.isVerifyingLeaves()) {
+                // Ahead of the credit and on the same connection, so the sender has the request before
+                // it sees everything acknowledged
+                for (ReceiveFileSink.Range range : sink.checkLeaves()) {
+                    requestResend(transferCode, stripe, fileIndex, range);
+                }
+            }
+            // The chunk is on disk, let the sender put another one on the wire
+            grantCredit(transferCode, stripe, frameLength, fileIndex, offset,
+                    TransferFrame.carriesFileData(bytes) ? payloadLength : 0);
+            // With digests on, a file is done once its bytes and the sender's digest are both in; an
+            // encrypted file is never done without its authenticated digest
+            boolean complete = sink.isComplete() && (sink.getExpectedChecksum() != null
+                    || (!incomingDigests.contains(transferCode) && !incomingKeys.containsKey(transferCode)));
+            if (complete) {
+                incomingCompleted.computeIfAbsent(transferCode, code -> ConcurrentHashMap.newKeySet()).add(fileIndex);
+            }
+
+            Long lastCheckpoint = lastCheckpointSaved.get(sinkKey);
+            if (entry != null && !sink.isComplete()
+                    && (lastCheckpoint == null || System.nanoTime() - lastCheckpoint >= CHECKPOINT_INTERVAL_NANOS)) {
+                sink.sync();
+                saveCheckpoint(transferCode, entry, sink);
+            }
 
-                    // Clear the buffer for potential next file
-                    incomingFileBuffers.remove(transferCode);
+            boolean lastFile = manifest == null || isLastToArrive(transferCode, fileIndex, manifest.size());
+            long totalBytes = manifest != null ? manifest.stream().mapToLong(ManifestEntry::getFileSize).sum()
+                    : session != null && session.getFileSize() > 0 ? session.getFileSize() : 0;
+            long sessionReceived = (entry != null ? entry.getOffset() : 0) + sink.getBytesWritten();
+            publishReceiveProgress(transferCode, fileName, sessionReceived, totalBytes, complete && lastFile);
+
+            if (complete) {
+                // Last chunk seen and every byte before it written, process the complete file
+                logger.info("All chunks of {} received for transfer {}", fileName, transferCode);
+                incomingFileSinks.remove(sinkKey);
+                lastCheckpointSaved.remove(sinkKey);
+                closeQuietly(incomingBases.remove(sinkKey));
+                checkpointRepository.deleteFile(transferCode, TransferCheckpoint.Side.RECEIVER, fileIndex);
+                String checksum = sink.finish();
+                long fileSize = sink.getBytesWritten();
+                receivedFiles.put(receivedFileKey(transferCode, fileName),
+                        new ReceivedFile(sink.getPartFile(), checksum, fileSize));
+
+                // Checked against the streamed digest, or the manifest checksum of senders that precompute it
+                String expected = sink.getExpectedChecksum() != null ? sink.getExpectedChecksum()
+                        : entry != null ? entry.getChecksum() : null;
+                boolean verified = expected == null || expected.equalsIgnoreCase(checksum);
+                if (!verified) {
+                    logger.error("Checksum mismatch for {} in transfer {}", fileName, transferCode);
+                }
+
+                if (session != null || entry != null) {
+                    recordReceivedFile(transferCode, fileName, fileSize, checksum, verified);
+                    logger.info("File received successfully: {} ({} bytes)", fileName, fileSize);
+
+                    // Notify user that file has been received and is ready for saving
+                    ToastNotification.show(null,
+                            verified ? "File received: " + fileName : "File corrupted in transit: " + fileName,
+                            verified ? ToastNotification.NotificationType.SUCCESS
+                                    : ToastNotification.NotificationType.ERROR,
+                            javafx.util.Duration.seconds(5),
+                            70);
+                }
+
+                if (lastFile) {
+                    forgetIncoming(transferCode);
                 }
             }
 
         } catch (Exception e) {
             logger.error("Error processing received file chunk for transfer {}: {}", transferCode, e.getMessage());
+            ReceiveFileSink sink = incomingFileSinks.remove(sinkKey);
+            if (sink != null) {
+                sink.abort();
+            }
             ToastNotification.show(null,
                     "Error receiving file: " + e.getMessage(),
                     ToastNotification.NotificationType.ERROR,
@@ -1042,6 +1563,353 @@ public class TransferServiceImpl implements TransferService {
         }
     }
 
+    // Creates the ReceiverTransfer record of a file that is ready to be saved
+    private void recordReceivedFile(String transferCode, String fileName, long fileSize, String checksum,
+            boolean verified) {
+        ReceiverTransfer transfer = new ReceiverTransfer();
+        transfer.setSessionId(transferCode);
+        transfer.setSenderCode(transferCode);
+        transfer.setSenderUsername(incomingSenders.get(transferCode));
+        transfer.setFileName(fileName);
+        transfer.setFileSize(fileSize);
+        transfer.setReceivedTime(LocalDateTime.now());
+        transfer.setTransferStatus(verified ? ReceiverTransfer.TransferStatus.RECEIVED
+                : ReceiverTransfer.TransferStatus.FAILED);
+        transfer.setChecksum(checksum);
+        if (!verified) {
+            transfer.setErrorMessage("Checksum does not match the sender's");
+        }
+        receiverTransferRepository.save(transfer);
+    }
+
+    private void forgetIncoming(String transferCode) {
+        incomingManifests.remove(transferCode);
+        incomingDigests.remove(transferCode);
+        incomingLeaves.remove(transferCode);
+        incomingDuplicates.remove(transferCode);
+        incomingSenders.remove(transferCode);
+        incomingKeys.remove(transferCode);
+        closeBases(transferCode);
+    }
+
+    // Files complete in any order once striped, so this is the last one when every other file is
+    // complete or was copied here instead of being sent
+    private boolean isLastToArrive(String transferCode, int fileIndex, int fileCount) {
+        Set<Integer> duplicates = incomingDuplicates.getOrDefault(transferCode, Set.of());
+        Set<Integer> completed = incomingCompleted.getOrDefault(transferCode, Set.of());
+        for (int other = 0; other < fileCount; other++) {
+            if (other != fileIndex && !duplicates.contains(other) && !completed.contains(other)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Answers a manifest that offers content checksums with the files this side already holds.
+     * Each is a saved file with the same checksum that still has the size and modification time it
+     * was saved with. The reply only takes a lookup and a stat per file, so it goes out well within
+     * the sender's wait; the files are copied afterwards and are then treated as received.
+     */
+    private Set<Integer> answerDuplicates(String transferCode, List<ManifestEntry> manifest) {
+        Map<ManifestEntry, Path> sources = new LinkedHashMap<>();
+        for (ManifestEntry entry : manifest) {
+            if (entry.getChecksum() == null || entry.getResumeOffset() > 0) {
+                continue;
+            }
+            try {
+                Path source = findSavedCopy(entry);
+                if (source != null) {
+                    sources.put(entry, source);
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Could not look for a saved copy of {} for transfer {}: {}", entry.getFileName(),
+                        transferCode, e.getMessage());
+            }
+        }
+        // Recorded before the reply, since the sender's frames may follow right after it
+        Set<Integer> held = ConcurrentHashMap.newKeySet();
+        sources.keySet().forEach(entry -> held.add(entry.getIndex()));
+        incomingDuplicates.put(transferCode, held);
+        WebSocketClient client = activeClients.get(transferCode);
+        if (client == null || !client.isOpen()) {
+            return held;
+        }
+        try {
+            Map<String, Object> reply = new HashMap<>();
+            reply.put("type", "have");
+            reply.put("transferCode", transferCode);
+            reply.put("files", new ArrayList<>(held));
+            client.send(objectMapper.writeValueAsString(reply));
+        } catch (Exception e) {
+            logger.warn("Failed to tell sender which files are here for transfer {}: {}", transferCode,
+                    e.getMessage());
+        }
+
+        long heldBytes = 0;
+        for (Map.Entry<ManifestEntry, Path> source : sources.entrySet()) {
+            ManifestEntry entry = source.getKey();
+            try {
+                Path copy = copySavedFile(transferCode, entry, source.getValue());
+                // A sender that gave up waiting for the reply sends the file after all, and that copy wins
+                if (!held.contains(entry.getIndex())) {
+                    Files.deleteIfExists(copy);
+                    continue;
+                }
+                receivedFiles.put(receivedFileKey(transferCode, entry.getFileName()),
+                        new ReceivedFile(copy, entry.getChecksum(), entry.getFileSize()));
+                recordReceivedFile(transferCode, entry.getFileName(), entry.getFileSize(), entry.getChecksum(), true);
+                heldBytes += entry.getFileSize();
+                logger.info("Already holding {} ({} bytes), copied it locally for transfer {}", entry.getFileName(),
+                        entry.getFileSize(), transferCode);
+                ToastNotification.show(null, "File received: " + entry.getFileName(),
+                        ToastNotification.NotificationType.SUCCESS, javafx.util.Duration.seconds(5), 70);
+            } catch (IOException | RuntimeException e) {
+                // The sender skips it already, so it is recorded as failed for the user to ask for again
+                logger.error("Could not copy the saved copy of {} for transfer {}: {}", entry.getFileName(),
+                        transferCode, e.getMessage());
+                recordFailedDuplicate(transferCode, entry, e);
+                ToastNotification.show(null, "Failed to receive " + entry.getFileName() + ": " + e.getMessage(),
+                        ToastNotification.NotificationType.ERROR, javafx.util.Duration.seconds(5), 70);
+            }
+        }
+        if (!held.isEmpty() && held.size() == manifest.size()) {
+            // Nothing left to arrive
+            long totalBytes = manifest.stream().mapToLong(ManifestEntry::getFileSize).sum();
+            publishReceiveProgress(transferCode, manifest.get(manifest.size() - 1).getFileName(), heldBytes,
+                    totalBytes, true);
+            forgetIncoming(transferCode);
+        }
+        return held;
+    }
+
+    private void recordFailedDuplicate(String transferCode, ManifestEntry entry, Exception cause) {
+        ReceiverTransfer transfer = new ReceiverTransfer();
+        transfer.setSessionId(transferCode);
+        transfer.setSenderCode(transferCode);
+        transfer.setSenderUsername(incomingSenders.get(transferCode));
+        transfer.setFileName(entry.getFileName());
+        transfer.setFileSize(entry.getFileSize());
+        transfer.setReceivedTime(LocalDateTime.now());
+        transfer.setTransferStatus(ReceiverTransfer.TransferStatus.FAILED);
+        transfer.setChecksum(entry.getChecksum());
+        transfer.setErrorMessage("Could not copy the saved file with the same content: " + cause.getMessage());
+        receiverTransferRepository.save(transfer);
+    }
+
+    /**
+     * Answers each file the sender offered as a delta with the block signatures of the most recently
+     * saved file of the same name from the same sender, or with none if there is no such file or
+     * deltas are not enabled. The old copy is kept open
+     * until the file is complete, so delta frames can be rebuilt from it. If it changes in the
+     * meantime, the leaf checks catch what was rebuilt from the changed parts.
+     */
+    private void signOldCopies(String transferCode, List<ManifestEntry> manifest, Set<Integer> held) {
+        IncomingLeaves leaves = incomingLeaves.get(transferCode);
+        for (ManifestEntry entry : manifest) {
+            if (!entry.isDelta() || held.contains(entry.getIndex())) {
+                continue;
+            }
+            String signatures = null;
+            Path oldCopy = deltaEnabled && leaves != null
+                    ? findOldCopy(entry.getFileName(), incomingSenders.get(transferCode)) : null;
+            if (oldCopy != null) {
+                try {
+                    long start = System.nanoTime();
+                    // Opened first and registered before the answer, which delta frames may follow right away
+                    FileChannel basis = FileChannel.open(oldCopy, StandardOpenOption.READ);
+                    closeQuietly(incomingBases.put(sinkKey(transferCode, entry.getIndex()), basis));
+                    BlockSignatures blocks = BlockSignatures.compute(oldCopy, leaves.algorithm());
+                    signatures = Base64.getEncoder().encodeToString(blocks.toByteArray());
+                    logger.info("Signed {} blocks of {} for a delta of {} in {} ms", blocks.getBlockCount(), oldCopy,
+                            entry.getFileName(), (System.nanoTime() - start) / 1_000_000);
+                } catch (IOException e) {
+                    logger.warn("Could not sign {} for a delta of {}: {}", oldCopy, entry.getFileName(), e.getMessage());
+                }
+            }
+            WebSocketClient client = activeClients.get(transferCode);
+            if (client == null || !client.isOpen()) {
+                return;
+            }
+            try {
+                Map<String, Object> reply = new HashMap<>();
+                reply.put("type", "signatures");
+                reply.put("transferCode", transferCode);
+                reply.put("fileIndex", entry.getIndex());
+                reply.put("signatures", signatures);
+                client.send(objectMapper.writeValueAsString(reply));
+            } catch (Exception e) {
+                logger.warn("Failed to send block signatures for transfer {}: {}", transferCode, e.getMessage());
+            }
+        }
+    }
+
+    // Most recently saved file of this name from the same sender that is still where it was saved
+    private Path findOldCopy(String fileName, String sender) {
+        if (sender == null) {
+            return null;
+        }
+        for (ReceiverTransfer saved : receiverTransferRepository
+                .findByFileNameAndSenderUsernameAndTransferStatusOrderBySavedTimeDesc(fileName, sender,
+                        ReceiverTransfer.TransferStatus.SAVED)) {
+            if (saved.getFilePath() != null && Files.isRegularFile(Paths.get(saved.getFilePath()))) {
+                return Paths.get(saved.getFilePath());
+            }
+        }
+        return null;
+    }
+
+    private void closeBases(String transferCode) {
+        incomingBases.entrySet().removeIf(entry -> {
+            if (entry.getKey().startsWith(transferCode + ":")) {
+                closeQuietly(entry.getValue());
+                return true;
+            }
+            return false;
+        });
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.debug("Failed to close old copy: {}", e.getMessage());
+            }
+        }
+    }
+
+    // Rebuilt delta windows land here before they are written, one buffer per I/O worker
+    private static ByteBuffer deltaWindow(int length) throws IOException {
+        if (length < 0 || length > MAX_DELTA_WINDOW) {
+            throw new IOException("Delta window of " + length + " bytes is larger than any chunk");
+        }
+        ByteBuffer window = DELTA_WINDOWS.get();
+        if (window == null || window.capacity() < length) {
+            window = ByteBuffer.allocate(length);
+            DELTA_WINDOWS.set(window);
+        }
+        return window;
+    }
+
+    /**
+     * Puts a file with the entry's checksum into the temp directory from a saved copy, or returns
+     * null if no saved copy still matches. A hard link costs nothing but shares the bytes with the
+     * saved file; a later change to either shows in both and moves their modification time, which
+     * rules both out here from then on. Falls back to a copy where links are not possible.
+     */
+    // Most recently saved file with the entry's content that is unchanged since it was saved
+    private Path findSavedCopy(ManifestEntry entry) throws IOException {
+        for (ReceiverTransfer saved : receiverTransferRepository.findByChecksumAndTransferStatusOrderBySavedTimeDesc(
+                entry.getChecksum(), ReceiverTransfer.TransferStatus.SAVED)) {
+            if (saved.getFilePath() == null || saved.getFileModified() == null
+                    || saved.getFileSize() == null || saved.getFileSize() != entry.getFileSize()) {
+                continue;
+            }
+            Path source = Paths.get(saved.getFilePath());
+            if (Files.isRegularFile(source) && Files.size(source) == entry.getFileSize()
+                    && Files.getLastModifiedTime(source).toMillis() == saved.getFileModified()) {
+                return source;
+            }
+        }
+        return null;
+    }
+
+    private Path copySavedFile(String transferCode, ManifestEntry entry, Path source) throws IOException {
+        // Named apart from part-files, which are truncated when a sink opens them
+        Path copy = Files.createDirectories(Paths.get(tempDir))
+                .resolve(transferCode + "-" + entry.getIndex() + DUPLICATE_SUFFIX);
+        Files.deleteIfExists(copy);
+        try {
+            Files.createLink(copy, source);
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(source, copy);
+        }
+        return copy;
+    }
+
+    private static String sinkKey(String transferCode, int fileIndex) {
+        return transferCode + ":" + fileIndex;
+    }
+
+    private static String receivedFileKey(String transferCode, String fileName) {
+        return transferCode + "/" + fileName;
+    }
+
+    // Progress is coalesced so the UI sees a few updates per second rather than one per frame
+    private void publishReceiveProgress(String transferCode, String fileName, long bytesReceived, long totalBytes,
+            boolean complete) {
+        long now = System.nanoTime();
+        Long last = lastProgressPublished.get(transferCode);
+        if (!complete && last != null && now - last < PROGRESS_INTERVAL_NANOS) {
+            return;
+        }
+        lastProgressPublished.put(transferCode, now);
+        double progress = complete ? 1.0 : totalBytes > 0 ? Math.min(1.0, (double) bytesReceived / totalBytes) : 0.0;
+        transferProgress.put(transferCode,
+                new TransferProgress(transferCode, fileName, progress, bytesReceived, Math.max(totalBytes, bytesReceived)));
+        webSocketService.sendProgress(transferCode, progress, bytesReceived);
+    }
+
+    // Credit goes back on the connection the frame arrived on, which owns the matching send window;
+    // it names the chunk so the sender can checkpoint what has been acknowledged
+    private void grantCredit(String transferCode, int stripe, int frameBytes, int fileIndex, long offset,
+            int length) {
+        WebSocketClient client = stripeClient(transferCode, stripe);
+        if (client == null || !client.isOpen()) {
+            return;
+        }
+        try {
+            Map<String, Object> credit = new HashMap<>();
+            credit.put("type", "credit");
+            credit.put("transferCode", transferCode);
+            credit.put("credits", 1);
+            credit.put("bytes", frameBytes);
+            credit.put("fileIndex", fileIndex);
+            credit.put("offset", offset);
+            credit.put("length", length);
+            client.send(objectMapper.writeValueAsString(credit));
+        } catch (Exception e) {
+            logger.warn("Failed to send credit for transfer {}: {}", transferCode, e.getMessage());
+        }
+    }
+
+    // Asks the sender for a range again after it failed its leaf check on disk
+    private void requestResend(String transferCode, int stripe, int fileIndex, ReceiveFileSink.Range range) {
+        WebSocketClient client = stripeClient(transferCode, stripe);
+        if (client == null || !client.isOpen()) {
+            return;
+        }
+        try {
+            Map<String, Object> request = new HashMap<>();
+            request.put("type", "resend");
+            request.put("transferCode", transferCode);
+            request.put("fileIndex", fileIndex);
+            request.put("offset", range.offset());
+            request.put("length", range.length());
+            client.send(objectMapper.writeValueAsString(request));
+        } catch (Exception e) {
+            logger.warn("Failed to ask for a range again for transfer {}: {}", transferCode, e.getMessage());
+        }
+    }
+
+    private WebSocketClient stripeClient(String transferCode, int stripe) {
+        Map<Integer, WebSocketClient> stripes = stripeClients.get(transferCode);
+        return stripe == 0 ? activeClients.get(transferCode) : stripes != null ? stripes.get(stripe) : null;
+    }
+
+    private record IncomingFrame(int stripe, ByteBuffer frame) {}
+
+    /**
+     * How the sender of an incoming transfer cuts its files into Merkle leaves and hashes them.
+     */
+    private record IncomingLeaves(int leafSize, HashAlgorithm algorithm) {}
+
+    /**
+     * A fully received file sitting in the temp directory until the user saves it.
+     */
+    private record ReceivedFile(Path partFile, String checksum, long size) {}
+
     // Add a method to discover local LAN IPs
     private List<String> discoverLocalLANAddresses() {
         List<String> ips = new ArrayList<>();
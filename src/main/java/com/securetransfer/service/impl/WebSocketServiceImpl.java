@@ -1,16 +1,51 @@
 package com.securetransfer.service.impl;
 
+import com.securetransfer.service.EncryptionService;
 import com.securetransfer.service.WebSocketService;
+import com.securetransfer.util.BlockSignatures;
+import com.securetransfer.util.ChunkBitmap;
+import com.securetransfer.util.ChunkSizeController;
+import com.securetransfer.util.DeltaEncoder;
+import com.securetransfer.util.DigestingReadableChannel;
+import com.securetransfer.util.DirectBufferPool;
+import com.securetransfer.util.FileReadPools;
+import com.securetransfer.util.HashAlgorithm;
+import com.securetransfer.util.MerkleTree;
+import com.securetransfer.util.ParallelLeafHasher;
+import com.securetransfer.util.TransferFrame;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.scheduling.annotation.Scheduled;
 
+import javax.crypto.spec.IvParameterSpec;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
@@ -27,6 +62,9 @@ public class WebSocketServiceImpl implements WebSocketService {
     @Autowired
     private SecureTransferWebSocketServer webSocketServer;
 
+    @Autowired
+    private EncryptionService encryptionService;
+
     // Transfer session management
     private final Map<String, TransferSession> activeSessions = new ConcurrentHashMap<>();
     private final Map<String, CompletableFuture<Void>> pendingConnections = new ConcurrentHashMap<>();
@@ -34,18 +72,85 @@ public class WebSocketServiceImpl implements WebSocketService {
     // Transfer progress callbacks
     private final Map<String, Consumer<WebSocketService.TransferProgress>> progressCallbacks = new ConcurrentHashMap<>();
     private final Map<String, Consumer<WebSocketService.TransferComplete>> completionCallbacks = new ConcurrentHashMap<>();
+    private final Map<String, Long> lastProgressSent = new ConcurrentHashMap<>();
+    private static final long PROGRESS_INTERVAL_NANOS = 100_000_000L;
 
     // Connection timeout (30 minutes)
     private static final long SESSION_TIMEOUT_MS = 30 * 60 * 1000;
 
-    // File transfer chunk size (1MB)
-    private static final int CHUNK_SIZE = 1024 * 1024;
+    // Largest chunk a session may grow to; sessions start at the minimum and adapt in between
+    @Value("${transfer.chunk-size:1048576}")
+    private int maxChunkSize;
+
+    @Value("${transfer.chunk-size-min:65536}")
+    private int minChunkSize;
+
+    // Reusable off-heap frame buffers for the send path (header + one chunk each); the socket
+    // library still copies every frame it sends, see DirectBufferPool
+    private static final int CHUNK_BUFFER_POOL_SIZE = 4;
+
+    // Files at least this large are memory-mapped in windows instead of read into buffers
+    private static final long MAPPED_SEND_THRESHOLD = 64L * 1024 * 1024;
+    private static final long MAP_WINDOW_SIZE = 64L * 1024 * 1024;
+    private DirectBufferPool chunkBufferPool;
+
+    // Small transformed files (e.g. encrypted on the way out) are produced on a bounded pool
+    // ahead of the send, so a selection of many small files is not transformed one at a time
+    private static final long PREFETCH_MAX_FILE_SIZE = 8L * 1024 * 1024;
+
+    @Value("${transfer.transform.threads:0}")
+    private int transformThreads;
+    private ExecutorService transformExecutor;
+    private int prefetchWindow;
+    // Leaves hashed ahead of the send position, enough to keep every transform thread busy
+    private int leafLookahead;
+
+    // Smaller files are sent rather than hashed up front on the chance that the receiver has them
+    private static final long DEDUP_MIN_FILE_SIZE = 1024 * 1024;
+    private final Map<Path, ContentChecksum> contentChecksums = new ConcurrentHashMap<>();
+
+    // Smaller files are sent whole; a delta of a file that shares nothing with the receiver's copy is
+    // given up after this much of it rather than searched to the end
+    private static final long DELTA_MIN_FILE_SIZE = 1024 * 1024;
+    private static final long DELTA_PROBE_BYTES = 32L * 1024 * 1024;
+
+    @PostConstruct
+    public void initChunkBuffers() {
+        // Sessions never go below the minimum, so a minimum above the maximum raises the maximum
+        if (minChunkSize > maxChunkSize) {
+            logger.warn("transfer.chunk-size-min ({}) is above transfer.chunk-size ({}), using {} for both",
+                    minChunkSize, maxChunkSize, minChunkSize);
+            maxChunkSize = minChunkSize;
+        }
+        int largestChunk = Math.max(maxChunkSize, new ChunkSizeController(minChunkSize, maxChunkSize).getMaxSize());
+        chunkBufferPool = new DirectBufferPool(TransferFrame.HEADER_SIZE + largestChunk, CHUNK_BUFFER_POOL_SIZE);
+    }
+
+    @PostConstruct
+    public void initTransformPool() {
+        int threads = FileReadPools.threads(transformThreads);
+        transformExecutor = FileReadPools.newPool("transform", threads);
+        prefetchWindow = threads * 2;
+        leafLookahead = threads * 2;
+        logger.info("Transforming outgoing files on {} thread(s), up to {} file(s) ahead", threads, prefetchWindow);
+    }
+
+    @PreDestroy
+    public void shutdownTransformPool() {
+        transformExecutor.shutdownNow();
+    }
 
     @Override
     public CompletableFuture<Void> registerSender(String transferCode, SenderInfo senderInfo, String fileName,
             long fileSize) {
         logger.info("registerSender called for transfer code: {}", transferCode);
+        // Only waits on a fresh install whose keystore is still being created
+        return webSocketServer.startWhenReady()
+                .thenCompose(started -> registerSenderSession(transferCode, senderInfo, fileName, fileSize));
+    }
 
+    private CompletableFuture<Void> registerSenderSession(String transferCode, SenderInfo senderInfo, String fileName,
+            long fileSize) {
         CompletableFuture<Void> future = new CompletableFuture<>();
 
         try {
@@ -106,6 +211,19 @@ public class WebSocketServiceImpl implements WebSocketService {
     @Override
     public CompletableFuture<Void> sendFile(String transferCode, File file, String fileName, long fileSize) {
         logger.info("Streaming file: {} ({} bytes) for transfer code: {}", fileName, fileSize, transferCode);
+        return sendFiles(transferCode, List.of(OutgoingFile.plain(file)),
+                List.of(new ManifestEntry(0, fileName, file.length(), 0, null)));
+    }
+
+    @Override
+    public CompletableFuture<Void> sendFiles(String transferCode, List<OutgoingFile> files, List<ManifestEntry> manifest) {
+        return sendFiles(transferCode, files, manifest, null);
+    }
+
+    @Override
+    public CompletableFuture<Void> sendFiles(String transferCode, List<OutgoingFile> files, List<ManifestEntry> manifest,
+            EncryptionService.KeyAndIv transferKey) {
+        logger.info("Streaming {} file(s) for transfer code: {}", files.size(), transferCode);
 
         CompletableFuture<Void> future = new CompletableFuture<>();
 
@@ -115,17 +233,35 @@ public class WebSocketServiceImpl implements WebSocketService {
                 throw new IllegalStateException("Transfer session not found");
             }
 
-            if (session.getStatus() != TransferStatus.CONNECTED) {
+            // A failed session is retried when the receiver reconnects with the same code
+            if (session.getStatus() != TransferStatus.CONNECTED && session.getStatus() != TransferStatus.FAILED) {
                 throw new IllegalStateException("Transfer session not ready");
             }
 
             session.setStatus(TransferStatus.TRANSFERRING);
 
-            // Send file in chunks using streaming
-            sendFileInChunksStreaming(transferCode, file, fileName, fileSize, future);
+            // Files the receiver already has part of continue from its first missing chunk
+            List<ManifestEntry> resumable = new ArrayList<>();
+            for (ManifestEntry entry : manifest) {
+                resumable.add(entry.withResumeOffset(resumeOffset(transferCode, entry)));
+            }
+            // Receivers that keep saved files by content may already hold some, so offer their checksums
+            resumable = withContentChecksums(session, files, resumable);
+            // and may have an older version of others, which then only need what changed
+            resumable = withDeltaOffers(session, files, resumable, transferKey);
+            session.setManifest(resumable);
+
+            // Tell the receiver how to decrypt and what is coming before the first frame
+            if (transferKey != null) {
+                webSocketServer.sendKeyExchange(transferCode, transferKey);
+            }
+            webSocketServer.sendManifest(transferCode, resumable);
+            Set<Integer> alreadyHeld = webSocketServer.awaitDuplicates(transferCode);
+
+            streamFiles(transferCode, files, resumable, alreadyHeld, transferKey, future);
 
         } catch (Exception e) {
-            logger.error("Failed to stream file for transfer code: {}", transferCode, e);
+            logger.error("Failed to stream files for transfer code: {}", transferCode, e);
             future.completeExceptionally(e);
         }
 
@@ -162,63 +298,723 @@ public class WebSocketServiceImpl implements WebSocketService {
         return future;
     }
 
-    private void sendFileInChunksStreaming(String transferCode, File file, String fileName, long fileSize,
-            CompletableFuture<Void> future) {
-        try (FileInputStream fis = new FileInputStream(file)) {
-            int totalChunks = (int) Math.ceil((double) fileSize / CHUNK_SIZE);
-            byte[] buffer = new byte[CHUNK_SIZE];
-            int bytesRead;
-            int chunkIndex = 0;
-            long bytesTransferred = 0;
-
-            while ((bytesRead = fis.read(buffer)) != -1) {
-                byte[] chunk;
-                boolean isLastChunk = (chunkIndex == totalChunks - 1) || (bytesTransferred + bytesRead >= fileSize);
-
-                if (isLastChunk) {
-                    // Add EOF marker to the last chunk
-                    byte[] eofMarker = "EOF_MARK".getBytes();
-                    chunk = new byte[bytesRead + eofMarker.length];
-                    System.arraycopy(buffer, 0, chunk, 0, bytesRead);
-                    System.arraycopy(eofMarker, 0, chunk, bytesRead, eofMarker.length);
-                    logger.info("Added EOF marker to final chunk {} for transfer code: {}", chunkIndex, transferCode);
+    /**
+     * Fills in the content checksum of every file worth offering to a receiver that looks them up
+     * among its saved files. It is the tree checksum the receiver stores for the same bytes, hashed
+     * in parallel, and remembered while the file keeps its size and modification time, so sending the
+     * same file again does not read it twice.
+     */
+    private List<ManifestEntry> withContentChecksums(TransferSession session, List<OutgoingFile> files,
+            List<ManifestEntry> manifest) throws IOException {
+        HashAlgorithm algorithm = session.getLeafHashAlgorithm();
+        if (!session.isDedup() || algorithm == null) {
+            return manifest;
+        }
+        List<ManifestEntry> offered = new ArrayList<>(manifest.size());
+        for (int i = 0; i < manifest.size(); i++) {
+            ManifestEntry entry = manifest.get(i);
+            OutgoingFile file = files.get(i);
+            // The receiver stores the file's own bytes only when it is sent plain or encrypted
+            if (entry.getResumeOffset() > 0 || file.getSize() < DEDUP_MIN_FILE_SIZE
+                    || (file.isTransformed() && !file.isEncrypted())) {
+                offered.add(entry);
+                continue;
+            }
+            String checksum = contentChecksum(file, algorithm);
+            file.setChecksum(checksum);
+            offered.add(entry.withChecksum(checksum));
+        }
+        return offered;
+    }
+
+    private String contentChecksum(OutgoingFile file, HashAlgorithm algorithm) throws IOException {
+        Path path = file.getFile().toPath().toAbsolutePath();
+        long modified = Files.getLastModifiedTime(path).toMillis();
+        ContentChecksum cached = contentChecksums.get(path);
+        if (cached != null && cached.size() == file.getSize() && cached.modified() == modified
+                && cached.algorithm() == algorithm) {
+            return cached.checksum();
+        }
+        try (ParallelLeafHasher hasher = new ParallelLeafHasher(path, file.getSize(), MerkleTree.LEAF_SIZE,
+                algorithm, transformExecutor, leafLookahead)) {
+            String checksum = algorithm.treeChecksum(hasher.root());
+            contentChecksums.put(path, new ContentChecksum(file.getSize(), modified, algorithm, checksum));
+            return checksum;
+        }
+    }
+
+    /**
+     * Offers every file worth it to a receiver that signs its saved copies as a delta. Deltas are
+     * worked out from the file itself, so only files sent as they are or encrypted on the way out
+     * qualify, and the receiver's leaf checks catch any copy that changed while it was used.
+     */
+    private List<ManifestEntry> withDeltaOffers(TransferSession session, List<OutgoingFile> files,
+            List<ManifestEntry> manifest, EncryptionService.KeyAndIv transferKey) {
+        if (!session.isDelta() || !session.isLeafHashes()) {
+            return manifest;
+        }
+        List<ManifestEntry> offered = new ArrayList<>(manifest.size());
+        for (int i = 0; i < manifest.size(); i++) {
+            OutgoingFile file = files.get(i);
+            boolean fromFile = !file.isTransformed() || (file.isEncrypted() && transferKey != null);
+            offered.add(manifest.get(i).withDelta(fromFile && file.getSize() >= DELTA_MIN_FILE_SIZE));
+        }
+        return offered;
+    }
+
+    /**
+     * The content checksum of a file as it was when last hashed.
+     */
+    private record ContentChecksum(long size, long modified, HashAlgorithm algorithm, String checksum) {
+    }
+
+    // Block-aligned resume point for a file, always leaving at least the last block to send
+    private long resumeOffset(String transferCode, ManifestEntry entry) {
+        long requested = webSocketServer.resumeOffsetFor(transferCode, entry);
+        if (requested <= 0) {
+            return 0;
+        }
+        long block = ChunkBitmap.BLOCK_SIZE;
+        long lastBlockStart = entry.getFileSize() > 0 ? (entry.getFileSize() - 1) / block * block : 0;
+        long offset = Math.min(requested / block * block, lastBlockStart);
+        logger.info("Resuming {} at byte {} of {} for transfer code: {}", entry.getFileName(), offset,
+                entry.getFileSize(), transferCode);
+        return offset;
+    }
+
+    private void streamFiles(String transferCode, List<OutgoingFile> files, List<ManifestEntry> manifest,
+            Set<Integer> alreadyHeld, EncryptionService.KeyAndIv transferKey, CompletableFuture<Void> future) {
+        long startNanos = System.nanoTime();
+        long startAllocated = currentThreadAllocatedBytes();
+        long sessionTotal = files.stream().mapToLong(OutgoingFile::getSize).sum();
+        int sessionId = TransferFrame.sessionIdFor(transferCode);
+        long sessionSent = 0;
+        long resumedBytes = 0;
+        ChunkSizeController sizer = new ChunkSizeController(minChunkSize, maxChunkSize);
+        webSocketServer.trackChunkTiming(transferCode, sizer);
+        Map<Integer, Prefetch> prefetched = new HashMap<>();
+        int nextPrefetch = 0;
+        try {
+            for (int fileIndex = 0; fileIndex < files.size(); fileIndex++) {
+                nextPrefetch = prefetch(transferCode, files, fileIndex, nextPrefetch, prefetched, transferKey);
+                OutgoingFile file = files.get(fileIndex);
+                if (alreadyHeld.contains(fileIndex)) {
+                    // The receiver made its own copy of these bytes, nothing goes on the wire
+                    logger.info("Receiver already holds {}, skipping it for transfer code: {}", file.getFile().getName(),
+                            transferCode);
+                    sessionSent += file.getSize();
+                    resumedBytes += file.getSize();
+                    continue;
+                }
+                long startOffset = manifest.get(fileIndex).getResumeOffset();
+                resumedBytes += startOffset;
+                // Files the receiver has an older copy of go as a delta against it, once it has signed it
+                BlockSignatures signatures = manifest.get(fileIndex).isDelta()
+                        ? webSocketServer.awaitSignatures(transferCode, fileIndex)
+                        : null;
+                // Large files sent as they are or encrypted in flight go from mapped windows, smaller or
+                // otherwise transformed ones through the pooled buffers
+                boolean mappable = !file.isTransformed() || file.isEncrypted() && transferKey != null;
+                if (signatures != null) {
+                    sessionSent += streamFileDelta(transferCode, sessionId, fileIndex, file, signatures, startOffset,
+                            transferKey, sizer, sessionSent, sessionTotal);
+                } else if (mappable && file.getSize() >= MAPPED_SEND_THRESHOLD) {
+                    sessionSent += streamFileMapped(transferCode, sessionId, fileIndex, file, startOffset,
+                            transferKey, sizer, sessionSent, sessionTotal);
                 } else {
-                    chunk = new byte[bytesRead];
-                    System.arraycopy(buffer, 0, chunk, 0, bytesRead);
+                    sessionSent += streamFileBuffered(transferCode, sessionId, fileIndex, file,
+                            prefetched.remove(fileIndex), startOffset, transferKey, sizer, sessionSent, sessionTotal);
                 }
+            }
+
+            // Waits for every stripe to drain, sending again what the receiver's leaf checks rejected
+            // and what was in flight on any stripe that closed
+            serviceResends(transferCode, sessionId, files, transferKey);
+            TransferSession session = activeSessions.get(transferCode);
+            if (session != null) {
+                session.setStatus(TransferStatus.COMPLETED);
+            }
+            webSocketServer.clearCheckpoints(transferCode);
+            logSendStats(transferCode, sessionSent - resumedBytes, startNanos, startAllocated, sizer);
+            webSocketServer.sendTransferComplete(transferCode);
+            sendTransferComplete(transferCode, true, null);
+            future.complete(null);
+        } catch (IOException e) {
+            logger.error("Error streaming files for transfer code: {}", transferCode, e);
+            handleTransferFailure(transferCode, e, future);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            handleTransferFailure(transferCode, e, future);
+        } finally {
+            prefetched.values().forEach(pending -> {
+                pending.bytes().cancel(true);
+                pending.hashes().close();
+            });
+            lastProgressSent.remove(transferCode);
+            webSocketServer.stopChunkTiming(transferCode);
+            webSocketServer.forgetResends(transferCode);
+            webSocketServer.forgetSignatures(transferCode);
+        }
+    }
+
+    /**
+     * Starts producing the small transformed files that have come within the prefetch window.
+     *
+     * @return index of the first file not yet considered
+     */
+    private int prefetch(String transferCode, List<OutgoingFile> files, int current, int next,
+            Map<Integer, Prefetch> prefetched, EncryptionService.KeyAndIv transferKey) throws IOException {
+        for (; next < files.size() && next < current + prefetchWindow; next++) {
+            OutgoingFile file = files.get(next);
+            if (file.isTransformed() && file.getSize() <= PREFETCH_MAX_FILE_SIZE) {
+                int fileIndex = next;
+                OutgoingHashes hashes = newHashes(transferCode, file);
+                prefetched.put(next, new Prefetch(transformExecutor.submit(() -> readAll(
+                        openOutgoing(file, fileIndex, transferKey, hashes.streamDigest()), file.getSize())), hashes));
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Opens the bytes to send of a file. Files encrypted on the way out are encrypted under the IV of
+     * the index their frames carry, which is the one the receiver decrypts them with.
+     */
+    private ReadableByteChannel openOutgoing(OutgoingFile file, int fileIndex, EncryptionService.KeyAndIv transferKey,
+            Consumer<ByteBuffer> digest) throws IOException {
+        if (!file.isEncrypted()) {
+            return file.open(digest);
+        }
+        if (transferKey == null) {
+            throw new IOException(file.getFile().getName() + " is to be encrypted but the transfer has no key");
+        }
+        IvParameterSpec fileIv = encryptionService.deriveFileIv(transferKey.iv(), fileIndex);
+        return file.open(digest, source -> encryptionService.openEncryptingChannel(source, transferKey.key(), fileIv));
+    }
+
+    /**
+     * A file's transformed bytes being produced ahead, and the hashes of what the receiver will
+     * store, complete once the bytes are.
+     */
+    private record Prefetch(Future<ByteBuffer> bytes, OutgoingHashes hashes) {
+    }
+
+    private static ByteBuffer readAll(ReadableByteChannel source, long size) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate((int) size);
+        try (ReadableByteChannel channel = source) {
+            while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+                // keep reading until the expected size has been produced or the stream ends
+            }
+        }
+        bytes.flip();
+        return bytes;
+    }
+
+    private static ReadableByteChannel openPrefetched(Prefetch prefetched) throws IOException, InterruptedException {
+        try {
+            ByteBuffer bytes = prefetched.bytes().get();
+            return Channels.newChannel(new ByteArrayInputStream(bytes.array(), 0, bytes.limit()));
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        }
+    }
 
+    /**
+     * Sends one file by reading each chunk into a pooled direct buffer behind the frame header.
+     * Transformed files (e.g. encrypted on the way out) are read through their stage here, so
+     * the first frame leaves as soon as the first chunk has been produced. The file is hashed in the
+     * same pass, including the part skipped when resuming, unless its leaves are hashed in parallel
+     * from the file.
+     *
+     * @param prefetched  the file's transformed bytes if they were produced ahead, otherwise null
+     * @param startOffset block-aligned offset to start from, non-zero when resuming
+     * @return size of the file, i.e. the offset the file has been sent up to
+     */
+    private long streamFileBuffered(String transferCode, int sessionId, int fileIndex, OutgoingFile file,
+            Prefetch prefetched, long startOffset, EncryptionService.KeyAndIv transferKey, ChunkSizeController sizer,
+            long sessionSent, long sessionTotal) throws IOException, InterruptedException {
+        try (OutgoingHashes hashes = prefetched != null ? prefetched.hashes() : newHashes(transferCode, file);
+                ReadableByteChannel channel = prefetched != null ? openPrefetched(prefetched)
+                        : openOutgoing(file, fileIndex, transferKey, hashes.streamDigest())) {
+            long fileSize = file.getSize();
+            int chunkIndex = 0;
+            long bytesTransferred = startOffset;
+            skipTo(channel, startOffset);
+
+            while (true) {
+                hashes.advanceTo(bytesTransferred);
+                ByteBuffer frame = chunkBufferPool.acquire();
                 try {
-                    sendChunkData(transferCode, chunk, chunkIndex, totalChunks);
+                    int chunkSize = sizer.nextChunkSize();
+                    frame.limit(TransferFrame.HEADER_SIZE + chunkSize);
+                    frame.position(TransferFrame.HEADER_SIZE);
+                    while (frame.hasRemaining() && channel.read(frame) > 0) {
+                        // keep filling until the chunk is full or the file ends
+                    }
+                    frame.flip();
+                    int bytesRead = frame.limit() - TransferFrame.HEADER_SIZE;
+                    boolean isLastChunk = bytesRead < chunkSize || bytesTransferred + bytesRead >= fileSize;
+                    byte flags = (byte) ((isLastChunk ? TransferFrame.FLAG_LAST_CHUNK : 0)
+                            | (file.isEncrypted() ? TransferFrame.FLAG_ENCRYPTED : 0));
+                    TransferFrame.writeHeader(frame, 0, sessionId, fileIndex, chunkIndex, bytesTransferred, bytesRead,
+                            flags);
+
+                    // The socket copies the frame into its outbound queue, so the buffer can be reused right after
+                    sendChunkData(transferCode, frame, chunkIndex);
+                    sendLeafHashes(transferCode, sessionId, fileIndex, chunkIndex, hashes);
 
                     bytesTransferred += bytesRead;
-                    double progress = (double) bytesTransferred / fileSize;
+                    sendSessionProgress(transferCode, sessionSent + bytesTransferred, sessionTotal);
 
-                    sendProgress(transferCode, progress, bytesTransferred);
+                    if (isLastChunk) {
+                        sendDigest(transferCode, sessionId, fileIndex, chunkIndex + 1, file, hashes, transferKey);
+                        return bytesTransferred;
+                    }
+                    chunkIndex++;
+                } finally {
+                    chunkBufferPool.release(frame);
+                }
+            }
+        }
+    }
 
-                    // Small delay to prevent overwhelming the receiver
-                    Thread.sleep(10);
+    /**
+     * Moves a freshly opened channel to {@code offset}. Transformed and hashing streams cannot seek:
+     * the offset counts bytes of their output, not of the file, and the digest needs the whole file,
+     * so their output up to the offset is produced and dropped. Encryption alone would not need
+     * this, as CTR can start at any offset, but an encrypted file only gets here when it is too
+     * small to map or is compressed as well.
+     */
+    private void skipTo(ReadableByteChannel channel, long offset) throws IOException, InterruptedException {
+        if (channel instanceof SeekableByteChannel seekable) {
+            seekable.position(offset);
+            return;
+        }
+        ByteBuffer scratch = chunkBufferPool.acquire();
+        try {
+            long remaining = offset;
+            while (remaining > 0) {
+                scratch.clear();
+                scratch.limit((int) Math.min(scratch.capacity(), remaining));
+                int read = channel.read(scratch);
+                if (read < 0) {
+                    throw new IOException("Stream ended before resume offset " + offset);
+                }
+                remaining -= read;
+            }
+        } finally {
+            chunkBufferPool.release(scratch);
+        }
+    }
 
-                    if (isLastChunk) {
-                        TransferSession session = activeSessions.get(transferCode);
-                        if (session != null) {
-                            session.setStatus(TransferStatus.COMPLETED);
+    /**
+     * Sends one file by mapping it in fixed windows and slicing each chunk out of the mapping.
+     * Each chunk is copied from the page cache into a pooled frame buffer behind its header, so the
+     * frame goes out as a single WebSocket message; nothing else sent on the connection can end up
+     * between a header and its payload. A file encrypted in flight is encrypted on that copy, from
+     * the mapping straight into the frame, instead of being read into the frame and then encrypted
+     * in place. Each chunk is hashed from the mapping as it is sent; when resuming, the skipped
+     * prefix is hashed from the file first. With leaf hashes the leaves are instead hashed in
+     * parallel, a little ahead of the send.
+     *
+     * @param startOffset block-aligned offset to start from, non-zero when resuming
+     * @return size of the file, i.e. the offset the file has been sent up to
+     */
+    private long streamFileMapped(String transferCode, int sessionId, int fileIndex, OutgoingFile file,
+            long startOffset, EncryptionService.KeyAndIv transferKey, ChunkSizeController sizer, long sessionSent,
+            long sessionTotal) throws IOException, InterruptedException {
+        IvParameterSpec fileIv = file.isEncrypted() ? encryptionService.deriveFileIv(transferKey.iv(), fileIndex) : null;
+        try (FileChannel channel = FileChannel.open(file.getFile().toPath(), StandardOpenOption.READ);
+                OutgoingHashes hashes = newHashes(transferCode, file)) {
+            long size = channel.size();
+            int chunkIndex = 0;
+            long bytesTransferred = startOffset;
+            if (hashes.streamDigest() != null) {
+                skipTo(new DigestingReadableChannel(channel, hashes), startOffset);
+            }
+
+            for (long windowStart = startOffset; windowStart < size; windowStart += MAP_WINDOW_SIZE) {
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+                        Math.min(MAP_WINDOW_SIZE, size - windowStart));
+                int position = 0;
+                while (position < window.capacity()) {
+                    int length = Math.min(sizer.nextChunkSize(), window.capacity() - position);
+                    boolean isLastChunk = bytesTransferred + length >= size;
+                    ByteBuffer payload = window.slice(position, length);
+                    hashes.advanceTo(bytesTransferred);
+                    hashes.accept(payload.duplicate());
+
+                    ByteBuffer frame = chunkBufferPool.acquire();
+                    try {
+                        if (fileIv != null) {
+                            encryptionService.encryptStreamChunk(transferKey.key(), fileIv, bytesTransferred, payload,
+                                    frame.slice(TransferFrame.HEADER_SIZE, length));
+                        } else {
+                            frame.put(TransferFrame.HEADER_SIZE, payload, 0, length);
                         }
-                        sendTransferComplete(transferCode, true, null);
-                        future.complete(null);
-                        break;
+                        frame.limit(TransferFrame.HEADER_SIZE + length);
+                        byte flags = (byte) ((isLastChunk ? TransferFrame.FLAG_LAST_CHUNK : 0)
+                                | (fileIv != null ? TransferFrame.FLAG_ENCRYPTED : 0));
+                        TransferFrame.writeHeader(frame, 0, sessionId, fileIndex, chunkIndex, bytesTransferred, length,
+                                flags);
+                        sendChunkData(transferCode, frame, chunkIndex);
+                    } finally {
+                        chunkBufferPool.release(frame);
                     }
+                    sendLeafHashes(transferCode, sessionId, fileIndex, chunkIndex, hashes);
 
+                    position += length;
+                    bytesTransferred += length;
+                    sendSessionProgress(transferCode, sessionSent + bytesTransferred, sessionTotal);
                     chunkIndex++;
-                } catch (Exception e) {
-                    logger.error("Error sending chunk {} for transfer code: {}", chunkIndex, transferCode, e);
-                    handleTransferFailure(transferCode, e, future);
+                }
+            }
+            sendDigest(transferCode, sessionId, fileIndex, chunkIndex, file, hashes, transferKey);
+            return bytesTransferred;
+        }
+    }
+
+    /**
+     * Sends one file as a delta against the receiver's old copy, window by window. Each window goes
+     * as a delta frame when that is smaller, and as plain file data otherwise, so a delta never costs
+     * more than sending the file. Delta payloads are encrypted under an IV of their own, as their bytes
+     * do not line up with the file's and must not share its keystream.
+     *
+     * @param startOffset block-aligned offset to start from, non-zero when resuming
+     * @return size of the file, i.e. the offset the file has been sent up to
+     */
+    private long streamFileDelta(String transferCode, int sessionId, int fileIndex, OutgoingFile file,
+            BlockSignatures signatures, long startOffset, EncryptionService.KeyAndIv transferKey,
+            ChunkSizeController sizer, long sessionSent, long sessionTotal) throws IOException, InterruptedException {
+        try (FileChannel channel = FileChannel.open(file.getFile().toPath(), StandardOpenOption.READ);
+                OutgoingHashes hashes = newHashes(transferCode, file)) {
+            long size = file.getSize();
+            DeltaEncoder encoder = new DeltaEncoder(channel, size, signatures, startOffset);
+            boolean searching = true;
+            int chunkIndex = 0;
+            long bytesTransferred = startOffset;
+            long bytesOnWire = 0;
+            while (bytesTransferred < size) {
+                hashes.advanceTo(bytesTransferred);
+                ByteBuffer frame = chunkBufferPool.acquire();
+                try {
+                    int length = (int) Math.min(sizer.nextChunkSize(), size - bytesTransferred);
+                    boolean isLastChunk = bytesTransferred + length >= size;
+                    frame.limit(TransferFrame.HEADER_SIZE + length - 1);
+                    frame.position(TransferFrame.HEADER_SIZE);
+                    boolean delta = searching && encoder.encode(bytesTransferred, length, frame);
+                    if (!delta) {
+                        frame.limit(TransferFrame.HEADER_SIZE + length);
+                        frame.position(TransferFrame.HEADER_SIZE);
+                        while (frame.hasRemaining()) {
+                            if (channel.read(frame, bytesTransferred + frame.position() - TransferFrame.HEADER_SIZE) < 0) {
+                                throw new EOFException(file.getFile().getName() + " shrank while being sent");
+                            }
+                        }
+                    }
+                    int payloadLength = frame.position() - TransferFrame.HEADER_SIZE;
+                    frame.flip();
+                    if (file.isEncrypted()) {
+                        // Delta payloads use the IV of a file index no manifest has
+                        encryptionService.encryptStreamChunk(transferKey.key(),
+                                encryptionService.deriveFileIv(transferKey.iv(), delta ? ~fileIndex : fileIndex),
+                                bytesTransferred, frame.slice(TransferFrame.HEADER_SIZE, payloadLength));
+                    }
+                    byte flags = (byte) ((isLastChunk ? TransferFrame.FLAG_LAST_CHUNK : 0)
+                            | (file.isEncrypted() ? TransferFrame.FLAG_ENCRYPTED : 0)
+                            | (delta ? TransferFrame.FLAG_DELTA : 0));
+                    TransferFrame.writeHeader(frame, 0, sessionId, fileIndex, chunkIndex, bytesTransferred,
+                            payloadLength, flags);
+                    sendChunkData(transferCode, frame, chunkIndex, length);
+                    sendLeafHashes(transferCode, sessionId, fileIndex, chunkIndex, hashes);
+
+                    bytesTransferred += length;
+                    bytesOnWire += payloadLength;
+                    sendSessionProgress(transferCode, sessionSent + bytesTransferred, sessionTotal);
+                    chunkIndex++;
+                } finally {
+                    chunkBufferPool.release(frame);
+                }
+                if (searching && encoder.getCopiedBytes() == 0 && bytesTransferred - startOffset >= DELTA_PROBE_BYTES) {
+                    logger.info("Nothing of {} found in the receiver's copy so far, sending the rest as it is",
+                            file.getFile().getName());
+                    searching = false;
+                }
+            }
+            sendDigest(transferCode, sessionId, fileIndex, chunkIndex, file, hashes, transferKey);
+            logger.info("Sent {} as a delta for transfer code {}: {} of {} bytes on the wire, {} bytes found in the receiver's copy",
+                    file.getFile().getName(), transferCode, bytesOnWire, size - startOffset, encoder.getCopiedBytes());
+            return bytesTransferred;
+        }
+    }
+
+    /**
+     * Records the file's checksum once its last chunk is out and, if the receiver asked for them,
+     * sends it as a digest frame so the receiver can verify without a checksum in the manifest.
+     * Receivers that check leaves get the last leaf hashes first and the Merkle root as the digest.
+     * The digest of an encrypted file carries its tag, which is what lets the receiver trust the file.
+     */
+    private void sendDigest(String transferCode, int sessionId, int fileIndex, int chunkIndex, OutgoingFile file,
+            OutgoingHashes hashes, EncryptionService.KeyAndIv transferKey) throws IOException, InterruptedException {
+        byte[] hash = hashes.finish();
+        file.setChecksum(hashes.checksum(hash));
+        TransferSession session = activeSessions.get(transferCode);
+        if (session == null || !session.isFileDigests()) {
+            return;
+        }
+        sendLeafHashes(transferCode, sessionId, fileIndex, chunkIndex, hashes);
+        boolean tagged = file.isEncrypted() && transferKey != null;
+        byte[] payload = hash;
+        if (tagged) {
+            try {
+                byte[] tag = encryptionService.digestTag(transferKey.key(), fileIndex, hash);
+                payload = ByteBuffer.allocate(hash.length + tag.length).put(hash).put(tag).array();
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Failed to tag the digest of " + file.getFile().getName(), e);
+            }
+        }
+        ByteBuffer frame = chunkBufferPool.acquire();
+        try {
+            frame.put(TransferFrame.HEADER_SIZE, payload);
+            frame.limit(TransferFrame.HEADER_SIZE + payload.length);
+            TransferFrame.writeHeader(frame, 0, sessionId, fileIndex, chunkIndex, file.getSize(), payload.length,
+                    (byte) (TransferFrame.FLAG_DIGEST | (tagged ? TransferFrame.FLAG_ENCRYPTED : 0)));
+            sendChunkData(transferCode, frame, chunkIndex);
+        } finally {
+            chunkBufferPool.release(frame);
+        }
+    }
+
+    /**
+     * Sends the hashes of the leaves completed since the last call, if the receiver checks leaves.
+     * They go right behind the chunk that completed them, so the receiver can check each leaf as
+     * soon as it lands.
+     */
+    private void sendLeafHashes(String transferCode, int sessionId, int fileIndex, int chunkIndex,
+            OutgoingHashes hashes) throws IOException, InterruptedException {
+        while (hashes.leavesSent < hashes.leafCount()) {
+            ByteBuffer frame = chunkBufferPool.acquire();
+            try {
+                int first = hashes.leavesSent;
+                int count = Math.min(hashes.leafCount() - first,
+                        (frame.capacity() - TransferFrame.HEADER_SIZE) / MerkleTree.HASH_SIZE);
+                for (int i = 0; i < count; i++) {
+                    frame.put(TransferFrame.HEADER_SIZE + i * MerkleTree.HASH_SIZE, hashes.leaf(first + i));
+                }
+                frame.limit(TransferFrame.HEADER_SIZE + count * MerkleTree.HASH_SIZE);
+                TransferFrame.writeHeader(frame, 0, sessionId, fileIndex, chunkIndex, (long) first * MerkleTree.LEAF_SIZE,
+                        count * MerkleTree.HASH_SIZE, TransferFrame.FLAG_LEAF_HASHES);
+                sendChunkData(transferCode, frame, chunkIndex);
+                hashes.leavesSent += count;
+            } finally {
+                chunkBufferPool.release(frame);
+            }
+        }
+    }
+
+    /**
+     * Sends the ranges the receiver found corrupt, or that were lost with a stripe, again, until it
+     * has processed everything sent without asking for more.
+     */
+    private void serviceResends(String transferCode, int sessionId, List<OutgoingFile> files,
+            EncryptionService.KeyAndIv transferKey) throws IOException, InterruptedException {
+        int chunkIndex = 0;
+        while (true) {
+            SecureTransferWebSocketServer.ResendRange range = webSocketServer.pollResend(transferCode);
+            if (range == null) {
+                webSocketServer.awaitAcknowledged(transferCode);
+                range = webSocketServer.pollResend(transferCode);
+                if (range == null) {
                     return;
                 }
             }
-        } catch (IOException e) {
-            logger.error("Error reading file for transfer code: {}", transferCode, e);
-            handleTransferFailure(transferCode, e, future);
+            if (range.fileIndex() < 0 || range.fileIndex() >= files.size()) {
+                logger.warn("Ignoring resend request for unknown file {} of transfer code: {}", range.fileIndex(),
+                        transferCode);
+                continue;
+            }
+            chunkIndex = resendRange(transferCode, sessionId, files.get(range.fileIndex()), range, transferKey,
+                    chunkIndex);
+        }
+    }
+
+    /**
+     * Reads one range straight from the file and sends it in chunks, encrypting it at its offset
+     * for files sent encrypted.
+     *
+     * @return the chunk index to continue from
+     */
+    private int resendRange(String transferCode, int sessionId, OutgoingFile file,
+            SecureTransferWebSocketServer.ResendRange range, EncryptionService.KeyAndIv transferKey, int chunkIndex)
+            throws IOException, InterruptedException {
+        if (file.isTransformed() && (!file.isEncrypted() || transferKey == null)) {
+            throw new IOException("Cannot send part of " + file.getFile().getName() + " again");
+        }
+        logger.info("Sending {} bytes at {} of {} again for transfer code: {}", range.length(), range.offset(),
+                file.getFile().getName(), transferCode);
+        try (FileChannel channel = FileChannel.open(file.getFile().toPath(), StandardOpenOption.READ)) {
+            long offset = range.offset();
+            long end = Math.min(range.offset() + range.length(), file.getSize());
+            while (offset < end) {
+                ByteBuffer frame = chunkBufferPool.acquire();
+                try {
+                    int length = (int) Math.min(frame.capacity() - TransferFrame.HEADER_SIZE, end - offset);
+                    frame.limit(TransferFrame.HEADER_SIZE + length);
+                    frame.position(TransferFrame.HEADER_SIZE);
+                    while (frame.hasRemaining()) {
+                        if (channel.read(frame, offset + frame.position() - TransferFrame.HEADER_SIZE) < 0) {
+                            throw new EOFException(file.getFile().getName() + " shrank while being sent");
+                        }
+                    }
+                    frame.flip();
+                    if (file.isEncrypted()) {
+                        encryptionService.encryptStreamChunk(transferKey.key(),
+                                encryptionService.deriveFileIv(transferKey.iv(), range.fileIndex()), offset,
+                                frame.slice(TransferFrame.HEADER_SIZE, length));
+                    }
+                    TransferFrame.writeHeader(frame, 0, sessionId, range.fileIndex(), chunkIndex, offset, length,
+                            file.isEncrypted() ? TransferFrame.FLAG_ENCRYPTED : 0);
+                    sendChunkData(transferCode, frame, chunkIndex++);
+                    offset += length;
+                } finally {
+                    chunkBufferPool.release(frame);
+                }
+            }
         }
+        return chunkIndex;
+    }
+
+    private OutgoingHashes newHashes(String transferCode, OutgoingFile file) throws IOException {
+        TransferSession session = activeSessions.get(transferCode);
+        HashAlgorithm algorithm = session != null ? session.getLeafHashAlgorithm() : null;
+        if (algorithm == null) {
+            return new OutgoingHashes(null, null);
+        }
+        // Plain and encrypted files arrive as the file's own bytes, so their leaves can be hashed from the file
+        if (!file.isTransformed() || file.isEncrypted()) {
+            return new OutgoingHashes(null, new ParallelLeafHasher(file.getFile().toPath(), file.getSize(),
+                    MerkleTree.LEAF_SIZE, algorithm, transformExecutor, leafLookahead));
+        }
+        return new OutgoingHashes(new MerkleTree(MerkleTree.LEAF_SIZE, algorithm), null);
+    }
+
+    /**
+     * What the sender works out about a file while sending it: the SHA-256 of the bytes the receiver
+     * stores or, for receivers that check leaves, the Merkle tree over them. The tree is hashed in
+     * parallel from the file where the receiver stores the file's own bytes, and from the stream of
+     * bytes sent otherwise.
+     */
+    private static final class OutgoingHashes implements Consumer<ByteBuffer>, AutoCloseable {
+        private final MessageDigest digest;
+        private final MerkleTree tree;
+        private final ParallelLeafHasher hasher;
+        int leavesSent;
+
+        OutgoingHashes(MerkleTree tree, ParallelLeafHasher hasher) {
+            this.tree = tree;
+            this.hasher = hasher;
+            if (tree == null && hasher == null) {
+                try {
+                    digest = MessageDigest.getInstance("SHA-256");
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IllegalStateException("SHA-256 unavailable", e);
+                }
+            } else {
+                digest = null;
+            }
+        }
+
+        /**
+         * Returns this to feed with the bytes as they are read, or null if they are hashed from the file.
+         */
+        Consumer<ByteBuffer> streamDigest() {
+            return hasher == null ? this : null;
+        }
+
+        @Override
+        public void accept(ByteBuffer bytes) {
+            if (tree != null) {
+                tree.update(bytes);
+            } else if (digest != null) {
+                digest.update(bytes);
+            }
+        }
+
+        /**
+         * Lets the parallel hasher run ahead of {@code offset}, the position sent up to.
+         */
+        void advanceTo(long offset) {
+            if (hasher != null) {
+                hasher.advanceTo(offset);
+            }
+        }
+
+        /**
+         * Number of leading leaf hashes ready to send, none without leaf hashes.
+         */
+        int leafCount() {
+            return tree != null ? tree.leafCount() : hasher != null ? hasher.leafCount() : 0;
+        }
+
+        byte[] leaf(int index) throws IOException {
+            return tree != null ? tree.leaf(index) : hasher.leaf(index);
+        }
+
+        /**
+         * Returns the SHA-256 of the file, or the root of its tree with leaf hashes.
+         */
+        byte[] finish() throws IOException {
+            return tree != null ? tree.root() : hasher != null ? hasher.root() : digest.digest();
+        }
+
+        String checksum(byte[] hash) {
+            if (tree != null) {
+                return tree.getAlgorithm().treeChecksum(hash);
+            }
+            return hasher != null ? hasher.getAlgorithm().treeChecksum(hash) : HexFormat.of().formatHex(hash);
+        }
+
+        @Override
+        public void close() {
+            if (hasher != null) {
+                try {
+                    hasher.close();
+                } catch (IOException e) {
+                    logger.debug("Failed to close leaf hasher: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void sendSessionProgress(String transferCode, long sessionSent, long sessionTotal) {
+        // Chunks leave far more often than the UI can use updates, so publish at most every interval and at the end
+        long now = System.nanoTime();
+        Long last = lastProgressSent.get(transferCode);
+        if (sessionSent < sessionTotal && last != null && now - last < PROGRESS_INTERVAL_NANOS) {
+            return;
+        }
+        lastProgressSent.put(transferCode, now);
+        sendProgress(transferCode, sessionTotal > 0 ? (double) sessionSent / sessionTotal : 1.0, sessionSent);
+    }
+
+    private void logSendStats(String transferCode, long bytesSent, long startNanos, long startAllocated,
+            ChunkSizeController sizer) {
+        long elapsedMs = Math.max(1, (System.nanoTime() - startNanos) / 1_000_000);
+        long allocated = startAllocated >= 0 ? currentThreadAllocatedBytes() - startAllocated : -1;
+        logger.info("Sent {} bytes for transfer code {} in {} ms ({} MB/s), send thread allocated {} bytes ({} bytes/MB sent)",
+                bytesSent, transferCode, elapsedMs, String.format("%.1f", bytesSent / 1048.576 / elapsedMs),
+                allocated, bytesSent > 0 && allocated >= 0 ? allocated * 1_048_576 / bytesSent : 0);
+        logger.info("Chunk sizes for transfer code {}: {} (final {}K)", transferCode, sizer.describeSizes(),
+                sizer.getCurrentSize() / 1024);
+    }
+
+    // Per-thread allocation counter from the HotSpot MXBean, or -1 when the JVM does not provide one
+    private static long currentThreadAllocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean hotspot && hotspot.isThreadAllocatedMemoryEnabled()) {
+            return hotspot.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
     }
 
     private void handleTransferFailure(String transferCode, Exception e, CompletableFuture<Void> future) {
@@ -226,6 +1022,8 @@ public class WebSocketServiceImpl implements WebSocketService {
         if (session != null) {
             session.setStatus(TransferStatus.FAILED);
         }
+        // Keep what the receiver acknowledged so a reconnect with the same code can resume
+        webSocketServer.saveCheckpoints(transferCode);
         sendTransferComplete(transferCode, false, e.getMessage());
         future.completeExceptionally(e);
     }
@@ -233,45 +1031,35 @@ public class WebSocketServiceImpl implements WebSocketService {
     private void sendFileInChunks(String transferCode, byte[] fileData, String fileName, long fileSize,
             CompletableFuture<Void> future) {
         try {
-            int totalChunks = (int) Math.ceil((double) fileData.length / CHUNK_SIZE);
+            int totalChunks = Math.max(1, (int) Math.ceil((double) fileData.length / maxChunkSize));
+            int sessionId = TransferFrame.sessionIdFor(transferCode);
             AtomicReference<Integer> completedChunks = new AtomicReference<>(0);
 
             // Send chunks sequentially to ensure proper order
             for (int i = 0; i < totalChunks; i++) {
                 final int chunkIndex = i;
-                int start = i * CHUNK_SIZE;
-                int end = Math.min(start + CHUNK_SIZE, fileData.length);
-                byte[] chunk;
-
-                // Add EOF marker to the last chunk
-                if (i == totalChunks - 1) {
-                    // This is the last chunk - add EOF marker
-                    byte[] eofMarker = "EOF_MARK".getBytes();
-                    chunk = new byte[end - start + eofMarker.length];
-                    System.arraycopy(fileData, start, chunk, 0, end - start);
-                    System.arraycopy(eofMarker, 0, chunk, end - start, eofMarker.length);
-                    logger.info("Added EOF marker to final chunk {} for transfer code: {}", chunkIndex, transferCode);
-                } else {
-                    // Regular chunk
-                    chunk = new byte[end - start];
-                    System.arraycopy(fileData, start, chunk, 0, chunk.length);
-                }
+                int start = i * maxChunkSize;
+                int end = Math.min(start + maxChunkSize, fileData.length);
+                boolean isLastChunk = i == totalChunks - 1;
+
+                ByteBuffer frame = chunkBufferPool.acquire();
+                frame.put(TransferFrame.HEADER_SIZE, fileData, start, end - start);
+                frame.limit(TransferFrame.HEADER_SIZE + end - start);
+                TransferFrame.writeHeader(frame, 0, sessionId, 0, chunkIndex, start, end - start,
+                        isLastChunk ? TransferFrame.FLAG_LAST_CHUNK : 0);
 
                 try {
                     // Send chunk data through WebSocket connection
-                    sendChunkData(transferCode, chunk, chunkIndex, totalChunks);
+                    sendChunkData(transferCode, frame, chunkIndex);
 
                     // Update progress
                     int completed = completedChunks.get() + 1;
                     completedChunks.set(completed);
                     double progress = (double) completed / totalChunks;
-                    long bytesTransferred = Math.min(completed * CHUNK_SIZE, fileData.length);
+                    long bytesTransferred = Math.min((long) completed * maxChunkSize, fileData.length);
 
                     sendProgress(transferCode, progress, bytesTransferred);
 
-                    // Small delay to prevent overwhelming the receiver
-                    Thread.sleep(10);
-
                     // Check if all chunks completed
                     if (completed == totalChunks) {
                         TransferSession session = activeSessions.get(transferCode);
@@ -291,6 +1079,8 @@ public class WebSocketServiceImpl implements WebSocketService {
                     sendTransferComplete(transferCode, false, e.getMessage());
                     future.completeExceptionally(e);
                     break;
+                } finally {
+                    chunkBufferPool.release(frame);
                 }
             }
 
@@ -300,15 +1090,25 @@ public class WebSocketServiceImpl implements WebSocketService {
         }
     }
 
-    private void sendChunkData(String transferCode, byte[] chunkData, int chunkIndex, int totalChunks) {
-        logger.debug("Sending chunk {}/{} for transfer code: {} ({} bytes)",
-                chunkIndex + 1, totalChunks, transferCode, chunkData.length);
+    private void sendChunkData(String transferCode, ByteBuffer frame, int chunkIndex)
+            throws IOException, InterruptedException {
+        sendChunkData(transferCode, frame, chunkIndex, TransferFrame.payloadLength(frame));
+    }
+
+    /**
+     * @param dataLength length of file data the frame stands for, larger than its payload for a delta
+     */
+    private void sendChunkData(String transferCode, ByteBuffer frame, int chunkIndex, int dataLength)
+            throws IOException, InterruptedException {
+        logger.debug("Sending chunk {} for transfer code: {} ({} bytes)",
+                chunkIndex + 1, transferCode, frame.remaining());
 
         // Use the real WebSocket server to send the chunk
         TransferSession session = activeSessions.get(transferCode);
         if (session != null && session.getStatus() == TransferStatus.TRANSFERRING) {
-            // Send through WebSocket server
-            webSocketServer.sendFileChunk(transferCode, chunkData);
+            // Waits for receiver credit so a slow disk on the other end is never flooded,
+            // then sends on whichever receiver connection this chunk is striped to
+            webSocketServer.sendFrame(transferCode, chunkIndex, frame, dataLength);
             logger.debug("Real WebSocket chunk sent: {} for transfer {}", chunkIndex, transferCode);
         }
     }
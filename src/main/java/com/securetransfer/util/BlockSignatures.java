@@ -0,0 +1,191 @@
+package com.securetransfer.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Signatures of the fixed-size blocks of a file the receiver already has, as in rsync: a rolling
+ * checksum that can be slid along the new file one byte at a time, and a strong hash to confirm a
+ * block once the rolling checksum matches. The sender looks its file up block by block against
+ * them and only sends what it does not find. Lookups are not thread-safe.
+ */
+public final class BlockSignatures {
+
+    /** Bytes of the negotiated hash kept per block. */
+    public static final int STRONG_SIZE = 16;
+
+    private static final int MIN_BLOCK_SIZE = 2 * 1024;
+    private static final int MAX_BLOCKS = 64 * 1024;
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+    private final int blockSize;
+    private final int[] weak;
+    private final byte[] strong;
+    private final MessageDigest digest;
+    private final long[] filter;
+    private final int[] heads;
+    private final int[] next;
+    private final byte[] candidate = new byte[STRONG_SIZE];
+
+    private BlockSignatures(int blockSize, int[] weak, byte[] strong, HashAlgorithm algorithm) {
+        this.blockSize = blockSize;
+        this.weak = weak;
+        this.strong = strong;
+        this.digest = algorithm.newDigest();
+        // A bitmap small enough for the L1 cache turns most misses away before the hash table is read
+        this.filter = new long[Math.max(1, Integer.highestOneBit(Math.max(1, weak.length)) / 8)];
+        // Chained hash table on the rolling checksum
+        this.heads = new int[Integer.highestOneBit(Math.max(1, weak.length)) * 2];
+        this.next = new int[weak.length];
+        Arrays.fill(heads, -1);
+        for (int block = weak.length - 1; block >= 0; block--) {
+            int bucket = bucket(weak[block]);
+            next[block] = heads[bucket];
+            heads[bucket] = block;
+            filter[filterBit(weak[block]) >>> 6] |= 1L << filterBit(weak[block]);
+        }
+    }
+
+    /**
+     * Block size for a file of the given size: about its square root, so the signatures and the
+     * literal data around each change grow alike, with the block count bounded.
+     */
+    public static int blockSizeFor(long fileSize) {
+        int blockSize = Math.max(MIN_BLOCK_SIZE, Integer.highestOneBit((int) Math.min(Integer.MAX_VALUE,
+                (long) Math.sqrt((double) fileSize))));
+        while (fileSize / blockSize > MAX_BLOCKS) {
+            blockSize *= 2;
+        }
+        return blockSize;
+    }
+
+    /**
+     * Reads the file once and signs each whole block; a shorter tail is left out, as it can only
+     * match at the very end of the new file and is cheaper to send.
+     */
+    public static BlockSignatures compute(Path file, HashAlgorithm algorithm) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int blockSize = blockSizeFor(size);
+            int count = (int) (size / blockSize);
+            int[] weak = new int[count];
+            byte[] strong = new byte[count * STRONG_SIZE];
+            MessageDigest digest = algorithm.newDigest();
+            ByteBuffer buffer = ByteBuffer.allocate(Math.max(blockSize, READ_BUFFER_SIZE / blockSize * blockSize));
+            int block = 0;
+            while (block < count) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), (long) (count - block) * blockSize));
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer) < 0) {
+                        throw new IOException(file + " shrank while being signed");
+                    }
+                }
+                for (int offset = 0; offset < buffer.limit(); offset += blockSize, block++) {
+                    weak[block] = rollingChecksum(buffer.array(), offset, blockSize);
+                    digest.update(buffer.array(), offset, blockSize);
+                    System.arraycopy(digest.digest(), 0, strong, block * STRONG_SIZE, STRONG_SIZE);
+                }
+            }
+            return new BlockSignatures(blockSize, weak, strong, algorithm);
+        }
+    }
+
+    /**
+     * Reads signatures sent by {@link #toByteArray}, to be checked with the same hash algorithm.
+     */
+    public static BlockSignatures fromByteArray(byte[] bytes, HashAlgorithm algorithm) {
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        int blockSize = in.getInt();
+        int count = in.getInt();
+        if (blockSize < MIN_BLOCK_SIZE || count < 0 || in.remaining() != (long) count * (4 + STRONG_SIZE)) {
+            throw new IllegalArgumentException("Malformed block signatures");
+        }
+        int[] weak = new int[count];
+        in.asIntBuffer().get(weak);
+        in.position(in.position() + count * 4);
+        byte[] strong = new byte[count * STRONG_SIZE];
+        in.get(strong);
+        return new BlockSignatures(blockSize, weak, strong, algorithm);
+    }
+
+    public byte[] toByteArray() {
+        ByteBuffer out = ByteBuffer.allocate(8 + weak.length * (4 + STRONG_SIZE));
+        out.putInt(blockSize).putInt(weak.length);
+        out.asIntBuffer().put(weak);
+        out.position(out.position() + weak.length * 4);
+        out.put(strong);
+        return out.array();
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public int getBlockCount() {
+        return weak.length;
+    }
+
+    /**
+     * Returns the block whose content is {@code data[offset, offset + blockSize)}, or -1. The strong
+     * hash of the data is only computed when the rolling checksum {@code checksum} matches a block.
+     */
+    public int find(int checksum, byte[] data, int offset) {
+        int bit = filterBit(checksum);
+        if ((filter[bit >>> 6] & (1L << bit)) == 0) {
+            return -1;
+        }
+        boolean hashed = false;
+        for (int block = heads[bucket(checksum)]; block >= 0; block = next[block]) {
+            if (weak[block] != checksum) {
+                continue;
+            }
+            if (!hashed) {
+                digest.update(data, offset, blockSize);
+                System.arraycopy(digest.digest(), 0, candidate, 0, STRONG_SIZE);
+                hashed = true;
+            }
+            if (Arrays.equals(strong, block * STRONG_SIZE, (block + 1) * STRONG_SIZE, candidate, 0, STRONG_SIZE)) {
+                return block;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The rsync rolling checksum of {@code data[offset, offset + length)}: the byte sum in the low
+     * half and the sum of the running sums in the high half.
+     */
+    public static int rollingChecksum(byte[] data, int offset, int length) {
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < length; i++) {
+            a += data[offset + i] & 0xFF;
+            b += a;
+        }
+        return (a & 0xFFFF) | (b << 16);
+    }
+
+    /**
+     * Moves a window's rolling checksum one byte on: {@code out} leaves at the front and {@code in}
+     * joins at the back.
+     */
+    public static int roll(int checksum, byte out, byte in, int length) {
+        int a = (checksum - (out & 0xFF) + (in & 0xFF)) & 0xFFFF;
+        int b = ((checksum >>> 16) - length * (out & 0xFF) + a) & 0xFFFF;
+        return a | (b << 16);
+    }
+
+    private int filterBit(int checksum) {
+        return (checksum ^ (checksum >>> 13) ^ (checksum >>> 22)) & (filter.length * 64 - 1);
+    }
+
+    private int bucket(int checksum) {
+        return (checksum ^ (checksum >>> 15)) & (heads.length - 1);
+    }
+}
@@ -0,0 +1,102 @@
+package com.securetransfer.util;
+
+import java.util.BitSet;
+
+/**
+ * Tracks which parts of a file have been written (receiver) or acknowledged (sender).
+ * The file is divided into fixed {@link #BLOCK_SIZE} blocks and a block only counts once a
+ * chunk has covered all of it, so the first clear bit is always a safe point to resume from.
+ * Chunk sizes are multiples of the block size, which keeps the bitmap exact in practice.
+ */
+public class ChunkBitmap {
+
+    public static final int BLOCK_SIZE = 64 * 1024;
+
+    private final BitSet blocks;
+    private long fileSize = -1;
+
+    public ChunkBitmap() {
+        this.blocks = new BitSet();
+    }
+
+    private ChunkBitmap(BitSet blocks) {
+        this.blocks = blocks;
+    }
+
+    public static ChunkBitmap fromByteArray(byte[] bytes) {
+        return new ChunkBitmap(bytes != null ? BitSet.valueOf(bytes) : new BitSet());
+    }
+
+    public synchronized byte[] toByteArray() {
+        return blocks.toByteArray();
+    }
+
+    /**
+     * Sets the total file size, which lets the trailing partial block be marked.
+     */
+    public synchronized void setFileSize(long fileSize) {
+        this.fileSize = fileSize;
+    }
+
+    /**
+     * Marks every block fully covered by {@code [offset, offset + length)}.
+     */
+    public synchronized void mark(long offset, long length) {
+        long end = offset + length;
+        int first = (int) ((offset + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        int last = (int) (end / BLOCK_SIZE);
+        if (fileSize >= 0 && end >= fileSize && fileSize % BLOCK_SIZE != 0) {
+            // The range reaches the end of the file, so the short final block is covered too
+            last = blockCount(fileSize);
+        }
+        if (last > first) {
+            blocks.set(first, last);
+        }
+    }
+
+    /**
+     * Unmarks every block touched by {@code [offset, offset + length)}, so the range counts as
+     * missing again. Used when data on disk failed verification.
+     */
+    public synchronized void clear(long offset, long length) {
+        if (length > 0) {
+            blocks.clear((int) (offset / BLOCK_SIZE), blockCount(offset + length));
+        }
+    }
+
+    /**
+     * Returns true if every block touched by {@code [offset, offset + length)} is marked.
+     */
+    public synchronized boolean contains(long offset, long length) {
+        int first = (int) (offset / BLOCK_SIZE);
+        int end = blockCount(offset + length);
+        return blocks.nextClearBit(first) >= end;
+    }
+
+    /**
+     * Returns the byte offset of the first block not yet marked.
+     */
+    public synchronized long firstMissingOffset() {
+        long offset = (long) blocks.nextClearBit(0) * BLOCK_SIZE;
+        return fileSize >= 0 ? Math.min(offset, fileSize) : offset;
+    }
+
+    /**
+     * Returns true once every block of a file of the given size is marked.
+     */
+    public synchronized boolean isComplete(long size) {
+        return blocks.nextClearBit(0) >= blockCount(size);
+    }
+
+    /**
+     * Returns the number of bytes covered by marked blocks.
+     */
+    public synchronized long coveredBytes() {
+        long covered = (long) blocks.cardinality() * BLOCK_SIZE;
+        return fileSize >= 0 ? Math.min(covered, fileSize) : covered;
+    }
+
+    private static int blockCount(long size) {
+        return (int) ((size + BLOCK_SIZE - 1) / BLOCK_SIZE);
+    }
+}
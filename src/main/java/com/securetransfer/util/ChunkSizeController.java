@@ -0,0 +1,148 @@
+package com.securetransfer.util;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Picks the chunk size for one transfer session from how quickly chunks are acknowledged.
+ * Sessions start at the minimum size so the first bytes show up quickly. Each evaluation
+ * interval the size doubles while that still raises acknowledged throughput, and halves when
+ * acknowledgements get slower than they were at the same size without a throughput gain
+ * (building latency on the path) or become erratic (retransmissions on a lossy path).
+ * RTT baselines are per size, since larger chunks naturally take longer to acknowledge.
+ *
+ * Sizes stay multiples of {@link ChunkBitmap#BLOCK_SIZE}, so chunk offsets remain block aligned.
+ */
+public class ChunkSizeController {
+
+    private static final long EVALUATION_INTERVAL_NANOS = 250_000_000L;
+    private static final double GAIN_THRESHOLD = 1.05;
+    private static final double LATENCY_INFLATION = 2.0;
+
+    private final int minSize;
+    private final int maxSize;
+    private final Map<Long, Long> sentAt = new ConcurrentHashMap<>();
+    private final Map<Integer, Long> chunksBySize = new TreeMap<>();
+
+    private int current;
+    private double smoothedRtt;
+    private double rttVariance;
+    private double minRtt = Double.MAX_VALUE;
+    private long ackedBytes;
+    private long evaluationStart = System.nanoTime();
+    private double lastThroughput;
+
+    public ChunkSizeController(int minSize, int maxSize) {
+        this.minSize = Math.max(ChunkBitmap.BLOCK_SIZE, roundToBlock(minSize));
+        this.maxSize = Math.max(this.minSize, roundToBlock(maxSize));
+        this.current = this.minSize;
+    }
+
+    /**
+     * Returns the size for the next chunk and counts it in the session's statistics.
+     */
+    public synchronized int nextChunkSize() {
+        chunksBySize.merge(current, 1L, Long::sum);
+        return current;
+    }
+
+    /**
+     * Records when a chunk went on the wire.
+     */
+    public void onSent(int fileIndex, long offset) {
+        sentAt.put(key(fileIndex, offset), System.nanoTime());
+    }
+
+    /**
+     * Records the receiver's acknowledgement of a chunk and adapts the size when due.
+     */
+    public synchronized void onAcknowledged(int fileIndex, long offset, long length) {
+        Long sent = sentAt.remove(key(fileIndex, offset));
+        if (sent == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        double rtt = now - sent;
+        // Smoothed RTT and mean deviation as in TCP's retransmission timer
+        if (smoothedRtt == 0) {
+            smoothedRtt = rtt;
+            rttVariance = rtt / 2;
+        } else {
+            rttVariance = 0.75 * rttVariance + 0.25 * Math.abs(smoothedRtt - rtt);
+            smoothedRtt = 0.875 * smoothedRtt + 0.125 * rtt;
+        }
+        minRtt = Math.min(minRtt, rtt);
+        ackedBytes += length;
+
+        long elapsed = now - evaluationStart;
+        if (elapsed >= EVALUATION_INTERVAL_NANOS) {
+            adapt(ackedBytes * 1e9 / elapsed);
+            ackedBytes = 0;
+            evaluationStart = now;
+        }
+    }
+
+    /**
+     * Stops timing the chunks of a file that were sent but never acknowledged.
+     */
+    public void forgetFile(int fileIndex) {
+        sentAt.keySet().removeIf(key -> (int) (key >>> 48) == fileIndex);
+    }
+
+    public void forgetAll() {
+        sentAt.clear();
+    }
+
+    /**
+     * The largest chunk this controller can hand out; buffers for its chunks need this much room.
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized int getCurrentSize() {
+        return current;
+    }
+
+    /**
+     * Summarises the chunk sizes used so far, e.g. {@code "64K x12, 128K x30, 1024K x900"}.
+     */
+    public synchronized String describeSizes() {
+        StringBuilder summary = new StringBuilder();
+        chunksBySize.forEach((size, count) -> {
+            if (summary.length() > 0) {
+                summary.append(", ");
+            }
+            summary.append(size / 1024).append("K x").append(count);
+        });
+        return summary.toString();
+    }
+
+    private void adapt(double throughput) {
+        boolean erratic = rttVariance > smoothedRtt / 2;
+        boolean gained = throughput > lastThroughput * GAIN_THRESHOLD;
+        boolean inflated = smoothedRtt > minRtt * LATENCY_INFLATION;
+        int previous = current;
+        if (erratic || (inflated && !gained)) {
+            current = Math.max(minSize, roundToBlock(current / 2));
+        } else if (gained) {
+            current = Math.min(maxSize, current * 2);
+        }
+        if (current != previous) {
+            // Start a fresh RTT baseline for the new size
+            smoothedRtt = 0;
+            rttVariance = 0;
+            minRtt = Double.MAX_VALUE;
+        }
+        lastThroughput = throughput;
+    }
+
+    private static int roundToBlock(int size) {
+        return size / ChunkBitmap.BLOCK_SIZE * ChunkBitmap.BLOCK_SIZE;
+    }
+
+    private static long key(int fileIndex, long offset) {
+        return ((long) fileIndex << 48) | offset;
+    }
+}
@@ -0,0 +1,110 @@
+package com.securetransfer.util;
+
+import javax.crypto.Cipher;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.security.GeneralSecurityException;
+
+/**
+ * Reads a source channel through an initialised {@link Cipher}, so callers see the transformed
+ * bytes as a plain channel. Output is produced a buffer at a time on demand, so a file can be
+ * encrypted straight into outgoing frames without an intermediate copy on disk.
+ * A read returns at least one byte unless the stream has ended.
+ */
+public class CipherReadableChannel implements ReadableByteChannel {
+
+    private final ReadableByteChannel source;
+    private final Cipher cipher;
+    private final ByteBuffer input;
+    private final ByteBuffer output;
+    private final Runnable onClose;
+    private boolean sourceDone;
+    private boolean finished;
+    private boolean open = true;
+
+    public CipherReadableChannel(ReadableByteChannel source, Cipher cipher, int bufferSize) {
+        // Room for a full input buffer plus whatever the cipher holds back and the final padding
+        this(source, cipher, ByteBuffer.allocateDirect(bufferSize),
+                ByteBuffer.allocateDirect(cipher.getOutputSize(bufferSize)), null);
+    }
+
+    /**
+     * Uses caller-provided buffers, handed back through {@code onClose} when the channel is closed.
+     */
+    CipherReadableChannel(ReadableByteChannel source, Cipher cipher, ByteBuffer input, ByteBuffer output,
+            Runnable onClose) {
+        if (output.capacity() < cipher.getOutputSize(input.capacity())) {
+            throw new IllegalArgumentException("Output buffer too small for the cipher");
+        }
+        this.source = source;
+        this.cipher = cipher;
+        this.input = input;
+        this.output = output;
+        this.onClose = onClose;
+        this.output.clear().flip();
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        int written = 0;
+        while (dst.hasRemaining()) {
+            if (output.hasRemaining()) {
+                int length = Math.min(output.remaining(), dst.remaining());
+                dst.put(output.slice(output.position(), length));
+                output.position(output.position() + length);
+                written += length;
+            } else if (finished) {
+                break;
+            } else {
+                fill();
+            }
+        }
+        return written == 0 && finished && !output.hasRemaining() ? -1 : written;
+    }
+
+    private void fill() throws IOException {
+        output.clear();
+        try {
+            if (!sourceDone) {
+                input.clear();
+                sourceDone = source.read(input) < 0;
+                input.flip();
+            }
+            if (sourceDone) {
+                cipher.doFinal(input, output);
+                finished = true;
+            } else {
+                cipher.update(input, output);
+            }
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Cipher failed: " + e.getMessage(), e);
+        } finally {
+            output.flip();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!open) {
+            return;
+        }
+        open = false;
+        try {
+            source.close();
+        } finally {
+            if (onClose != null) {
+                onClose.run();
+            }
+        }
+    }
+}
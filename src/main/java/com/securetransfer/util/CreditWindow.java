@@ -0,0 +1,113 @@
+package com.securetransfer.util;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Send window for credit-based flow control on a transfer connection.
+ * The sender takes one credit per frame and the receiver hands credits back as it drains
+ * frames to disk, so at most {@code maxFrames} frames and roughly {@code maxBytes} bytes
+ * are ever queued between the two ends.
+ */
+public class CreditWindow {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final long maxBytes;
+    private int credits;
+    private long bytesInFlight;
+    private boolean closed;
+
+    public CreditWindow(int maxFrames, long maxBytes) {
+        this.credits = maxFrames;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Blocks until a frame of the given size may be sent, then takes a credit for it.
+     * A frame is always allowed when nothing is in flight, so frames larger than the byte
+     * limit cannot stall the window.
+     *
+     * @throws IOException if the window was closed or no credit arrived within the timeout
+     */
+    public void acquire(int frameBytes, long timeoutMs) throws IOException, InterruptedException {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        lock.lock();
+        try {
+            while (!closed && (credits <= 0 || (bytesInFlight > 0 && bytesInFlight + frameBytes > maxBytes))) {
+                if (remaining <= 0) {
+                    throw new IOException("Receiver stopped granting credits (" + bytesInFlight + " bytes in flight)");
+                }
+                remaining = available.awaitNanos(remaining);
+            }
+            if (closed) {
+                throw new IOException("Transfer connection closed");
+            }
+            credits--;
+            bytesInFlight += frameBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns credits reported by the receiver for frames it has written out.
+     */
+    public void grant(int frames, long bytes) {
+        lock.lock();
+        try {
+            credits += frames;
+            bytesInFlight = Math.max(0, bytesInFlight - bytes);
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until the receiver has handed back credit for every frame sent so far.
+     *
+     * @throws IOException if the window was closed or the credit did not arrive within the timeout
+     */
+    public void awaitDrained(long timeoutMs) throws IOException, InterruptedException {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        lock.lock();
+        try {
+            while (!closed && bytesInFlight > 0) {
+                if (remaining <= 0) {
+                    throw new IOException("Receiver stopped granting credits (" + bytesInFlight + " bytes in flight)");
+                }
+                remaining = available.awaitNanos(remaining);
+            }
+            if (closed) {
+                throw new IOException("Transfer connection closed");
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wakes any waiting sender with an error. Used when the receiver disconnects.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getBytesInFlight() {
+        lock.lock();
+        try {
+            return bytesInFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.securetransfer.util;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.Provider;
+import java.security.Security;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Measures how fast each installed security provider runs the ciphers this application can use
+ * on this machine. Providers differ a lot by CPU: the JDK's AES uses AES-NI intrinsics where present,
+ * while a pure-Java implementation may win for ChaCha20 on CPUs without them. The leaf hashes are
+ * measured too, since SHA-256 with the CPU's SHA extensions can beat a pure-Java BLAKE3 many times
+ * over, and BLAKE3 wins without them.
+ */
+public final class CryptoCalibration {
+
+    public static final String AES_CBC = "AES/CBC/PKCS5Padding";
+    /** What files are encrypted with while they are sent. */
+    public static final String AES_CTR = "AES/CTR/NoPadding";
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    // Measured in short windows until the JIT has settled: two windows in a row within 10%
+    private static final long WINDOW_NANOS = 100_000_000L;
+    private static final int MIN_WINDOWS = 3;
+    private static final int MAX_WINDOWS = 20;
+    private static final double SETTLED_RATIO = 0.9;
+
+    private final List<Measurement> measurements;
+    private final List<HashMeasurement> hashMeasurements;
+
+    private CryptoCalibration(List<Measurement> measurements, List<HashMeasurement> hashMeasurements) {
+        this.measurements = measurements;
+        this.hashMeasurements = hashMeasurements;
+    }
+
+    /**
+     * One transformation on one provider, in MB of plaintext encrypted per second.
+     */
+    public record Measurement(String transformation, Provider provider, double megabytesPerSecond) {
+    }
+
+    /**
+     * One leaf hash on one core, in MB hashed per second.
+     */
+    public record HashMeasurement(HashAlgorithm algorithm, double megabytesPerSecond) {
+    }
+
+    // Runs one window of work on a buffer of BUFFER_SIZE bytes, returning how many buffers it got through
+    @FunctionalInterface
+    private interface Window {
+        long run(long durationNanos) throws GeneralSecurityException;
+    }
+
+    /**
+     * Benchmarks AES-CBC, AES-CTR and the authenticated algorithms of {@link SegmentedCipher} on every
+     * provider that offers them, then each {@link HashAlgorithm}. Each runs until its throughput
+     * stops climbing, up to two seconds, so run it off the startup path.
+     */
+    public static CryptoCalibration run() {
+        // Usually registered already by KeystoreManager, but that runs concurrently at startup
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+        List<Measurement> measurements = new ArrayList<>();
+        for (Provider provider : Security.getProviders()) {
+            measure(AES_CBC, "AES", nonce -> new IvParameterSpec(Arrays.copyOf(nonce, 16)), provider)
+                    .ifPresent(measurements::add);
+            measure(AES_CTR, "AES", nonce -> new IvParameterSpec(Arrays.copyOf(nonce, 16)), provider)
+                    .ifPresent(measurements::add);
+            for (SegmentedCipher.Algorithm algorithm : SegmentedCipher.Algorithm.values()) {
+                measure(algorithm.transformation(), algorithm.keyAlgorithm(), algorithm::parameters, provider)
+                        .ifPresent(measurements::add);
+            }
+        }
+        measurements.sort(Comparator.comparingDouble(Measurement::megabytesPerSecond).reversed());
+        List<HashMeasurement> hashMeasurements = new ArrayList<>();
+        for (HashAlgorithm algorithm : HashAlgorithm.values()) {
+            measureHash(algorithm).ifPresent(hashMeasurements::add);
+        }
+        hashMeasurements.sort(Comparator.comparingDouble(HashMeasurement::megabytesPerSecond).reversed());
+        return new CryptoCalibration(measurements, hashMeasurements);
+    }
+
+    /**
+     * Returns the fastest provider for {@code transformation}, or null to use the default one.
+     */
+    public Provider fastestProvider(String transformation) {
+        return measurements.stream()
+                .filter(measurement -> measurement.transformation().equals(transformation))
+                .findFirst()
+                .map(Measurement::provider)
+                .orElse(null);
+    }
+
+    /**
+     * Returns the authenticated algorithm with the best throughput here. Only the segmented file
+     * format of {@link SegmentedCipher} uses it; transfers are encrypted with {@link #AES_CTR}.
+     */
+    public SegmentedCipher.Algorithm fastestAuthenticated() {
+        for (Measurement measurement : measurements) {
+            for (SegmentedCipher.Algorithm algorithm : SegmentedCipher.Algorithm.values()) {
+                if (algorithm.transformation().equals(measurement.transformation())) {
+                    return algorithm;
+                }
+            }
+        }
+        return SegmentedCipher.Algorithm.AES_GCM;
+    }
+
+    /**
+     * Returns every leaf hash, fastest first. Hashes that could not be measured come last.
+     */
+    public List<HashAlgorithm> hashPreference() {
+        List<HashAlgorithm> preference = new ArrayList<>();
+        hashMeasurements.forEach(measurement -> preference.add(measurement.algorithm()));
+        for (HashAlgorithm algorithm : HashAlgorithm.values()) {
+            if (!preference.contains(algorithm)) {
+                preference.add(algorithm);
+            }
+        }
+        return preference;
+    }
+
+    public List<Measurement> getMeasurements() {
+        return measurements;
+    }
+
+    public List<HashMeasurement> getHashMeasurements() {
+        return hashMeasurements;
+    }
+
+    /**
+     * One line per measurement, fastest first, followed by the choices for transfers and for the
+     * segmented file format.
+     */
+    public List<String> report() {
+        List<String> lines = new ArrayList<>();
+        for (Measurement measurement : measurements) {
+            lines.add(String.format("%s on %s: %.0f MB/s", measurement.transformation(),
+                    measurement.provider().getName(), measurement.megabytesPerSecond()));
+        }
+        Provider streamProvider = fastestProvider(AES_CTR);
+        lines.add("Transfers encrypt with " + AES_CTR + " on "
+                + (streamProvider != null ? streamProvider.getName() : "the default provider"));
+        SegmentedCipher.Algorithm chosen = fastestAuthenticated();
+        Provider provider = fastestProvider(chosen.transformation());
+        lines.add("Segmented file encryption would use " + chosen.transformation() + " on "
+                + (provider != null ? provider.getName() : "the default provider"));
+        for (HashMeasurement measurement : hashMeasurements) {
+            lines.add(String.format("%s leaf hash: %.0f MB/s per core", measurement.algorithm().id(),
+                    measurement.megabytesPerSecond()));
+        }
+        lines.add("Leaf hashes prefer " + hashPreference().get(0).id());
+        return lines;
+    }
+
+    private static Optional<Measurement> measure(String transformation, String keyAlgorithm,
+            Function<byte[], AlgorithmParameterSpec> parameters, Provider provider) {
+        Cipher cipher;
+        try {
+            cipher = Cipher.getInstance(transformation, provider);
+        } catch (GeneralSecurityException e) {
+            // This provider does not implement it
+            return Optional.empty();
+        }
+        try {
+            SecretKeySpec key = new SecretKeySpec(new byte[32], keyAlgorithm);
+            ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE);
+            ByteBuffer output = ByteBuffer.allocate(BUFFER_SIZE + 64);
+            long[] nonce = {0};
+            double rate = settle(durationNanos -> {
+                long next = runFor(cipher, key, parameters, input, output, nonce[0], durationNanos);
+                long buffers = next - nonce[0];
+                nonce[0] = next;
+                return buffers;
+            });
+            return Optional.of(new Measurement(transformation, provider, rate));
+        } catch (GeneralSecurityException | RuntimeException e) {
+            // Listed but unusable with these parameters, leave it out rather than fail startup
+            return Optional.empty();
+        }
+    }
+
+    private static Optional<HashMeasurement> measureHash(HashAlgorithm algorithm) {
+        try {
+            MessageDigest digest = algorithm.newDigest();
+            byte[] input = new byte[BUFFER_SIZE];
+            double rate = settle(durationNanos -> {
+                long deadline = System.nanoTime() + durationNanos;
+                long buffers = 0;
+                while (System.nanoTime() < deadline) {
+                    digest.update(input);
+                    digest.digest();
+                    buffers++;
+                }
+                return buffers;
+            });
+            return Optional.of(new HashMeasurement(algorithm, rate));
+        } catch (GeneralSecurityException | RuntimeException e) {
+            // Unusable here, so it goes last in the preference rather than failing startup
+            return Optional.empty();
+        }
+    }
+
+    // Runs windows until two in a row are within 10% of each other, returning the last rate in MB/s
+    private static double settle(Window window) throws GeneralSecurityException {
+        double previous = 0;
+        double rate = 0;
+        for (int count = 1; count <= MAX_WINDOWS; count++) {
+            long start = System.nanoTime();
+            long buffers = window.run(WINDOW_NANOS);
+            previous = rate;
+            rate = buffers * (double) BUFFER_SIZE / ((System.nanoTime() - start) / 1e9) / 1_000_000;
+            if (count >= MIN_WINDOWS && Math.min(rate, previous) >= SETTLED_RATIO * Math.max(rate, previous)) {
+                break;
+            }
+        }
+        return rate;
+    }
+
+    // Encrypts whole buffers until the time is up, returning the next unused nonce
+    private static long runFor(Cipher cipher, SecretKeySpec key, Function<byte[], AlgorithmParameterSpec> parameters,
+            ByteBuffer input, ByteBuffer output, long nonce, long durationNanos) throws GeneralSecurityException {
+        long deadline = System.nanoTime() + durationNanos;
+        while (System.nanoTime() < deadline) {
+            // AEAD providers refuse to encrypt twice under the same nonce
+            cipher.init(Cipher.ENCRYPT_MODE, key, parameters.apply(ByteBuffer.allocate(12).putLong(4, nonce++).array()));
+            input.clear();
+            output.clear();
+            cipher.doFinal(input, output);
+        }
+        return nonce;
+    }
+}
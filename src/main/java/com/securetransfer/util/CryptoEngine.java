@@ -0,0 +1,95 @@
+package com.securetransfer.util;
+
+import javax.crypto.Cipher;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.CancellationException;
+import java.util.function.Supplier;
+
+/**
+ * Runs a {@link Cipher} over channels with large pooled direct buffers and
+ * {@link Cipher#update(ByteBuffer, ByteBuffer)}, so bulk file encryption neither allocates per
+ * buffer nor copies through heap arrays. Used for file-to-file encryption from the UI as well as
+ * for the encrypting channels the send pipeline reads from.
+ *
+ * Each job borrows one pooled buffer holding its input and output halves, so at most
+ * {@code maxConcurrent} jobs hold buffers and further ones wait for a release.
+ */
+public class CryptoEngine {
+
+    public static final int BUFFER_SIZE = 1024 * 1024;
+
+    // Room for whatever a block cipher holds back plus padding or a GCM tag
+    private static final int OUTPUT_SIZE = BUFFER_SIZE + 64;
+
+    private final DirectBufferPool pool;
+
+    public CryptoEngine(int maxConcurrent) {
+        this.pool = new DirectBufferPool(BUFFER_SIZE + OUTPUT_SIZE, maxConcurrent);
+    }
+
+    /**
+     * Reads {@code in} to its end through {@code cipher}, including the final block, and writes
+     * the result to {@code out}.
+     *
+     * @return number of bytes written
+     * @throws CancellationException if {@code isCancelled} turns true before the end
+     */
+    public long transform(ReadableByteChannel in, WritableByteChannel out, Cipher cipher, ProgressThrottle progress,
+            Supplier<Boolean> isCancelled) throws IOException, InterruptedException {
+        ByteBuffer pooled = pool.acquire();
+        try {
+            ByteBuffer input = pooled.slice(0, BUFFER_SIZE);
+            ByteBuffer output = pooled.slice(BUFFER_SIZE, OUTPUT_SIZE);
+            long written = 0;
+            boolean finished = false;
+            while (!finished) {
+                if (isCancelled != null && isCancelled.get()) {
+                    throw new CancellationException("Cancelled after " + written + " bytes");
+                }
+                input.clear();
+                int read = 0;
+                while (input.hasRemaining() && (read = in.read(input)) > 0) {
+                    // fill the whole input half so each cipher call works on a large buffer
+                }
+                finished = read < 0;
+                input.flip();
+                int consumed = input.remaining();
+                output.clear();
+                if (finished) {
+                    cipher.doFinal(input, output);
+                } else {
+                    cipher.update(input, output);
+                }
+                output.flip();
+                while (output.hasRemaining()) {
+                    written += out.write(output);
+                }
+                if (progress != null) {
+                    progress.advance(consumed);
+                }
+            }
+            if (progress != null) {
+                progress.finish();
+            }
+            return written;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Cipher failed: " + e.getMessage(), e);
+        } finally {
+            pool.release(pooled);
+        }
+    }
+
+    /**
+     * Returns a channel yielding {@code source} passed through {@code cipher}. The channel holds a
+     * pooled buffer until it is closed.
+     */
+    public ReadableByteChannel openReadable(ReadableByteChannel source, Cipher cipher) throws InterruptedException {
+        ByteBuffer pooled = pool.acquire();
+        return new CipherReadableChannel(source, cipher, pooled.slice(0, BUFFER_SIZE),
+                pooled.slice(BUFFER_SIZE, OUTPUT_SIZE), () -> pool.release(pooled));
+    }
+}
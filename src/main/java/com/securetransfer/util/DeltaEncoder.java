@@ -0,0 +1,272 @@
+package com.securetransfer.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+
+/**
+ * Works out a new version of a file as blocks of the receiver's old copy plus literal data, by
+ * sliding the rolling checksum of {@link BlockSignatures} along it. The result is cut into the same
+ * windows the file would otherwise be sent in, one delta payload per window, so each one stands on
+ * its own: it can arrive on any stripe, lands at its own offset, and is acknowledged and resumed
+ * like a plain chunk.
+ *
+ * A payload is big-endian: the int length of the window, then instructions that fill it in order,
+ * either {@code 0, int length, bytes} for literal data or {@code 1, long offset, int length} for
+ * bytes copied from the old copy at that offset.
+ */
+public final class DeltaEncoder {
+
+    private static final byte LITERAL = 0;
+    private static final byte COPY = 1;
+    private static final int LITERAL_HEADER = 1 + 4;
+    private static final int COPY_SIZE = 1 + 8 + 4;
+    private static final int READ_AHEAD = 1024 * 1024;
+
+    private final FileChannel source;
+    private final long size;
+    private final BlockSignatures signatures;
+    private final int blockSize;
+    // Part of the new file being searched, from bufferStart on
+    private final byte[] buffer;
+    private long bufferStart;
+    private int bufferLength;
+
+    // Search position; everything before it is decided
+    private long position;
+    private long literalStart;
+    private int checksum;
+    private boolean rolling;
+    private final ArrayDeque<Instruction> decided = new ArrayDeque<>();
+    private long emitted;
+
+    private long copiedBytes;
+    private long literalBytes;
+
+    /**
+     * @param start where the first window starts, non-zero when resuming
+     */
+    public DeltaEncoder(FileChannel source, long size, BlockSignatures signatures, long start) {
+        this.source = source;
+        this.size = size;
+        this.signatures = signatures;
+        this.blockSize = signatures.getBlockSize();
+        this.buffer = new byte[READ_AHEAD + blockSize];
+        this.bufferStart = start;
+        this.position = start;
+        this.literalStart = start;
+        this.emitted = start;
+    }
+
+    /**
+     * Writes the delta of the window {@code [windowStart, windowStart + length)}, which follows the
+     * previous one, into {@code out} from its position. Returns false, with nothing sensible in
+     * {@code out}, if the delta would not fit before its limit; the window is then best sent as it is.
+     */
+    public boolean encode(long windowStart, int length, ByteBuffer out) throws IOException {
+        if (windowStart != emitted) {
+            throw new IllegalStateException("Delta windows must follow each other: " + windowStart + " after " + emitted);
+        }
+        long windowEnd = windowStart + length;
+        search(windowEnd);
+        if (literalStart < position) {
+            decided.add(new Instruction(-1, literalStart, position - literalStart));
+            literalStart = position;
+        }
+        ArrayDeque<Instruction> window = new ArrayDeque<>();
+        long encodedSize = 4;
+        while (emitted < windowEnd) {
+            Instruction instruction = decided.poll();
+            if (instruction.end() > windowEnd) {
+                // Runs on into the next window, which takes the rest
+                long inWindow = windowEnd - instruction.target();
+                decided.addFirst(instruction.skip(inWindow));
+                instruction = new Instruction(instruction.basisOffset(), instruction.target(), inWindow);
+            }
+            window.add(instruction);
+            emitted = instruction.end();
+            encodedSize += instruction.isCopy() ? COPY_SIZE : LITERAL_HEADER + instruction.length();
+        }
+        if (encodedSize > out.remaining()) {
+            return false;
+        }
+        out.putInt(length);
+        for (Instruction instruction : window) {
+            if (instruction.isCopy()) {
+                out.put(COPY).putLong(instruction.basisOffset()).putInt((int) instruction.length());
+                copiedBytes += instruction.length();
+                continue;
+            }
+            literalBytes += instruction.length();
+            out.put(LITERAL).putInt((int) instruction.length());
+            int end = out.position() + (int) instruction.length();
+            ByteBuffer literal = out.duplicate().limit(end);
+            long offset = instruction.target();
+            while (literal.hasRemaining()) {
+                int read = source.read(literal, offset);
+                if (read < 0) {
+                    throw new EOFException("File shrank while its delta was being sent");
+                }
+                offset += read;
+            }
+            out.position(end);
+        }
+        return true;
+    }
+
+    /** Bytes found in the old copy so far, in windows that went out as deltas. */
+    public long getCopiedBytes() {
+        return copiedBytes;
+    }
+
+    /** Bytes sent as literal data in delta windows so far. */
+    public long getLiteralBytes() {
+        return literalBytes;
+    }
+
+    // Decides everything up to at least windowEnd; a matched block may take it further
+    private void search(long windowEnd) throws IOException {
+        while (position < windowEnd) {
+            if (size - position < blockSize) {
+                // Too little left to match a block
+                position = size;
+                return;
+            }
+            int index = fill();
+            if (!rolling) {
+                checksum = BlockSignatures.rollingChecksum(buffer, index, blockSize);
+                rolling = true;
+            }
+            // Slides byte by byte through what the buffer holds, stopping short of the window end
+            long rollLimit = Math.min(Math.min(bufferLength - blockSize - 1, windowEnd - 1 - bufferStart),
+                    size - blockSize - 1 - bufferStart);
+            int block;
+            while ((block = signatures.find(checksum, buffer, index)) < 0 && index < rollLimit) {
+                checksum = BlockSignatures.roll(checksum, buffer[index], buffer[index + blockSize], blockSize);
+                index++;
+            }
+            position = bufferStart + index;
+            if (block >= 0) {
+                if (literalStart < position) {
+                    decided.add(new Instruction(-1, literalStart, position - literalStart));
+                }
+                addCopy((long) block * blockSize, position);
+                position += blockSize;
+                literalStart = position;
+                rolling = false;
+            } else if (position + blockSize < size) {
+                checksum = BlockSignatures.roll(checksum, buffer[index], buffer[index + blockSize], blockSize);
+                position++;
+            } else {
+                position = size;
+            }
+        }
+    }
+
+    // Consecutive blocks of the old copy go out as one instruction
+    private void addCopy(long basisOffset, long target) {
+        Instruction last = decided.peekLast();
+        if (last != null && last.isCopy() && last.end() == target && last.basisOffset() + last.length() == basisOffset) {
+            decided.pollLast();
+            decided.add(new Instruction(last.basisOffset(), last.target(), last.length() + blockSize));
+        } else {
+            decided.add(new Instruction(basisOffset, target, blockSize));
+        }
+    }
+
+    /**
+     * Makes sure the buffer holds the block at the search position and the byte after it, and
+     * returns the block's index in the buffer.
+     */
+    private int fill() throws IOException {
+        long needed = Math.min(size, position + blockSize + 1);
+        if (needed > bufferStart + bufferLength) {
+            int keep = (int) (bufferStart + bufferLength - position);
+            if (keep > 0) {
+                System.arraycopy(buffer, (int) (position - bufferStart), buffer, 0, keep);
+            } else {
+                keep = 0;
+            }
+            bufferStart = position;
+            bufferLength = keep;
+            ByteBuffer target = ByteBuffer.wrap(buffer, keep, (int) Math.min(buffer.length - keep,
+                    size - bufferStart - keep));
+            while (target.hasRemaining()) {
+                int read = source.read(target, bufferStart + target.position());
+                if (read < 0) {
+                    throw new EOFException("File shrank while its delta was being worked out");
+                }
+            }
+            bufferLength = target.position();
+        }
+        return (int) (position - bufferStart);
+    }
+
+    /**
+     * Rebuilds one window from its delta payload into {@code out}, reading copied ranges from
+     * {@code basis}, and returns the window's length. {@code out} is cleared first and left flipped.
+     */
+    public static int apply(ByteBuffer delta, FileChannel basis, ByteBuffer out) throws IOException {
+        int length = delta.getInt();
+        if (length < 0 || length > out.capacity()) {
+            throw new IOException("Delta window of " + length + " bytes does not fit a chunk");
+        }
+        out.clear().limit(length);
+        while (delta.hasRemaining()) {
+            byte type = delta.get();
+            if (type == COPY) {
+                long offset = delta.getLong();
+                int copyLength = delta.getInt();
+                ByteBuffer target = out.duplicate().limit(checkedEnd(out, copyLength));
+                while (target.hasRemaining()) {
+                    if (basis.read(target, offset + target.position() - out.position()) < 0) {
+                        throw new EOFException("Old copy is shorter than the delta expects");
+                    }
+                }
+                out.position(target.position());
+            } else if (type == LITERAL) {
+                int literalLength = delta.getInt();
+                checkedEnd(out, literalLength);
+                if (literalLength > delta.remaining()) {
+                    throw new IOException("Delta payload ends inside literal data");
+                }
+                out.put(delta.slice(delta.position(), literalLength));
+                delta.position(delta.position() + literalLength);
+            } else {
+                throw new IOException("Unknown delta instruction " + type);
+            }
+        }
+        if (out.hasRemaining()) {
+            throw new IOException("Delta filled " + out.position() + " of " + length + " bytes");
+        }
+        out.flip();
+        return length;
+    }
+
+    private static int checkedEnd(ByteBuffer out, int length) throws IOException {
+        if (length < 0 || length > out.remaining()) {
+            throw new IOException("Delta instruction runs past its window");
+        }
+        return out.position() + length;
+    }
+
+    /**
+     * A decided range of the new file, copied from {@code basisOffset} of the old copy or, when
+     * that is -1, sent as it is.
+     */
+    private record Instruction(long basisOffset, long target, long length) {
+        boolean isCopy() {
+            return basisOffset >= 0;
+        }
+
+        long end() {
+            return target + length;
+        }
+
+        Instruction skip(long bytes) {
+            return new Instruction(isCopy() ? basisOffset + bytes : -1, target + bytes, length - bytes);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.securetransfer.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.function.Consumer;
+
+/**
+ * Passes reads through from a source channel and feeds every byte read into a digest, so a file
+ * can be hashed in the same pass that sends it instead of being read again afterwards.
+ */
+public class DigestingReadableChannel implements ReadableByteChannel {
+
+    private final ReadableByteChannel source;
+    private final Consumer<ByteBuffer> digest;
+
+    /**
+     * Hands each run of bytes read to {@code digest}, e.g. {@code MessageDigest::update}, as a buffer
+     * of its own that it may consume.
+     */
+    public DigestingReadableChannel(ReadableByteChannel source, Consumer<ByteBuffer> digest) {
+        this.source = source;
+        this.digest = digest;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        int start = dst.position();
+        int read = source.read(dst);
+        if (read > 0) {
+            digest.accept(dst.slice(start, read));
+        }
+        return read;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return source.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+}
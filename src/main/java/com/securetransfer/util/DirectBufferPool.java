@@ -0,0 +1,60 @@
+package com.securetransfer.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of equally sized direct buffers.
+ * Buffers are allocated lazily up to {@code maxBuffers}; after that, callers wait for one to be
+ * released. Reading chunks into reused off-heap buffers saves the send path the humongous heap
+ * array it used to allocate per chunk. It does not make sending allocation-free: Java-WebSocket
+ * still copies each frame into a heap buffer of its own when framing it, and TLS wraps that again.
+ */
+public class DirectBufferPool {
+
+    private final int bufferSize;
+    private final int maxBuffers;
+    private final BlockingQueue<ByteBuffer> free;
+    private final AtomicInteger allocated = new AtomicInteger();
+
+    public DirectBufferPool(int bufferSize, int maxBuffers) {
+        this.bufferSize = bufferSize;
+        this.maxBuffers = maxBuffers;
+        this.free = new ArrayBlockingQueue<>(maxBuffers);
+    }
+
+    /**
+     * Returns a cleared buffer, allocating one if the pool is not yet full and waiting otherwise.
+     */
+    public ByteBuffer acquire() throws InterruptedException {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            if (allocated.incrementAndGet() <= maxBuffers) {
+                return ByteBuffer.allocateDirect(bufferSize);
+            }
+            allocated.decrementAndGet();
+            buffer = free.take();
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Hands a buffer obtained from {@link #acquire()} back to the pool.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer != null && buffer.capacity() == bufferSize) {
+            free.offer(buffer);
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public int getAllocatedCount() {
+        return Math.min(allocated.get(), maxBuffers);
+    }
+}
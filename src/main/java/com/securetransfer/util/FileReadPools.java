@@ -0,0 +1,38 @@
+package com.securetransfer.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread pools for work that mostly reads files, such as the sender's transform pool and the
+ * receiver's leaf checks. Unless configured, a pool gets one thread per core but no more than
+ * {@link #DEFAULT_MAX_THREADS}: beyond that, parallel reads leave a spinning disk seeking between
+ * files instead of streaming them, and an SSD is saturated well before.
+ */
+public final class FileReadPools {
+
+    public static final int DEFAULT_MAX_THREADS = 8;
+
+    private FileReadPools() {
+    }
+
+    /**
+     * Returns the configured thread count, or the default when it is not positive.
+     */
+    public static int threads(int configured) {
+        return configured > 0 ? configured : Math.min(Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_THREADS);
+    }
+
+    /**
+     * Creates a fixed pool of daemon threads named {@code name-1}, {@code name-2} and so on.
+     */
+    public static ExecutorService newPool(String name, int threads) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, name + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
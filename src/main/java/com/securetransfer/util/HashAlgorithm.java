@@ -0,0 +1,120 @@
+package com.securetransfer.util;
+
+import org.bouncycastle.crypto.digests.Blake3Digest;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Hash functions a sender and receiver can agree on for {@link MerkleTree} leaves. Both produce
+ * {@link MerkleTree#HASH_SIZE}-byte hashes. Which one is faster depends on the machine: SHA-256 runs
+ * on the CPU's SHA extensions where present, BLAKE3 is BouncyCastle's pure-Java implementation.
+ */
+public enum HashAlgorithm {
+    SHA_256("sha256"),
+    BLAKE3("blake3");
+
+    private final String id;
+
+    HashAlgorithm(String id) {
+        this.id = id;
+    }
+
+    /**
+     * Name used for the algorithm on the wire and in stored checksums.
+     */
+    public String id() {
+        return id;
+    }
+
+    public MessageDigest newDigest() {
+        if (this == BLAKE3) {
+            return new Blake3MessageDigest();
+        }
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 unavailable", e);
+        }
+    }
+
+    /**
+     * Formats the root of a file's tree as its checksum. The algorithm is part of the string, so
+     * checksums from different algorithms or from a plain digest never compare equal.
+     */
+    public String treeChecksum(byte[] root) {
+        return id + "-tree:" + HexFormat.of().formatHex(root);
+    }
+
+    /**
+     * Returns the algorithm with the given id, or null if this version does not know it.
+     */
+    public static HashAlgorithm fromId(String id) {
+        for (HashAlgorithm algorithm : values()) {
+            if (algorithm.id.equals(id)) {
+                return algorithm;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * BouncyCastle's lightweight BLAKE3 behind the JCA interface, so callers handle both
+     * algorithms alike.
+     */
+    private static final class Blake3MessageDigest extends MessageDigest {
+        private final Blake3Digest digest = new Blake3Digest(MerkleTree.HASH_SIZE * 8);
+        private byte[] scratch;
+
+        Blake3MessageDigest() {
+            super("BLAKE3-256");
+        }
+
+        @Override
+        protected void engineUpdate(byte input) {
+            digest.update(input);
+        }
+
+        @Override
+        protected void engineUpdate(byte[] input, int offset, int length) {
+            digest.update(input, offset, length);
+        }
+
+        @Override
+        protected void engineUpdate(ByteBuffer input) {
+            if (input.hasArray()) {
+                digest.update(input.array(), input.arrayOffset() + input.position(), input.remaining());
+                input.position(input.limit());
+                return;
+            }
+            // Direct buffers are copied through a small array, as MessageDigest itself does
+            if (scratch == null) {
+                scratch = new byte[8192];
+            }
+            while (input.hasRemaining()) {
+                int length = Math.min(scratch.length, input.remaining());
+                input.get(scratch, 0, length);
+                digest.update(scratch, 0, length);
+            }
+        }
+
+        @Override
+        protected int engineGetDigestLength() {
+            return MerkleTree.HASH_SIZE;
+        }
+
+        @Override
+        protected byte[] engineDigest() {
+            byte[] hash = new byte[MerkleTree.HASH_SIZE];
+            digest.doFinal(hash, 0);
+            return hash;
+        }
+
+        @Override
+        protected void engineReset() {
+            digest.reset();
+        }
+    }
+}
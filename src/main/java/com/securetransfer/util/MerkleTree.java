@@ -0,0 +1,168 @@
+package com.securetransfer.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Merkle tree over fixed-size leaves of a file, built incrementally as the file's bytes
+ * go by. Each leaf can be checked on its own as soon as it lands, so a corrupted range is found
+ * and fetched again without resending the file, and the root ties the leaf hashes together.
+ *
+ * Leaves hash {@code 0x00 || data} and inner nodes {@code 0x01 || left || right}, as in RFC 6962,
+ * so a leaf can never be passed off as an inner node. A node without a sibling moves up unchanged.
+ * An empty file has no leaves and the root is the hash of nothing.
+ *
+ * Leaves do not depend on each other, so they can also be hashed on separate cores straight from
+ * the file with {@link #hashLeafAt} and combined with {@link #root(List, HashAlgorithm)}.
+ */
+public final class MerkleTree {
+
+    public static final int LEAF_SIZE = 1024 * 1024;
+    public static final int HASH_SIZE = 32;
+
+    private static final byte LEAF_PREFIX = 0x00;
+    private static final byte NODE_PREFIX = 0x01;
+
+    private static final int READ_SIZE = 64 * 1024;
+    private static final ThreadLocal<ByteBuffer> READ_BUFFERS =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocate(READ_SIZE));
+
+    private final int leafSize;
+    private final HashAlgorithm algorithm;
+    private final MessageDigest leafDigest;
+    private final List<byte[]> leaves = new ArrayList<>();
+    private long leafFill;
+    private boolean finished;
+
+    public MerkleTree(int leafSize, HashAlgorithm algorithm) {
+        if (leafSize <= 0 || leafSize % ChunkBitmap.BLOCK_SIZE != 0) {
+            throw new IllegalArgumentException("Leaf size must be a multiple of the block size: " + leafSize);
+        }
+        this.leafSize = leafSize;
+        this.algorithm = algorithm;
+        this.leafDigest = algorithm.newDigest();
+    }
+
+    /**
+     * Adds the remaining bytes of {@code data}, which follow everything added before. The buffer's
+     * position is advanced to its limit.
+     */
+    public void update(ByteBuffer data) {
+        if (finished) {
+            throw new IllegalStateException("Tree already finished");
+        }
+        while (data.hasRemaining()) {
+            if (leafFill == 0) {
+                leafDigest.update(LEAF_PREFIX);
+            }
+            int length = (int) Math.min(data.remaining(), leafSize - leafFill);
+            leafDigest.update(data.slice(data.position(), length));
+            data.position(data.position() + length);
+            leafFill += length;
+            if (leafFill == leafSize) {
+                leaves.add(leafDigest.digest());
+                leafFill = 0;
+            }
+        }
+    }
+
+    /**
+     * Closes the short last leaf, if any. No more bytes can be added afterwards.
+     */
+    public void finish() {
+        if (!finished && leafFill > 0) {
+            leaves.add(leafDigest.digest());
+            leafFill = 0;
+        }
+        finished = true;
+    }
+
+    /**
+     * Number of leaves whose hash is known so far.
+     */
+    public int leafCount() {
+        return leaves.size();
+    }
+
+    public byte[] leaf(int index) {
+        return leaves.get(index);
+    }
+
+    /**
+     * Finishes the tree and returns its root.
+     */
+    public byte[] root() {
+        finish();
+        return root(leaves, algorithm);
+    }
+
+    public int getLeafSize() {
+        return leafSize;
+    }
+
+    public HashAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Hashes {@code length} bytes of the file from {@code start} as one leaf, with positional reads,
+     * so several threads can hash leaves of the same channel at once.
+     */
+    public static byte[] hashLeafAt(FileChannel channel, long start, int length, HashAlgorithm algorithm)
+            throws IOException {
+        MessageDigest digest = algorithm.newDigest();
+        digest.update(LEAF_PREFIX);
+        ByteBuffer buffer = READ_BUFFERS.get();
+        long position = start;
+        long end = start + length;
+        while (position < end) {
+            buffer.clear().limit((int) Math.min(READ_SIZE, end - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("File ends at byte " + position + ", inside the leaf at " + start);
+            }
+            buffer.flip();
+            digest.update(buffer);
+            position += read;
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Computes the root over leaf hashes in file order.
+     */
+    public static byte[] root(List<byte[]> leaves, HashAlgorithm algorithm) {
+        MessageDigest digest = algorithm.newDigest();
+        if (leaves.isEmpty()) {
+            return digest.digest();
+        }
+        List<byte[]> level = leaves;
+        while (level.size() > 1) {
+            List<byte[]> parents = new ArrayList<>((level.size() + 1) / 2);
+            for (int i = 0; i < level.size(); i += 2) {
+                if (i + 1 == level.size()) {
+                    parents.add(level.get(i));
+                } else {
+                    digest.update(NODE_PREFIX);
+                    digest.update(level.get(i));
+                    digest.update(level.get(i + 1));
+                    parents.add(digest.digest());
+                }
+            }
+            level = parents;
+        }
+        return level.get(0);
+    }
+
+    /**
+     * Number of leaves in a file of {@code size} bytes.
+     */
+    public static int leafCountFor(long size, int leafSize) {
+        return (int) ((size + leafSize - 1) / leafSize);
+    }
+}
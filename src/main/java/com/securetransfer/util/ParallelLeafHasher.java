@@ -0,0 +1,111 @@
+package com.securetransfer.util;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Hashes the {@link MerkleTree} leaves of a file on several threads, each leaf read straight from
+ * the file with positional reads. The sender keeps the work a bounded number of leaves ahead of
+ * what it has sent, so hashing spreads over the cores and keeps pace with the disk and network
+ * instead of running one 1 MiB leaf after another on the sending thread.
+ */
+public final class ParallelLeafHasher implements AutoCloseable {
+
+    private final FileChannel channel;
+    private final long size;
+    private final int leafSize;
+    private final HashAlgorithm algorithm;
+    private final Executor executor;
+    private final int lookahead;
+    private final int leafTotal;
+    private final List<CompletableFuture<byte[]>> leaves = new ArrayList<>();
+    private int leavesDone;
+
+    /**
+     * @param lookahead how many leaves past the one being sent may be hashed at once
+     */
+    public ParallelLeafHasher(Path file, long size, int leafSize, HashAlgorithm algorithm, Executor executor,
+            int lookahead) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.size = size;
+        this.leafSize = leafSize;
+        this.algorithm = algorithm;
+        this.executor = executor;
+        this.lookahead = Math.max(1, lookahead);
+        this.leafTotal = MerkleTree.leafCountFor(size, leafSize);
+    }
+
+    /**
+     * Starts hashing every leaf up to the lookahead past {@code offset}, the position sent up to.
+     */
+    public void advanceTo(long offset) {
+        int upTo = (int) Math.min(leafTotal, offset / leafSize + lookahead);
+        while (leaves.size() < upTo) {
+            long start = (long) leaves.size() * leafSize;
+            int length = (int) Math.min(leafSize, size - start);
+            leaves.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return MerkleTree.hashLeafAt(channel, start, length, algorithm);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor));
+        }
+    }
+
+    /**
+     * Number of leaves from the start of the file whose hash is ready, without waiting.
+     */
+    public int leafCount() {
+        while (leavesDone < leaves.size() && leaves.get(leavesDone).isDone()) {
+            leavesDone++;
+        }
+        return leavesDone;
+    }
+
+    public byte[] leaf(int index) throws IOException {
+        return await(leaves.get(index));
+    }
+
+    /**
+     * Hashes whatever is left, waits for every leaf and returns the root.
+     */
+    public byte[] root() throws IOException {
+        advanceTo(size);
+        List<byte[]> hashes = new ArrayList<>(leafTotal);
+        for (CompletableFuture<byte[]> leaf : leaves) {
+            hashes.add(await(leaf));
+        }
+        leavesDone = leaves.size();
+        return MerkleTree.root(hashes, algorithm);
+    }
+
+    public int getLeafSize() {
+        return leafSize;
+    }
+
+    public HashAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    @Override
+    public void close() throws IOException {
+        leaves.forEach(leaf -> leaf.cancel(false));
+        channel.close();
+    }
+
+    private static byte[] await(CompletableFuture<byte[]> leaf) throws IOException {
+        try {
+            return leaf.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException("Hashing a leaf failed", e.getCause());
+        }
+    }
+}
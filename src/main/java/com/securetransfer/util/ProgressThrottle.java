@@ -0,0 +1,63 @@
+package com.securetransfer.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Forwards progress of a byte-counted job to a callback at most once per interval, however often
+ * it is advanced. UI callbacks post to the FX thread, so reporting every buffer would queue
+ * hundreds of thousands of events per GB. Safe to advance from several worker threads.
+ */
+public class ProgressThrottle {
+
+    public static final long DEFAULT_INTERVAL_NANOS = 100_000_000L;
+
+    private final Consumer<Double> callback;
+    private final long total;
+    private final long intervalNanos;
+    private final AtomicLong done = new AtomicLong();
+    private final AtomicLong lastReport = new AtomicLong(System.nanoTime());
+
+    public ProgressThrottle(Consumer<Double> callback, long total) {
+        this(callback, total, DEFAULT_INTERVAL_NANOS);
+    }
+
+    public ProgressThrottle(Consumer<Double> callback, long total, long intervalNanos) {
+        this.callback = callback;
+        this.total = total;
+        this.intervalNanos = intervalNanos;
+    }
+
+    /**
+     * Reports 0.0, for callers that show progress from the start.
+     */
+    public void start() {
+        if (callback != null) {
+            callback.accept(0.0);
+        }
+    }
+
+    /**
+     * Counts {@code bytes} more as done and reports if the interval has passed.
+     */
+    public void advance(long bytes) {
+        long current = done.addAndGet(bytes);
+        if (callback == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        long last = lastReport.get();
+        if (now - last >= intervalNanos && lastReport.compareAndSet(last, now)) {
+            callback.accept(total > 0 ? Math.min(1.0, (double) current / total) : 0.0);
+        }
+    }
+
+    /**
+     * Reports 1.0 regardless of the interval.
+     */
+    public void finish() {
+        if (callback != null) {
+            callback.accept(1.0);
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package com.securetransfer.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Streams an incoming file straight to a part-file on disk.
+ * Each chunk is written through a FileChannel at its file offset and fed into a running
+ * SHA-256 digest, so memory use stays constant regardless of the file size.
+ * Chunks that arrive out of order are still written in place; the digest then catches up
+ * from disk, while those blocks are still in the page cache, as soon as the gap before them
+ * is filled.
+ * A {@link ChunkBitmap} records which blocks are on disk, so an interrupted sink can be
+ * suspended and later resumed on the same part-file.
+ * When the sender provides {@link MerkleTree} leaf hashes, each leaf is read back and checked
+ * once it is on disk, on an executor of the caller's so leaves are checked on several cores at
+ * once without the blocking reads tying up a shared pool, and a leaf that fails is marked missing
+ * again for the sender to re-send. The file's checksum is then the root over the verified leaves,
+ * and no sequential digest is taken at all.
+ */
+public class ReceiveFileSink implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(ReceiveFileSink.class);
+
+    private static final String PART_SUFFIX = ".part";
+
+    private final Path partFile;
+    private final FileChannel channel;
+    private final MessageDigest digest;
+    private final ChunkBitmap completed;
+    private long digestedBytes;
+    private long expectedSize = -1;
+    private String checksum;
+    private String expectedChecksum;
+    private ByteBuffer catchUpBuffer;
+
+    // Leaf verification, when the sender sends leaf hashes; leafSize is 0 otherwise
+    private static final int MAX_LEAF_ATTEMPTS = 3;
+    private int leafSize;
+    private ExecutorService leafExecutor;
+    private final Map<Integer, byte[]> leafHashes = new HashMap<>();
+    private final TreeMap<Integer, byte[]> unverifiedLeaves = new TreeMap<>();
+    private final BitSet verifiedLeaves = new BitSet();
+    private final Map<Integer, Integer> leafAttempts = new HashMap<>();
+    private final Map<Integer, Future<Boolean>> pendingLeaves = new HashMap<>();
+    private HashAlgorithm leafAlgorithm;
+
+    /**
+     * A range of the file that failed verification and has to be sent again.
+     */
+    public record Range(long offset, int length) {
+    }
+
+    public ReceiveFileSink(Path tempDir, String transferCode, String fileName) throws IOException {
+        this(Files.createDirectories(tempDir).resolve(transferCode + "-" + sanitize(fileName) + PART_SUFFIX),
+                new ChunkBitmap(), transferCode);
+    }
+
+    private ReceiveFileSink(Path partFile, ChunkBitmap completed, String transferCode) throws IOException {
+        this.partFile = partFile;
+        this.completed = completed;
+        // A fresh sink starts from an empty file, a resumed one keeps what is already on disk
+        this.channel = completed.coveredBytes() > 0
+                ? FileChannel.open(partFile, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(partFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            channel.close();
+            throw new IOException("SHA-256 not available", e);
+        }
+        logger.debug("Opened receive sink {} for transfer {} ({} bytes already present)",
+                partFile, transferCode, completed.coveredBytes());
+    }
+
+    /**
+     * Reopens the part-file of an interrupted transfer, keeping the blocks already written.
+     *
+     * @throws IOException if the part-file no longer exists
+     */
+    public static ReceiveFileSink resume(Path partFile, ChunkBitmap completed, String transferCode)
+            throws IOException {
+        if (!Files.isRegularFile(partFile)) {
+            throw new IOException("Part-file " + partFile + " is gone");
+        }
+        return new ReceiveFileSink(partFile, completed, transferCode);
+    }
+
+    /**
+     * Writes the remaining bytes of the buffer at the given file offset.
+     * The buffer's position is advanced to its limit.
+     */
+    public void write(ByteBuffer data, long offset) throws IOException {
+        int length = data.remaining();
+        // With leaf verification the leaves are checked instead of keeping a running digest
+        boolean inOrder = leafSize == 0 && offset == digestedBytes;
+        if (inOrder) {
+            digest.update(data.duplicate());
+            digestedBytes += length;
+        }
+        long position = offset;
+        while (data.hasRemaining()) {
+            position += channel.write(data, position);
+        }
+        completed.mark(offset, length);
+        if (inOrder) {
+            // This chunk may have closed a gap; hash the blocks that arrived ahead of it
+            catchUpDigest(completed.firstMissingOffset());
+        }
+    }
+
+    /**
+     * Turns on leaf verification with the sender's leaf size and hash, reading leaves back on
+     * {@code executor}. Call before the first write.
+     */
+    public void verifyLeaves(int leafSize, HashAlgorithm algorithm, ExecutorService executor) {
+        this.leafSize = leafSize;
+        this.leafAlgorithm = algorithm;
+        this.leafExecutor = executor;
+    }
+
+    public boolean isVerifyingLeaves() {
+        return leafSize > 0;
+    }
+
+    /**
+     * Records leaf hashes sent by the sender: the remaining bytes of {@code hashes} are consecutive
+     * {@link MerkleTree#HASH_SIZE}-byte leaf hashes, the first for the leaf starting at {@code offset}.
+     */
+    public void addLeafHashes(long offset, ByteBuffer hashes) {
+        int leaf = (int) (offset / leafSize);
+        while (hashes.remaining() >= MerkleTree.HASH_SIZE) {
+            byte[] hash = new byte[MerkleTree.HASH_SIZE];
+            hashes.get(hash);
+            if (leafHashes.put(leaf, hash) == null && !verifiedLeaves.get(leaf)) {
+                unverifiedLeaves.put(leaf, hash);
+            }
+            leaf++;
+        }
+    }
+
+    /**
+     * Starts checking every leaf that is now both on disk and hashed by the sender, and collects the
+     * checks that have finished. Leaves that do not match are marked missing again and returned.
+     * Once every byte of the file is on disk this waits for the checks still running, so the
+     * sender hears about a bad leaf before the last chunk is acknowledged.
+     *
+     * @throws IOException if a leaf has failed too often, e.g. because the sender's file changes
+     */
+    public List<Range> checkLeaves() throws IOException {
+        for (Map.Entry<Integer, byte[]> candidate : unverifiedLeaves.entrySet()) {
+            int leaf = candidate.getKey();
+            long start = (long) leaf * leafSize;
+            int length = leafLength(start);
+            if (length <= 0 || pendingLeaves.containsKey(leaf) || !completed.contains(start, length)) {
+                continue;
+            }
+            byte[] expected = candidate.getValue();
+            pendingLeaves.put(leaf, leafExecutor.submit(
+                    () -> Arrays.equals(MerkleTree.hashLeafAt(channel, start, length, leafAlgorithm), expected)));
+        }
+
+        boolean allOnDisk = expectedSize >= 0 && completed.isComplete(expectedSize);
+        List<Range> failed = new ArrayList<>();
+        Iterator<Map.Entry<Integer, Future<Boolean>>> checks = pendingLeaves.entrySet().iterator();
+        while (checks.hasNext()) {
+            Map.Entry<Integer, Future<Boolean>> check = checks.next();
+            if (!allOnDisk && !check.getValue().isDone()) {
+                continue;
+            }
+            checks.remove();
+            int leaf = check.getKey();
+            long start = (long) leaf * leafSize;
+            int length = leafLength(start);
+            if (awaitCheck(check.getValue())) {
+                unverifiedLeaves.remove(leaf);
+                verifiedLeaves.set(leaf);
+                leafAttempts.remove(leaf);
+                continue;
+            }
+            int attempts = leafAttempts.merge(leaf, 1, Integer::sum);
+            if (attempts >= MAX_LEAF_ATTEMPTS) {
+                throw new IOException("Bytes " + start + "-" + (start + length) + " of " + partFile.getFileName()
+                        + " failed verification " + attempts + " times");
+            }
+            logger.warn("Bytes {}-{} of {} failed verification, asking for them again", start, start + length,
+                    partFile.getFileName());
+            completed.clear(start, length);
+            failed.add(new Range(start, length));
+        }
+        return failed;
+    }
+
+    /**
+     * Turns the hash in the sender's digest frame into the checksum {@link #finish} returns for the
+     * same bytes: the tree checksum of a Merkle root with leaf verification, the hex SHA-256 otherwise.
+     */
+    public String checksumFor(byte[] hash) {
+        return leafSize > 0 ? leafAlgorithm.treeChecksum(hash) : HexFormat.of().formatHex(hash);
+    }
+
+    /**
+     * Records the checksum the sender computed over the file, as {@link #checksumFor} formats it.
+     */
+    public void setExpectedChecksum(String expectedChecksum) {
+        this.expectedChecksum = expectedChecksum;
+    }
+
+    /**
+     * Returns the sender's checksum of the file, or null if it has not arrived.
+     */
+    public String getExpectedChecksum() {
+        return expectedChecksum;
+    }
+
+    /**
+     * Records the total file size, known once the last chunk has been seen.
+     * Call before writing the last chunk so its short final block is counted.
+     */
+    public void setExpectedSize(long expectedSize) {
+        this.expectedSize = expectedSize;
+        completed.setFileSize(expectedSize);
+    }
+
+    /**
+     * Returns true once the last chunk has been seen and every block up to it has been written.
+     */
+    public boolean isComplete() {
+        return expectedSize >= 0 && completed.isComplete(expectedSize)
+                && (leafSize == 0 || verifiedLeaves.cardinality() >= MerkleTree.leafCountFor(expectedSize, leafSize));
+    }
+
+    /**
+     * Forces written chunks to disk, so a checkpoint taken afterwards never claims data that
+     * could still be lost.
+     */
+    public void sync() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * Syncs and closes the part-file but keeps it, for a transfer that may be resumed. A part-file
+     * that cannot be synced, e.g. because an interrupt already closed its channel, is kept all the
+     * same: what was written is in the page cache, and the bitmap only counts completed writes.
+     *
+     * @return false if the part-file could not be synced
+     */
+    public boolean suspend() {
+        try {
+            channel.force(false);
+            return true;
+        } catch (IOException e) {
+            logger.warn("Keeping part-file {} without syncing it: {}", partFile, e.toString());
+            return false;
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.debug("Failed to close part-file {}: {}", partFile, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Flushes and closes the part-file and returns the checksum of its contents: the hex SHA-256,
+     * or with leaf verification the tree checksum over the verified leaves.
+     */
+    public String finish() throws IOException {
+        if (checksum == null) {
+            if (expectedSize >= 0 && channel.size() > expectedSize) {
+                // Left over from an older, longer part-file with the same name
+                channel.truncate(expectedSize);
+            }
+            channel.force(false);
+            if (leafSize > 0) {
+                checksum = leafAlgorithm.treeChecksum(MerkleTree.root(verifiedLeafHashes(), leafAlgorithm));
+            } else {
+                catchUpDigest(channel.size());
+                checksum = HexFormat.of().formatHex(digest.digest());
+            }
+            channel.close();
+        }
+        return checksum;
+    }
+
+    /**
+     * Closes the channel and deletes the part-file. Used when a transfer fails or is cancelled.
+     */
+    public void abort() {
+        pendingLeaves.values().forEach(check -> check.cancel(false));
+        try {
+            channel.close();
+            Files.deleteIfExists(partFile);
+        } catch (IOException e) {
+            logger.warn("Failed to clean up part-file {}: {}", partFile, e.getMessage());
+        }
+    }
+
+    public Path getPartFile() {
+        return partFile;
+    }
+
+    public long getBytesWritten() {
+        return completed.coveredBytes();
+    }
+
+    public ChunkBitmap getCompleted() {
+        return completed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Bytes in the leaf starting at the given offset, shorter for the last leaf; unknown until the size is
+    private int leafLength(long start) {
+        if (expectedSize < 0) {
+            return leafSize;
+        }
+        return (int) Math.min(leafSize, expectedSize - start);
+    }
+
+    private List<byte[]> verifiedLeafHashes() throws IOException {
+        int count = MerkleTree.leafCountFor(channel.size(), leafSize);
+        List<byte[]> leaves = new ArrayList<>(count);
+        for (int leaf = 0; leaf < count; leaf++) {
+            if (!verifiedLeaves.get(leaf)) {
+                throw new IOException("Leaf " + leaf + " of " + partFile.getFileName() + " was never verified");
+            }
+            leaves.add(leafHashes.get(leaf));
+        }
+        return leaves;
+    }
+
+    private static boolean awaitCheck(Future<Boolean> check) throws IOException {
+        try {
+            return check.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while checking leaves", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException("Checking a leaf failed", e.getCause());
+        }
+    }
+
+    // Hash whatever arrived ahead of the in-order digest position, up to the given offset
+    private void catchUpDigest(long upTo) throws IOException {
+        if (digestedBytes >= upTo) {
+            return;
+        }
+        if (catchUpBuffer == null) {
+            catchUpBuffer = ByteBuffer.allocateDirect(64 * 1024);
+        }
+        ByteBuffer buffer = catchUpBuffer;
+        while (digestedBytes < upTo) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), upTo - digestedBytes));
+            int read = channel.read(buffer, digestedBytes);
+            if (read < 0) {
+                break;
+            }
+            buffer.flip();
+            digest.update(buffer);
+            digestedBytes += read;
+        }
+    }
+
+    private static String sanitize(String fileName) {
+        if (fileName == null || fileName.isBlank()) {
+            return "incoming";
+        }
+        return fileName.replaceAll("[\\\\/:*?\"<>|]", "_");
+    }
+}
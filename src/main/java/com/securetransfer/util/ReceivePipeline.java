@@ -0,0 +1,118 @@
+package com.securetransfer.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Hands binary frames from the WebSocket reader thread to a dedicated I/O worker.
+ * The queue is bounded, so when the worker falls behind the socket thread blocks and
+ * TCP backpressure reaches the sender instead of frames piling up in memory.
+ * Closing never interrupts the worker, which may be in the middle of a write to a part-file that an
+ * interrupt would close; if the queue is full at that point the frames still queued are dropped
+ * instead, and are asked for again from the receiver's bitmap when the transfer resumes.
+ */
+public class ReceivePipeline<T> implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(ReceivePipeline.class);
+
+    // Identity sentinel, queued behind the pending frames so close() drains them first
+    private static final Object END_OF_STREAM = new Object();
+
+    private final BlockingQueue<Object> queue;
+    private final Consumer<T> handler;
+    private final Thread worker;
+    // How often blocked submitters and an idle worker look at the flags below
+    private static final long POLL_MILLIS = 100;
+
+    private volatile boolean closed;
+    // Set when the queue was full on close, so what is queued is dropped rather than processed
+    private volatile boolean discarding;
+    private volatile Runnable onDrained;
+
+    public ReceivePipeline(String name, int capacity, Consumer<T> handler) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.handler = handler;
+        this.worker = new Thread(this::drain, "receive-" + name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Queues a frame for the worker, blocking while the queue is full, until the pipeline is closed.
+     */
+    public void submit(T frame) throws InterruptedException {
+        while (!closed) {
+            if (queue.offer(frame, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        }
+        logger.warn("Dropping frame submitted to closed pipeline {}", worker.getName());
+    }
+
+    /**
+     * Stops accepting frames and lets the worker finish the ones already queued.
+     */
+    @Override
+    public void close() {
+        close(null);
+    }
+
+    /**
+     * Like {@link #close()}, then runs {@code onDrained} on the worker after the last queued frame,
+     * or, if the queue is full, after the frame it is working on.
+     */
+    public void close(Runnable onDrained) {
+        if (closed) {
+            return;
+        }
+        this.onDrained = onDrained;
+        closed = true;
+        if (!queue.offer(END_OF_STREAM)) {
+            discarding = true;
+        }
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                if (discarding) {
+                    logger.info("Receive worker {} dropping {} queued frame(s) on close", worker.getName(),
+                            queue.size());
+                    queue.clear();
+                    break;
+                }
+                Object frame = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (frame == null) {
+                    continue;
+                }
+                if (frame == END_OF_STREAM) {
+                    break;
+                }
+                try {
+                    @SuppressWarnings("unchecked")
+                    T item = (T) frame;
+                    handler.accept(item);
+                } catch (RuntimeException e) {
+                    logger.error("Receive worker {} failed to process frame: {}", worker.getName(), e.getMessage(), e);
+                }
+            }
+        } catch (InterruptedException e) {
+            logger.warn("Receive worker {} interrupted", worker.getName());
+        }
+        // The callback writes to part-files, which an interrupt left pending would close under it
+        Thread.interrupted();
+        Runnable callback = onDrained;
+        if (callback != null) {
+            try {
+                callback.run();
+            } catch (RuntimeException e) {
+                logger.error("Receive worker {} failed to finish: {}", worker.getName(), e.getMessage(), e);
+            }
+        }
+        logger.debug("Receive worker {} stopped", worker.getName());
+    }
+}
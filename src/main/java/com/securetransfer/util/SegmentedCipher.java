@@ -0,0 +1,305 @@
+package com.securetransfer.util;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Segmented authenticated file format, sealed with AES-GCM or ChaCha20-Poly1305. The plaintext is
+ * cut into fixed-size segments that are sealed independently, so both directions spread over the
+ * ForkJoin pool with positional reads and writes instead of running on one core the way a single
+ * CBC stream must.
+ *
+ * Layout: a {@link #HEADER_SIZE}-byte header (magic, version, algorithm, segment size, plaintext
+ * length, nonce prefix) followed by the segments, each its ciphertext plus a 16-byte tag. Segment {@code i}
+ * uses the nonce {@code prefix || i} and authenticates the header as associated data, so reordered,
+ * truncated or swapped segments and a tampered length all fail decryption. An empty file still
+ * gets one empty segment, so the header is always authenticated.
+ */
+public final class SegmentedCipher {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+    public static final int HEADER_SIZE = 28;
+
+    private static final int MAGIC = 0x53545347; // "STSG"
+    private static final byte VERSION = 1;
+    private static final int MAX_SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final int NONCE_PREFIX_SIZE = 8;
+    private static final int TAG_SIZE = 16;
+    private static final int SEGMENTS_PER_TASK = 4;
+
+    private SegmentedCipher() {
+    }
+
+    /**
+     * The AEAD a file is sealed with, recorded in its header. Both take a 256-bit key and a 96-bit
+     * nonce and produce a 128-bit tag.
+     */
+    public enum Algorithm {
+        AES_GCM(0, "AES/GCM/NoPadding", "AES"),
+        CHACHA20_POLY1305(1, "ChaCha20-Poly1305", "ChaCha20");
+
+        private final int id;
+        private final String transformation;
+        private final String keyAlgorithm;
+
+        Algorithm(int id, String transformation, String keyAlgorithm) {
+            this.id = id;
+            this.transformation = transformation;
+            this.keyAlgorithm = keyAlgorithm;
+        }
+
+        public String transformation() {
+            return transformation;
+        }
+
+        public String keyAlgorithm() {
+            return keyAlgorithm;
+        }
+
+        public AlgorithmParameterSpec parameters(byte[] nonce) {
+            return this == AES_GCM ? new GCMParameterSpec(TAG_SIZE * 8, nonce) : new IvParameterSpec(nonce);
+        }
+
+        static Algorithm fromId(int id) throws IOException {
+            for (Algorithm algorithm : values()) {
+                if (algorithm.id == id) {
+                    return algorithm;
+                }
+            }
+            throw new IOException("Unknown segmented file algorithm " + id);
+        }
+    }
+
+    /**
+     * Returns the size of the encrypted file for a plaintext of {@code plainSize} bytes.
+     */
+    public static long encryptedSize(long plainSize, int segmentSize) {
+        return HEADER_SIZE + plainSize + segmentCount(plainSize, segmentSize) * TAG_SIZE;
+    }
+
+    /**
+     * Encrypts all of {@code in} into {@code out}, which should be empty, with {@code algorithm}
+     * from {@code provider}, or the default provider if null.
+     */
+    public static void encrypt(FileChannel in, FileChannel out, SecretKey key, Algorithm algorithm, Provider provider,
+            int segmentSize, SecureRandom random, Consumer<Double> progressCallback, Supplier<Boolean> isCancelled)
+            throws IOException {
+        if (segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Invalid segment size: " + segmentSize);
+        }
+        byte[] prefix = new byte[NONCE_PREFIX_SIZE];
+        random.nextBytes(prefix);
+        long plainLength = in.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                .putInt(MAGIC).put(VERSION).put((byte) algorithm.id).put(new byte[2])
+                .putInt(segmentSize).putLong(plainLength).put(prefix);
+        header.flip();
+        writeFully(out, header.duplicate(), 0);
+
+        run(new Job(true, in, out, key, algorithm, provider, header.array(), segmentSize, plainLength,
+                progressCallback, isCancelled));
+    }
+
+    /**
+     * Decrypts all of {@code in} into {@code out}, with the algorithm named in its header from the
+     * provider {@code providers} picks for it (null for the default). Throws if the header is
+     * malformed, the file is truncated, or any segment fails authentication; {@code out} may then
+     * hold partial plaintext.
+     */
+    public static void decrypt(FileChannel in, FileChannel out, SecretKey key, Function<Algorithm, Provider> providers,
+            Consumer<Double> progressCallback, Supplier<Boolean> isCancelled) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(in, header, 0);
+        header.flip();
+        if (header.getInt() != MAGIC || header.get() != VERSION) {
+            throw new IOException("Not a segmented encrypted file");
+        }
+        Algorithm algorithm = Algorithm.fromId(header.get());
+        header.position(header.position() + 2);
+        int segmentSize = header.getInt();
+        long plainLength = header.getLong();
+        if (segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE || plainLength < 0) {
+            throw new IOException("Corrupt segmented file header");
+        }
+        if (in.size() != encryptedSize(plainLength, segmentSize)) {
+            throw new IOException("Segmented file is truncated or has trailing data");
+        }
+
+        run(new Job(false, in, out, key, algorithm, providers.apply(algorithm), header.array(), segmentSize,
+                plainLength, progressCallback, isCancelled));
+    }
+
+    private static void run(Job job) throws IOException {
+        try {
+            job.progress.start();
+            ForkJoinPool.commonPool().invoke(new SegmentTask(job, 0, job.segments));
+            job.progress.finish();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static long segmentCount(long plainSize, int segmentSize) {
+        return Math.max(1, (plainSize + segmentSize - 1) / segmentSize);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of file at byte " + position);
+            }
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Everything the segment tasks of one file share.
+     */
+    private static final class Job {
+        final boolean encrypt;
+        final FileChannel in;
+        final FileChannel out;
+        final SecretKey key;
+        final Algorithm algorithm;
+        final Provider provider;
+        final byte[] header;
+        final int segmentSize;
+        final long plainLength;
+        final long segments;
+        final ProgressThrottle progress;
+        final Supplier<Boolean> isCancelled;
+
+        Job(boolean encrypt, FileChannel in, FileChannel out, SecretKey key, Algorithm algorithm, Provider provider,
+                byte[] header, int segmentSize, long plainLength, Consumer<Double> progressCallback,
+                Supplier<Boolean> isCancelled) {
+            this.encrypt = encrypt;
+            this.in = in;
+            this.out = out;
+            // Providers check that the key is meant for their algorithm
+            this.key = new SecretKeySpec(key.getEncoded(), algorithm.keyAlgorithm());
+            this.algorithm = algorithm;
+            this.provider = provider;
+            this.header = header;
+            this.segmentSize = segmentSize;
+            this.plainLength = plainLength;
+            this.segments = segmentCount(plainLength, segmentSize);
+            this.progress = new ProgressThrottle(progressCallback, plainLength);
+            this.isCancelled = isCancelled;
+            if (segments > 0xFFFFFFFFL) {
+                throw new IllegalArgumentException("File too large for segment size " + segmentSize);
+            }
+        }
+
+        void process(long from, long to) throws IOException {
+            Cipher cipher;
+            try {
+                cipher = provider != null ? Cipher.getInstance(algorithm.transformation(), provider)
+                        : Cipher.getInstance(algorithm.transformation());
+            } catch (GeneralSecurityException e) {
+                throw new IOException(algorithm.transformation() + " unavailable: " + e.getMessage(), e);
+            }
+            ByteBuffer plain = ByteBuffer.allocate(segmentSize);
+            ByteBuffer sealed = ByteBuffer.allocate(segmentSize + TAG_SIZE);
+            for (long segment = from; segment < to; segment++) {
+                if (isCancelled != null && isCancelled.get()) {
+                    throw new CancellationException("Segmented " + (encrypt ? "encryption" : "decryption") + " cancelled");
+                }
+                long plainPosition = segment * segmentSize;
+                int length = (int) Math.min(segmentSize, plainLength - plainPosition);
+                long sealedPosition = HEADER_SIZE + segment * (segmentSize + TAG_SIZE);
+                try {
+                    cipher.init(encrypt ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE, key,
+                            algorithm.parameters(nonce(segment)));
+                    cipher.updateAAD(header);
+                    if (encrypt) {
+                        plain.clear().limit(length);
+                        readFully(in, plain, plainPosition);
+                        plain.flip();
+                        sealed.clear();
+                        cipher.doFinal(plain, sealed);
+                        sealed.flip();
+                        writeFully(out, sealed, sealedPosition);
+                    } else {
+                        sealed.clear().limit(length + TAG_SIZE);
+                        readFully(in, sealed, sealedPosition);
+                        sealed.flip();
+                        plain.clear();
+                        cipher.doFinal(sealed, plain);
+                        plain.flip();
+                        writeFully(out, plain, plainPosition);
+                    }
+                } catch (AEADBadTagException e) {
+                    throw new IOException("Segment " + segment + " failed authentication", e);
+                } catch (GeneralSecurityException e) {
+                    throw new IOException("Segment " + segment + " could not be processed: " + e.getMessage(), e);
+                }
+                progress.advance(length);
+            }
+        }
+
+        private byte[] nonce(long segment) {
+            return ByteBuffer.allocate(NONCE_PREFIX_SIZE + 4)
+                    .put(header, HEADER_SIZE - NONCE_PREFIX_SIZE, NONCE_PREFIX_SIZE)
+                    .putInt((int) segment)
+                    .array();
+        }
+    }
+
+    /**
+     * Splits a run of segments until each task has only a few left, then processes them.
+     */
+    private static final class SegmentTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        // Tasks are never serialized
+        private final transient Job job;
+        private final long from;
+        private final long to;
+
+        SegmentTask(Job job, long from, long to) {
+            this.job = job;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEGMENTS_PER_TASK) {
+                try {
+                    job.process(from, to);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return;
+            }
+            long middle = (from + to) >>> 1;
+            invokeAll(new SegmentTask(job, from, middle), new SegmentTask(job, middle, to));
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.securetransfer.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs slow startup work, such as creating key material on a fresh install, on background threads
+ * and remembers when each piece ran, so the ready report can show how long it took.
+ */
+public final class StartupTimings {
+
+    private static final Logger logger = LoggerFactory.getLogger(StartupTimings.class);
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final Map<String, Task> tasks = new ConcurrentHashMap<>();
+
+    private StartupTimings() {
+    }
+
+    /**
+     * Starts {@code work} on a daemon thread and returns a future for its result.
+     */
+    public static <T> CompletableFuture<T> runInBackground(String name, Callable<T> work) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Task task = new Task(System.nanoTime());
+        tasks.put(name, task);
+        Thread thread = new Thread(() -> {
+            T result = null;
+            Throwable failure = null;
+            try {
+                result = work.call();
+            } catch (Throwable e) {
+                failure = e;
+            }
+            // Record the end before anyone waiting on the future can report on it
+            task.end = System.nanoTime();
+            logger.info("{} {} after {} ms in the background", name, failure == null ? "ready" : "failed",
+                    (task.end - task.start) / 1_000_000);
+            if (failure == null) {
+                future.complete(result);
+            } else {
+                future.completeExceptionally(failure);
+            }
+        }, "startup-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        thread.start();
+        return future;
+    }
+
+    /**
+     * Describes the background work as of now: how long each piece took or has been running, and
+     * the wall-clock time the pieces took together. They run side by side, so that is the length
+     * of the union of their intervals, not the sum. It says nothing about whether anything waited
+     * for them.
+     */
+    public static List<String> report() {
+        long now = System.nanoTime();
+        List<String> lines = new ArrayList<>();
+        List<Map.Entry<String, Task>> started = new ArrayList<>(tasks.entrySet());
+        started.sort(Comparator.comparingLong(entry -> entry.getValue().start));
+        long wallClock = 0;
+        long coveredUntil = Long.MIN_VALUE;
+        for (Map.Entry<String, Task> entry : started) {
+            Task task = entry.getValue();
+            long end = task.end;
+            if (end == 0) {
+                lines.add(entry.getKey() + ": still running after " + (now - task.start) / 1_000_000 + " ms");
+                end = now;
+            } else {
+                lines.add(entry.getKey() + ": " + (end - task.start) / 1_000_000 + " ms");
+            }
+            if (end > coveredUntil) {
+                wallClock += end - Math.max(task.start, coveredUntil);
+                coveredUntil = end;
+            }
+        }
+        lines.add("Wall-clock time of the background work: " + wallClock / 1_000_000 + " ms");
+        return lines;
+    }
+
+    private static final class Task {
+        final long start;
+        volatile long end;
+
+        Task(long start) {
+            this.start = start;
+        }
+    }
+}
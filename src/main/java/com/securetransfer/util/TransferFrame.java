@@ -0,0 +1,166 @@
+package com.securetransfer.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary frame layout for file data sent over the transfer WebSocket.
+ *
+ * Every binary message starts with a fixed 32-byte big-endian header followed by the payload:
+ * <pre>
+ *  0  int   magic ("STFR")
+ *  4  byte  version
+ *  5  byte  flags
+ *  6  short header length
+ *  8  int   session id
+ * 12  int   file index
+ * 16  int   sequence number
+ * 20  long  file offset of the payload
+ * 28  int   payload length
+ * </pre>
+ * The accessors read fields in place relative to the buffer's position, so receivers can
+ * dispatch a frame without copying it or allocating strings.
+ */
+public final class TransferFrame {
+
+    public static final int MAGIC = 0x53544652;
+    public static final byte VERSION = 1;
+    public static final int HEADER_SIZE = 32;
+
+    /** Set on the final chunk of a file. */
+    public static final byte FLAG_LAST_CHUNK = 0x01;
+
+    /** Set when the payload is encrypted under the key announced in the session's key exchange. */
+    public static final byte FLAG_ENCRYPTED = 0x02;
+
+    /**
+     * Set on a frame that follows a file's last chunk and carries no file data: its payload is the
+     * SHA-256 of the whole file and its offset is the file size. Only sent to receivers that asked for it.
+     * With leaf hashes on, the Merkle root of the file follows the SHA-256.
+     * For a file sent encrypted {@link #FLAG_ENCRYPTED} is set as well: the payload is not encrypted,
+     * but the hash is followed by a tag keyed by the transfer key, without which the file is rejected.
+     */
+    public static final byte FLAG_DIGEST = 0x04;
+
+    /**
+     * Set on a frame that carries no file data but {@link MerkleTree} leaf hashes, 32 bytes each;
+     * its offset is where the first of those leaves starts. Only sent to receivers that asked for them.
+     */
+    public static final byte FLAG_LEAF_HASHES = 0x08;
+
+    /**
+     * Set on a frame whose payload is a {@link DeltaEncoder} delta of the file range starting at its
+     * offset, to be rebuilt from the receiver's old copy. Only sent for files the receiver signed.
+     */
+    public static final byte FLAG_DELTA = 0x10;
+
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int FLAGS_OFFSET = 5;
+    private static final int HEADER_LENGTH_OFFSET = 6;
+    private static final int SESSION_ID_OFFSET = 8;
+    private static final int FILE_INDEX_OFFSET = 12;
+    private static final int SEQUENCE_OFFSET = 16;
+    private static final int FILE_OFFSET_OFFSET = 20;
+    private static final int LENGTH_OFFSET = 28;
+
+    private TransferFrame() {
+    }
+
+    /**
+     * Maps a transfer code to the numeric session id carried in frame headers.
+     * Transfer codes are 6-digit numbers, anything else falls back to its hash.
+     */
+    public static int sessionIdFor(String transferCode) {
+        try {
+            return Integer.parseInt(transferCode);
+        } catch (NumberFormatException e) {
+            return transferCode.hashCode();
+        }
+    }
+
+    /**
+     * Writes a header at the given absolute index of the buffer without moving its position.
+     */
+    public static void writeHeader(ByteBuffer dst, int index, int sessionId, int fileIndex, int sequence,
+            long offset, int length, byte flags) {
+        dst.putInt(index + MAGIC_OFFSET, MAGIC);
+        dst.put(index + VERSION_OFFSET, VERSION);
+        dst.put(index + FLAGS_OFFSET, flags);
+        dst.putShort(index + HEADER_LENGTH_OFFSET, (short) HEADER_SIZE);
+        dst.putInt(index + SESSION_ID_OFFSET, sessionId);
+        dst.putInt(index + FILE_INDEX_OFFSET, fileIndex);
+        dst.putInt(index + SEQUENCE_OFFSET, sequence);
+        dst.putLong(index + FILE_OFFSET_OFFSET, offset);
+        dst.putInt(index + LENGTH_OFFSET, length);
+    }
+
+    /**
+     * Returns true if the remaining bytes hold a well-formed frame of this version.
+     */
+    public static boolean isValid(ByteBuffer frame) {
+        int base = frame.position();
+        return frame.remaining() >= HEADER_SIZE
+                && frame.getInt(base + MAGIC_OFFSET) == MAGIC
+                && frame.get(base + VERSION_OFFSET) == VERSION
+                && frame.getShort(base + HEADER_LENGTH_OFFSET) == HEADER_SIZE
+                && frame.getInt(base + LENGTH_OFFSET) == frame.remaining() - HEADER_SIZE;
+    }
+
+    public static byte flags(ByteBuffer frame) {
+        return frame.get(frame.position() + FLAGS_OFFSET);
+    }
+
+    public static boolean isLastChunk(ByteBuffer frame) {
+        return (flags(frame) & FLAG_LAST_CHUNK) != 0;
+    }
+
+    public static boolean isEncrypted(ByteBuffer frame) {
+        return (flags(frame) & FLAG_ENCRYPTED) != 0;
+    }
+
+    public static boolean isDigest(ByteBuffer frame) {
+        return (flags(frame) & FLAG_DIGEST) != 0;
+    }
+
+    public static boolean isLeafHashes(ByteBuffer frame) {
+        return (flags(frame) & FLAG_LEAF_HASHES) != 0;
+    }
+
+    public static boolean isDelta(ByteBuffer frame) {
+        return (flags(frame) & FLAG_DELTA) != 0;
+    }
+
+    /**
+     * True for frames whose payload is file data rather than hashes about it.
+     */
+    public static boolean carriesFileData(ByteBuffer frame) {
+        return (flags(frame) & (FLAG_DIGEST | FLAG_LEAF_HASHES)) == 0;
+    }
+
+    public static int sessionId(ByteBuffer frame) {
+        return frame.getInt(frame.position() + SESSION_ID_OFFSET);
+    }
+
+    public static int fileIndex(ByteBuffer frame) {
+        return frame.getInt(frame.position() + FILE_INDEX_OFFSET);
+    }
+
+    public static int sequence(ByteBuffer frame) {
+        return frame.getInt(frame.position() + SEQUENCE_OFFSET);
+    }
+
+    public static long offset(ByteBuffer frame) {
+        return frame.getLong(frame.position() + FILE_OFFSET_OFFSET);
+    }
+
+    public static int payloadLength(ByteBuffer frame) {
+        return frame.getInt(frame.position() + LENGTH_OFFSET);
+    }
+
+    /**
+     * Returns a view of the payload that shares the frame's memory.
+     */
+    public static ByteBuffer payload(ByteBuffer frame) {
+        return frame.slice(frame.position() + HEADER_SIZE, payloadLength(frame));
+    }
+}
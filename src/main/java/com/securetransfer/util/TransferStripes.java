@@ -0,0 +1,256 @@
+package com.securetransfer.util;
+
+import org.java_websocket.WebSocket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * The receiver connections of one transfer and the send window of each.
+ * Chunks are spread across the connections by chunk index, so a single transfer can use
+ * several TCP streams on links where one stream is capped by window size over RTT.
+ *
+ * The number of stripes in use adapts to measured throughput: a stripe is added while the
+ * previous step still improved total throughput, and removed again when it made things worse.
+ *
+ * Losing a connection other than the primary only shrinks the set: the file data sent on it and
+ * not yet acknowledged is handed back to be sent again, and later chunks go to the stripes left.
+ * Frames that carry no file data, such as leaf hashes and digests, always go on the primary, so
+ * nothing but file data is ever lost with a stripe.
+ */
+public class TransferStripes {
+    private static final Logger logger = LoggerFactory.getLogger(TransferStripes.class);
+
+    private static final long EVALUATION_INTERVAL_NANOS = 1_000_000_000L;
+    private static final double GAIN_THRESHOLD = 1.10;
+    private static final double LOSS_THRESHOLD = 0.90;
+
+    private final String transferCode;
+    private final int windowFrames;
+    private final long windowBytes;
+    private final List<Stripe> stripes = new CopyOnWriteArrayList<>();
+
+    private volatile int active = 1;
+    private volatile boolean firstCreditSeen;
+    private long creditedBytes;
+    private long evaluationStart = System.nanoTime();
+    private double lastThroughput;
+
+    public TransferStripes(String transferCode, int windowFrames, long windowBytes) {
+        this.transferCode = transferCode;
+        this.windowFrames = windowFrames;
+        this.windowBytes = windowBytes;
+    }
+
+    /**
+     * Adds a receiver connection. The primary connection is always stripe 0.
+     */
+    public void addStripe(int index, WebSocket connection) {
+        Stripe previous = find(index);
+        if (previous != null) {
+            stripes.remove(previous);
+            previous.window.close();
+        }
+        stripes.add(new Stripe(index, connection, new CreditWindow(windowFrames, windowBytes)));
+        stripes.sort((a, b) -> Integer.compare(a.index, b.index));
+        logger.info("Receiver stripe {} connected for transfer code {} ({} total)", index, transferCode, stripes.size());
+    }
+
+    /**
+     * Drops the stripe using the given connection. The file data sent on it that the receiver has
+     * not acknowledged goes to {@code lost} before any sender waiting on the stripe is released,
+     * so whoever waits for the transfer to drain finds it queued for sending again.
+     */
+    public void removeConnection(WebSocket connection, Consumer<SentRange> lost) {
+        for (Stripe stripe : stripes) {
+            if (stripe.connection == connection) {
+                synchronized (this) {
+                    stripes.remove(stripe);
+                    active = Math.max(1, Math.min(active, stripes.size()));
+                }
+                stripe.unacknowledged.values().forEach(lost);
+                stripe.unacknowledged.clear();
+                stripe.window.close();
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return stripes.isEmpty();
+    }
+
+    public boolean contains(WebSocket connection) {
+        return stripes.stream().anyMatch(stripe -> stripe.connection == connection);
+    }
+
+    /**
+     * Picks the stripe for a frame and waits for credit on it. A frame carrying file data is
+     * remembered against its stripe until the receiver acknowledges it; if the stripe goes away
+     * while the frame waits, it is placed on one of the others.
+     * Only the primary stripe is used until the receiver has granted its first credit, which
+     * guarantees the manifest sent on the primary has been applied before frames arrive elsewhere.
+     *
+     * @param dataLength length of file data the frame stands for, larger than its payload for a delta
+     * @return the connection to send the frame on
+     */
+    public WebSocket acquire(long chunkIndex, ByteBuffer frame, int dataLength, long timeoutMs)
+            throws IOException, InterruptedException {
+        boolean fileData = TransferFrame.carriesFileData(frame);
+        while (true) {
+            Stripe stripe = fileData ? select(chunkIndex) : find(0);
+            if (stripe == null) {
+                throw new IOException("No receiver connection for transfer code " + transferCode);
+            }
+            try {
+                stripe.window.acquire(frame.remaining(), timeoutMs);
+            } catch (IOException e) {
+                if (stripe.index == 0 || stripes.contains(stripe)) {
+                    throw e;
+                }
+                continue;
+            }
+            if (!fileData) {
+                return stripe.connection;
+            }
+            synchronized (this) {
+                if (stripes.contains(stripe)) {
+                    int fileIndex = TransferFrame.fileIndex(frame);
+                    long offset = TransferFrame.offset(frame);
+                    stripe.unacknowledged.put(key(fileIndex, offset), new SentRange(fileIndex, offset, dataLength));
+                    return stripe.connection;
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the receiver's acknowledgement of file data sent on the given connection.
+     */
+    public void acknowledge(WebSocket connection, int fileIndex, long offset) {
+        for (Stripe stripe : stripes) {
+            if (stripe.connection == connection) {
+                stripe.unacknowledged.remove(key(fileIndex, offset));
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns credit granted by the receiver on the given connection.
+     */
+    public void grant(WebSocket connection, int frames, long bytes) {
+        for (Stripe stripe : stripes) {
+            if (stripe.connection == connection) {
+                stripe.window.grant(frames, bytes);
+                break;
+            }
+        }
+        synchronized (this) {
+            firstCreditSeen = true;
+            creditedBytes += bytes;
+            adapt();
+        }
+    }
+
+    /**
+     * Blocks until every stripe has had credit back for all frames sent on it, i.e. the receiver
+     * has processed everything sent so far.
+     */
+    public void awaitDrained(long timeoutMs) throws IOException, InterruptedException {
+        for (Stripe stripe : stripes) {
+            try {
+                stripe.window.awaitDrained(timeoutMs);
+            } catch (IOException e) {
+                // A stripe dropped while waiting has already handed its frames back
+                if (stripe.index == 0 || stripes.contains(stripe)) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    public void close() {
+        for (Stripe stripe : stripes) {
+            stripe.window.close();
+        }
+        stripes.clear();
+    }
+
+    public int getActiveCount() {
+        return active;
+    }
+
+    private Stripe select(long chunkIndex) {
+        Stripe[] snapshot = stripes.toArray(new Stripe[0]);
+        if (snapshot.length == 0) {
+            return null;
+        }
+        int usable = firstCreditSeen ? Math.min(active, snapshot.length) : 1;
+        return snapshot[(int) (chunkIndex % usable)];
+    }
+
+    // Hill-climb on total credited throughput, one step per evaluation interval
+    private void adapt() {
+        long now = System.nanoTime();
+        long elapsed = now - evaluationStart;
+        if (elapsed < EVALUATION_INTERVAL_NANOS) {
+            return;
+        }
+        double throughput = creditedBytes * 1e9 / elapsed;
+        int current = active;
+        if (lastThroughput == 0 || throughput > lastThroughput * GAIN_THRESHOLD) {
+            if (current < stripes.size()) {
+                active = current + 1;
+            }
+        } else if (throughput < lastThroughput * LOSS_THRESHOLD && current > 1) {
+            active = current - 1;
+        }
+        if (active != current) {
+            logger.info("Transfer {} now striping over {} connection(s) ({} MB/s total, {} MB/s per stream)",
+                    transferCode, active, String.format("%.1f", throughput / 1_048_576),
+                    String.format("%.1f", throughput / 1_048_576 / current));
+        }
+        lastThroughput = throughput;
+        creditedBytes = 0;
+        evaluationStart = now;
+    }
+
+    private Stripe find(int index) {
+        for (Stripe stripe : stripes) {
+            if (stripe.index == index) {
+                return stripe;
+            }
+        }
+        return null;
+    }
+
+    private static long key(int fileIndex, long offset) {
+        return ((long) fileIndex << 48) | offset;
+    }
+
+    /**
+     * File data sent on a stripe, as the file range it stands for.
+     */
+    public record SentRange(int fileIndex, long offset, int length) {
+    }
+
+    private static final class Stripe {
+        private final int index;
+        private final WebSocket connection;
+        private final CreditWindow window;
+        private final Map<Long, SentRange> unacknowledged = new ConcurrentHashMap<>();
+
+        private Stripe(int index, WebSocket connection, CreditWindow window) {
+            this.index = index;
+            this.connection = connection;
+            this.window = window;
+        }
+    }
+}
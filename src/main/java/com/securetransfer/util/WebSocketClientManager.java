@@ -508,6 +508,34 @@ public class WebSocketClientManager {
         return result;
     }
 
+    /**
+     * Opens an additional receiver connection for a transfer already connected through
+     * {@code primary}. The sender spreads chunks across these stripes once it sees them.
+     *
+     * @param primary The established receiver connection
+     * @param stripe The stripe index, 1 or higher
+     * @param onBinary Callback for binary frames arriving on this stripe
+     * @return The connected client, or a failed future if the stripe could not be opened
+     */
+    public CompletableFuture<WebSocketClient> connectStripe(WebSocketClient primary, int stripe,
+                                                            Consumer<ByteBuffer> onBinary) {
+        String url = primary.getURI().toString() + "&stripe=" + stripe;
+        Consumer<String> ignore = s -> { };
+        return CompletableFuture.supplyAsync(() -> {
+            WebSocketClient client = createClient(url, s -> logger.debug("Stripe {}: {}", stripe, s),
+                    ignore, ignore, ignore, ignore, onBinary);
+            try {
+                if (!client.connectBlocking(5, TimeUnit.SECONDS)) {
+                    throw new IllegalStateException("Stripe " + stripe + " did not connect to " + url);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while opening stripe " + stripe, e);
+            }
+            return client;
+        });
+    }
+
     private WebSocketClient createClient(String url,
                                                 Consumer<String> onStatus,
                                                 Consumer<String> onError,
@@ -555,6 +583,11 @@ public class WebSocketClientManager {
                                 case "finalChunk":
                                     onStatus.accept("Receiving final chunk of data...");
                                     break;
+                                case "manifest":
+                                case "key":
+                                    // Delivered inline so they are applied before the binary frames that follow them
+                                    onMessage.accept(message);
+                                    break;
                                 default:
                                     // Just pass through the raw message
                                     Platform.runLater(() -> onMessage.accept(message));
@@ -575,8 +608,9 @@ public class WebSocketClientManager {
             }
             @Override
             public void onMessage(ByteBuffer bytes) {
-                logger.info("WebSocket binary message: {} bytes", bytes.remaining());
-                Platform.runLater(() -> onBinary.accept(bytes));
+                logger.debug("WebSocket binary message: {} bytes", bytes.remaining());
+                // Binary frames stay off the JavaFX thread, the consumer hands them to its own worker
+                onBinary.accept(bytes);
             }
             @Override
             public void onClose(int code, String reason, boolean remote) {
@@ -42,7 +42,7 @@ CREATE TABLE IF NOT EXISTS sender_transfers (
     transfer_status VARCHAR(50) NOT NULL,
     start_time TIMESTAMP NOT NULL,
     end_time TIMESTAMP,
-    checksum VARCHAR(64),
+    checksum VARCHAR(100),
     session_id VARCHAR(255),
     receiver_username VARCHAR(255),
     error_message TEXT,
@@ -60,7 +60,8 @@ CREATE TABLE IF NOT EXISTS receiver_transfers (
     received_time TIMESTAMP NOT NULL,
     saved_time TIMESTAMP,
     file_path VARCHAR(500),
-    checksum VARCHAR(64),
+    file_modified BIGINT,
+    checksum VARCHAR(100),
     session_id VARCHAR(255),
     sender_username VARCHAR(255),
     error_message TEXT,
@@ -69,4 +70,28 @@ CREATE TABLE IF NOT EXISTS receiver_transfers (
 
 -- Add new columns to existing sender_transfers table if they don't exist
 ALTER TABLE sender_transfers ADD COLUMN IF NOT EXISTS sender_ip VARCHAR(45);
-ALTER TABLE sender_transfers ADD COLUMN IF NOT EXISTS sender_port INTEGER;
\ No newline at end of file
+ALTER TABLE sender_transfers ADD COLUMN IF NOT EXISTS sender_port INTEGER;
+
+-- checksum was the hex SHA-256 of the whole file; with leaf hashes it is the Merkle root instead,
+-- carrying its algorithm, e.g. "blake3-tree:" and 64 hex digits, 76 characters in all
+ALTER TABLE sender_transfers ALTER COLUMN checksum SET DATA TYPE VARCHAR(100);
+ALTER TABLE receiver_transfers ALTER COLUMN checksum SET DATA TYPE VARCHAR(100);
+
+-- Saved files are looked up by content, and only trusted while unmodified since they were saved
+ALTER TABLE receiver_transfers ADD COLUMN IF NOT EXISTS file_modified BIGINT;
+CREATE INDEX IF NOT EXISTS idx_receiver_transfers_checksum ON receiver_transfers(checksum);
+
+-- Create transfer_checkpoints table (only if it doesn't exist)
+-- One row per file and side of an interrupted transfer, holding the completed-block bitmap
+CREATE TABLE IF NOT EXISTS transfer_checkpoints (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    transfer_code VARCHAR(6) NOT NULL,
+    side VARCHAR(20) NOT NULL,
+    file_index INTEGER NOT NULL,
+    file_name VARCHAR(255) NOT NULL,
+    file_size BIGINT NOT NULL,
+    chunk_bitmap BLOB,
+    part_file VARCHAR(500),
+    updated_time TIMESTAMP NOT NULL,
+    UNIQUE (transfer_code, side, file_index)
+);
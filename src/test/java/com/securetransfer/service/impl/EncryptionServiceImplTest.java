@@ -0,0 +1,105 @@
+package com.securetransfer.service.impl;
+
+import com.securetransfer.service.EncryptionService;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class EncryptionServiceImplTest {
+
+    private final EncryptionServiceImpl service =
+            new EncryptionServiceImpl(Base64.getEncoder().encodeToString(new byte[32]));
+
+    @Test
+    void chunksAtAnyBlockOffsetMatchTheEncryptedStream() throws IOException {
+        byte[] data = randomBytes(100_000, 1);
+        EncryptionService.KeyAndIv key = transferKey(4);
+        byte[] stream = encryptedStream(data, key);
+
+        for (int offset : new int[] {0, 16, 4096, 65_536, 99_984}) {
+            ByteBuffer chunk = ByteBuffer.wrap(Arrays.copyOfRange(data, offset, data.length));
+            service.encryptStreamChunk(key.key(), key.iv(), offset, chunk);
+
+            assertThat(chunk.position()).isZero();
+            assertThat(chunk.array()).isEqualTo(Arrays.copyOfRange(stream, offset, stream.length));
+
+            service.decryptStreamChunk(key.key(), key.iv(), offset, chunk);
+            assertThat(chunk.array()).isEqualTo(Arrays.copyOfRange(data, offset, data.length));
+        }
+    }
+
+    @Test
+    void encryptsFromOneBufferIntoAnother() throws IOException {
+        byte[] data = randomBytes(8192, 2);
+        EncryptionService.KeyAndIv key = transferKey(4);
+        byte[] stream = encryptedStream(data, key);
+        ByteBuffer source = ByteBuffer.wrap(data, 4096, 4096).slice();
+        ByteBuffer target = ByteBuffer.allocate(32 + 4096);
+        target.position(32);
+
+        service.encryptStreamChunk(key.key(), key.iv(), 4096, source, target);
+
+        assertThat(source.position()).isZero();
+        assertThat(target.position()).isEqualTo(32);
+        assertThat(Arrays.copyOfRange(target.array(), 32, target.capacity()))
+                .isEqualTo(Arrays.copyOfRange(stream, 4096, 8192));
+    }
+
+    @Test
+    void carriesTheCounterAcrossIvBytes() throws IOException {
+        // Low 64 bits all ones, so counting on from the IV carries into the high half
+        byte[] iv = new byte[16];
+        Arrays.fill(iv, 8, 16, (byte) 0xFF);
+        EncryptionService.KeyAndIv key = new EncryptionService.KeyAndIv(transferKey(4).key(), new IvParameterSpec(iv));
+        byte[] data = randomBytes(64, 3);
+        byte[] stream = encryptedStream(data, key);
+        ByteBuffer chunk = ByteBuffer.wrap(Arrays.copyOfRange(data, 32, 64));
+
+        service.encryptStreamChunk(key.key(), key.iv(), 32, chunk);
+
+        assertThat(chunk.array()).isEqualTo(Arrays.copyOfRange(stream, 32, 64));
+    }
+
+    @Test
+    void rejectsChunksOffABlockBoundary() {
+        EncryptionService.KeyAndIv key = transferKey(4);
+
+        assertThatThrownBy(() -> service.encryptStreamChunk(key.key(), key.iv(), 17, ByteBuffer.allocate(16)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private byte[] encryptedStream(byte[] data, EncryptionService.KeyAndIv key) throws IOException {
+        try (ReadableByteChannel channel = service.openEncryptingChannel(
+                Channels.newChannel(new ByteArrayInputStream(data)), key.key(), key.iv())) {
+            ByteBuffer out = ByteBuffer.allocate(data.length);
+            while (out.hasRemaining() && channel.read(out) >= 0) {
+                // keep reading
+            }
+            assertThat(out.hasRemaining()).isFalse();
+            return out.array();
+        }
+    }
+
+    private static EncryptionService.KeyAndIv transferKey(long seed) {
+        return new EncryptionService.KeyAndIv(new SecretKeySpec(randomBytes(32, seed), "AES"),
+                new IvParameterSpec(randomBytes(16, seed + 1)));
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
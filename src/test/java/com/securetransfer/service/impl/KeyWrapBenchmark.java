@@ -0,0 +1,104 @@
+package com.securetransfer.service.impl;
+
+import com.securetransfer.service.EncryptionService;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Times handing a transfer key to the receiver both ways the sender can: wrapping it under the
+ * receiver's RSA-4096 key, or under an X25519 session key. Each round is one handshake, split into
+ * the sender's and the receiver's share of the work:
+ * <ul>
+ *   <li>RSA: the sender wraps with the public key, the receiver unwraps with its private key; the
+ *       receiver's key pair already exists, as it is loaded at startup</li>
+ *   <li>X25519: the receiver generates the key pair it offers, the sender generates its own, derives
+ *       the session key and wraps, and the receiver derives the session key and unwraps</li>
+ * </ul>
+ * Not a unit test; run it with the test classpath, optionally passing the number of rounds:
+ * {@code java -cp <test classpath> com.securetransfer.service.impl.KeyWrapBenchmark 500}
+ */
+public final class KeyWrapBenchmark {
+
+    private static final String TRANSFER_CODE = "123456";
+
+    private KeyWrapBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        EncryptionServiceImpl service = new EncryptionServiceImpl(Base64.getEncoder().encodeToString(new byte[32]));
+        KeyPairGenerator rsa = KeyPairGenerator.getInstance("RSA");
+        rsa.initialize(4096);
+        KeyPair receiverRsa = rsa.generateKeyPair();
+        byte[] keyBytes = new byte[32];
+        byte[] ivBytes = new byte[16];
+        new SecureRandom().nextBytes(keyBytes);
+        new SecureRandom().nextBytes(ivBytes);
+        EncryptionService.KeyAndIv transferKey = new EncryptionService.KeyAndIv(new SecretKeySpec(keyBytes, "AES"),
+                new IvParameterSpec(ivBytes));
+
+        // A warm-up pass of the same length, so both paths are compiled before they are timed
+        for (int pass = 0; pass < 2; pass++) {
+            long[] rsaSender = new long[rounds];
+            long[] rsaReceiver = new long[rounds];
+            long[] x25519Sender = new long[rounds];
+            long[] x25519Receiver = new long[rounds];
+            for (int round = 0; round < rounds; round++) {
+                long start = System.nanoTime();
+                byte[] wrapped = service.encryptKeyAndIvWithRSA(receiverRsa.getPublic(), transferKey.key(),
+                        transferKey.iv());
+                long wrappedAt = System.nanoTime();
+                check(transferKey, service.decryptKeyAndIvWithRSA(receiverRsa.getPrivate(), wrapped));
+                long unwrappedAt = System.nanoTime();
+                rsaSender[round] = wrappedAt - start;
+                rsaReceiver[round] = unwrappedAt - wrappedAt;
+
+                start = System.nanoTime();
+                KeyPair offered = service.generateAgreementKeyPair();
+                long offeredAt = System.nanoTime();
+                KeyPair senderKey = service.generateAgreementKeyPair();
+                SecretKey senderSession = service.deriveSessionKey(senderKey.getPrivate(), offered.getPublic(),
+                        TRANSFER_CODE);
+                wrapped = service.wrapKeyAndIv(senderSession, transferKey.key(), transferKey.iv());
+                wrappedAt = System.nanoTime();
+                SecretKey receiverSession = service.deriveSessionKey(offered.getPrivate(), senderKey.getPublic(),
+                        TRANSFER_CODE);
+                check(transferKey, service.unwrapKeyAndIv(receiverSession, wrapped));
+                unwrappedAt = System.nanoTime();
+                x25519Sender[round] = wrappedAt - offeredAt;
+                x25519Receiver[round] = (offeredAt - start) + (unwrappedAt - wrappedAt);
+            }
+            if (pass == 1) {
+                System.out.printf("%d handshakes, %s %s, %d core(s); median (p90) ms per handshake%n", rounds,
+                        System.getProperty("java.vm.name"), System.getProperty("java.version"),
+                        Runtime.getRuntime().availableProcessors());
+                report("RSA-4096 OAEP", rsaSender, rsaReceiver);
+                report("X25519 + AES-GCM", x25519Sender, x25519Receiver);
+            }
+        }
+    }
+
+    private static void check(EncryptionService.KeyAndIv expected, EncryptionService.KeyAndIv actual) {
+        if (!Arrays.equals(expected.key().getEncoded(), actual.key().getEncoded())
+                || !Arrays.equals(expected.iv().getIV(), actual.iv().getIV())) {
+            throw new IllegalStateException("Unwrapped key does not match");
+        }
+    }
+
+    private static void report(String name, long[] sender, long[] receiver) {
+        System.out.printf("  %-17s sender %s  receiver %s%n", name, percentiles(sender), percentiles(receiver));
+    }
+
+    private static String percentiles(long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return String.format("%7.3f (%7.3f)", sorted[sorted.length / 2] / 1e6, sorted[sorted.length * 9 / 10] / 1e6);
+    }
+}
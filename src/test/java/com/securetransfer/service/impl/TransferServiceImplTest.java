@@ -0,0 +1,82 @@
+package com.securetransfer.service.impl;
+
+import com.securetransfer.model.entity.ReceiverTransfer;
+import com.securetransfer.repository.ReceiverTransferRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TransferServiceImplTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void savesEachFileOfASessionOntoItsOwnRecord() throws Exception {
+        ReceiverTransfer first = received("a.txt", 10, LocalDateTime.now().minusSeconds(1));
+        ReceiverTransfer second = received("b.txt", 3, LocalDateTime.now());
+        List<ReceiverTransfer> rows = new ArrayList<>(List.of(first, second));
+        TransferServiceImpl service = new TransferServiceImpl();
+        inject(service, "receiverTransferRepository", repository(rows));
+
+        File saved = service.saveReceivedFile("123456", "a.txt", new byte[10], dir.toFile()).get();
+
+        assertThat(first.getTransferStatus()).isEqualTo(ReceiverTransfer.TransferStatus.SAVED);
+        assertThat(first.getFilePath()).isEqualTo(saved.getAbsolutePath());
+        assertThat(first.getFileModified()).isEqualTo(saved.lastModified());
+        // The newer row of the same session belongs to the other file and is left alone
+        assertThat(second.getTransferStatus()).isEqualTo(ReceiverTransfer.TransferStatus.RECEIVED);
+        assertThat(second.getFilePath()).isNull();
+
+        service.saveReceivedFile("123456", "b.txt", new byte[3], dir.toFile()).get();
+
+        assertThat(second.getTransferStatus()).isEqualTo(ReceiverTransfer.TransferStatus.SAVED);
+        assertThat(second.getFilePath()).endsWith("b.txt");
+        assertThat(first.getFilePath()).isEqualTo(saved.getAbsolutePath());
+        assertThat(first.getFileSize()).isEqualTo(10);
+    }
+
+    private static ReceiverTransfer received(String fileName, long size, LocalDateTime receivedTime) {
+        ReceiverTransfer transfer = new ReceiverTransfer();
+        transfer.setSessionId("123456");
+        transfer.setSenderCode("123456");
+        transfer.setFileName(fileName);
+        transfer.setFileSize(size);
+        transfer.setReceivedTime(receivedTime);
+        transfer.setTransferStatus(ReceiverTransfer.TransferStatus.RECEIVED);
+        return transfer;
+    }
+
+    // Just the queries saving a file uses, over a list
+    private static ReceiverTransferRepository repository(List<ReceiverTransfer> rows) {
+        return (ReceiverTransferRepository) Proxy.newProxyInstance(TransferServiceImplTest.class.getClassLoader(),
+                new Class<?>[] {ReceiverTransferRepository.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "findBySessionIdOrderByReceivedTimeDesc" -> rows.stream()
+                            .filter(row -> row.getSessionId().equals(args[0]))
+                            .sorted(Comparator.comparing(ReceiverTransfer::getReceivedTime).reversed())
+                            .toList();
+                    case "findBySessionIdAndFileNameOrderByReceivedTimeDesc" -> rows.stream()
+                            .filter(row -> row.getSessionId().equals(args[0]) && row.getFileName().equals(args[1]))
+                            .sorted(Comparator.comparing(ReceiverTransfer::getReceivedTime).reversed())
+                            .toList();
+                    case "save" -> args[0];
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private static void inject(Object target, String name, Object value) throws ReflectiveOperationException {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+}
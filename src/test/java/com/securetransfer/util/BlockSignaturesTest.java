@@ -0,0 +1,69 @@
+package com.securetransfer.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BlockSignaturesTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void rollingMatchesRecomputing() {
+        byte[] data = new byte[10_000];
+        new Random(7).nextBytes(data);
+        int length = 2_048;
+        int checksum = BlockSignatures.rollingChecksum(data, 0, length);
+        for (int offset = 0; offset + length < data.length; offset++) {
+            checksum = BlockSignatures.roll(checksum, data[offset], data[offset + length], length);
+
+            assertThat(checksum).isEqualTo(BlockSignatures.rollingChecksum(data, offset + 1, length));
+        }
+    }
+
+    @Test
+    void findsEachBlockAtAnyOffset() throws IOException {
+        byte[] data = new byte[5 * 2_048 + 100];
+        new Random(8).nextBytes(data);
+        BlockSignatures signatures = BlockSignatures.compute(Files.write(dir.resolve("old"), data),
+                HashAlgorithm.SHA_256);
+        int blockSize = signatures.getBlockSize();
+        // The short tail is left out
+        assertThat(signatures.getBlockCount()).isEqualTo(data.length / blockSize);
+
+        byte[] shifted = new byte[data.length + 3];
+        System.arraycopy(data, 0, shifted, 3, data.length);
+        for (int block = 0; block < signatures.getBlockCount(); block++) {
+            int offset = 3 + block * blockSize;
+
+            assertThat(signatures.find(BlockSignatures.rollingChecksum(shifted, offset, blockSize), shifted, offset))
+                    .isEqualTo(block);
+        }
+        assertThat(signatures.find(BlockSignatures.rollingChecksum(shifted, 4, blockSize), shifted, 4)).isEqualTo(-1);
+    }
+
+    @Test
+    void survivesTheWire() throws IOException {
+        byte[] data = new byte[40_000];
+        new Random(9).nextBytes(data);
+        BlockSignatures signatures = BlockSignatures.compute(Files.write(dir.resolve("old"), data),
+                HashAlgorithm.BLAKE3);
+        BlockSignatures received = BlockSignatures.fromByteArray(signatures.toByteArray(), HashAlgorithm.BLAKE3);
+
+        assertThat(received.getBlockSize()).isEqualTo(signatures.getBlockSize());
+        assertThat(received.getBlockCount()).isEqualTo(signatures.getBlockCount());
+        int last = (signatures.getBlockCount() - 1) * signatures.getBlockSize();
+        assertThat(received.find(BlockSignatures.rollingChecksum(data, last, received.getBlockSize()), data, last))
+                .isEqualTo(signatures.getBlockCount() - 1);
+        assertThatThrownBy(() -> BlockSignatures.fromByteArray(new byte[] {0, 0, 8, 0, 0, 0, 0, 1},
+                HashAlgorithm.BLAKE3)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
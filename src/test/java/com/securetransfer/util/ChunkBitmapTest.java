@@ -0,0 +1,74 @@
+package com.securetransfer.util;
+
+import org.junit.jupiter.api.Test;
+
+import static com.securetransfer.util.ChunkBitmap.BLOCK_SIZE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChunkBitmapTest {
+
+    @Test
+    void countsOnlyWholeBlocks() {
+        ChunkBitmap bitmap = new ChunkBitmap();
+        bitmap.mark(100, BLOCK_SIZE);
+
+        assertThat(bitmap.firstMissingOffset()).isZero();
+        assertThat(bitmap.coveredBytes()).isZero();
+
+        bitmap.mark(0, 2 * BLOCK_SIZE);
+
+        assertThat(bitmap.firstMissingOffset()).isEqualTo(2 * BLOCK_SIZE);
+        assertThat(bitmap.contains(0, 2 * BLOCK_SIZE)).isTrue();
+        assertThat(bitmap.contains(BLOCK_SIZE, BLOCK_SIZE + 1)).isFalse();
+    }
+
+    @Test
+    void marksTheShortLastBlockOnceTheSizeIsKnown() {
+        long size = 2L * BLOCK_SIZE + 10;
+        ChunkBitmap bitmap = new ChunkBitmap();
+        bitmap.mark(0, size);
+
+        assertThat(bitmap.isComplete(size)).isFalse();
+
+        bitmap.setFileSize(size);
+        bitmap.mark(2L * BLOCK_SIZE, 10);
+
+        assertThat(bitmap.isComplete(size)).isTrue();
+        assertThat(bitmap.firstMissingOffset()).isEqualTo(size);
+        assertThat(bitmap.coveredBytes()).isEqualTo(size);
+    }
+
+    @Test
+    void clearsEveryBlockARangeTouches() {
+        ChunkBitmap bitmap = new ChunkBitmap();
+        bitmap.mark(0, 4L * BLOCK_SIZE);
+        bitmap.clear(BLOCK_SIZE + 1, BLOCK_SIZE);
+
+        assertThat(bitmap.firstMissingOffset()).isEqualTo(BLOCK_SIZE);
+        assertThat(bitmap.contains(3L * BLOCK_SIZE, BLOCK_SIZE)).isTrue();
+        assertThat(bitmap.coveredBytes()).isEqualTo(2L * BLOCK_SIZE);
+    }
+
+    @Test
+    void ignoresEmptyRanges() {
+        ChunkBitmap bitmap = new ChunkBitmap();
+        bitmap.mark(0, 2L * BLOCK_SIZE);
+        bitmap.mark(5L * BLOCK_SIZE, 0);
+        bitmap.clear(BLOCK_SIZE, 0);
+
+        assertThat(bitmap.firstMissingOffset()).isEqualTo(2L * BLOCK_SIZE);
+        assertThat(bitmap.contains(5L * BLOCK_SIZE, 0)).isTrue();
+    }
+
+    @Test
+    void survivesACheckpoint() {
+        ChunkBitmap bitmap = new ChunkBitmap();
+        bitmap.mark(0, 3L * BLOCK_SIZE);
+        bitmap.mark(5L * BLOCK_SIZE, BLOCK_SIZE);
+        ChunkBitmap restored = ChunkBitmap.fromByteArray(bitmap.toByteArray());
+
+        assertThat(restored.firstMissingOffset()).isEqualTo(3L * BLOCK_SIZE);
+        assertThat(restored.contains(5L * BLOCK_SIZE, BLOCK_SIZE)).isTrue();
+        assertThat(ChunkBitmap.fromByteArray(null).firstMissingOffset()).isZero();
+    }
+}
@@ -0,0 +1,115 @@
+package com.securetransfer.util;
+
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares what the send thread allocates building chunk frames the old way, a fresh heap array per
+ * chunk, with the pooled direct buffers the sender uses now. Only the framing is measured: the copy
+ * Java-WebSocket makes of every frame it sends is the same for both and left out.
+ */
+class ChunkBufferAllocationTest {
+
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    private static final int CHUNKS = 64;
+    private static final int ROUNDS = 3;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void pooledFramesAllocateNothingPerChunk() throws Exception {
+        Assumptions.assumeTrue(allocatedBytes() >= 0, "JVM does not count per-thread allocation");
+        byte[] data = new byte[CHUNKS * CHUNK_SIZE];
+        new Random(1).nextBytes(data);
+        Path file = Files.write(dir.resolve("file.bin"), data);
+        DirectBufferPool pool = new DirectBufferPool(TransferFrame.HEADER_SIZE + CHUNK_SIZE, 4);
+
+        // The first round warms up both paths and fills the pool
+        long heapArrays = 0;
+        long pooled = 0;
+        for (int round = 0; round <= ROUNDS; round++) {
+            long start = allocatedBytes();
+            long checksum = sendWithHeapArrays(file);
+            long afterHeap = allocatedBytes();
+            checksum -= sendWithPool(file, pool);
+            long afterPool = allocatedBytes();
+            assertThat(checksum).isZero();
+            if (round > 0) {
+                heapArrays += afterHeap - start;
+                pooled += afterPool - afterHeap;
+            }
+        }
+
+        long perChunkHeap = heapArrays / (ROUNDS * CHUNKS);
+        long perChunkPooled = pooled / (ROUNDS * CHUNKS);
+        System.out.printf("Framing %d x %d KiB chunks: heap arrays %d bytes/chunk, pooled buffers %d bytes/chunk%n",
+                CHUNKS, CHUNK_SIZE / 1024, perChunkHeap, perChunkPooled);
+        assertThat(perChunkHeap).isGreaterThanOrEqualTo(CHUNK_SIZE);
+        assertThat(perChunkPooled).isLessThan(1024);
+    }
+
+    // As the send loop did before: read each chunk into a new array behind the header
+    private static long sendWithHeapArrays(Path file) throws IOException {
+        long checksum = 0;
+        try (InputStream in = new FileInputStream(file.toFile())) {
+            long offset = 0;
+            for (int chunk = 0; chunk < CHUNKS; chunk++) {
+                byte[] frame = new byte[TransferFrame.HEADER_SIZE + CHUNK_SIZE];
+                int read = in.readNBytes(frame, TransferFrame.HEADER_SIZE, CHUNK_SIZE);
+                ByteBuffer buffer = ByteBuffer.wrap(frame, 0, TransferFrame.HEADER_SIZE + read);
+                TransferFrame.writeHeader(buffer, 0, 1, 0, chunk, offset, read, (byte) 0);
+                checksum += buffer.get(TransferFrame.HEADER_SIZE + read - 1);
+                offset += read;
+            }
+        }
+        return checksum;
+    }
+
+    // As the send loop does now: read each chunk into a pooled direct buffer and hand it back
+    private static long sendWithPool(Path file, DirectBufferPool pool) throws IOException, InterruptedException {
+        long checksum = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long offset = 0;
+            for (int chunk = 0; chunk < CHUNKS; chunk++) {
+                ByteBuffer frame = pool.acquire();
+                try {
+                    frame.position(TransferFrame.HEADER_SIZE);
+                    while (frame.hasRemaining() && channel.read(frame) > 0) {
+                        // keep filling until the chunk is full or the file ends
+                    }
+                    frame.flip();
+                    int read = frame.limit() - TransferFrame.HEADER_SIZE;
+                    TransferFrame.writeHeader(frame, 0, 1, 0, chunk, offset, read, (byte) 0);
+                    checksum += frame.get(TransferFrame.HEADER_SIZE + read - 1);
+                    offset += read;
+                } finally {
+                    pool.release(frame);
+                }
+            }
+        }
+        return checksum;
+    }
+
+    private static long allocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean hotspot
+                && hotspot.isThreadAllocatedMemoryEnabled()) {
+            return hotspot.getCurrentThreadAllocatedBytes();
+        }
+        return -1;
+    }
+}
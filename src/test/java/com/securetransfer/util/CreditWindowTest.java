@@ -0,0 +1,80 @@
+package com.securetransfer.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CreditWindowTest {
+
+    @Test
+    void timesOutWhenTheReceiverGrantsNothing() throws Exception {
+        CreditWindow window = new CreditWindow(1, 1000);
+        window.acquire(100, 0);
+
+        assertThatThrownBy(() -> window.acquire(100, 50)).isInstanceOf(IOException.class);
+        assertThat(window.getBytesInFlight()).isEqualTo(100);
+    }
+
+    @Test
+    void aGrantReleasesAWaitingSender() throws Exception {
+        CreditWindow window = new CreditWindow(4, 1000);
+        window.acquire(600, 0);
+        CompletableFuture<Void> waiting = CompletableFuture.runAsync(() -> acquire(window, 600));
+        Thread.sleep(50);
+
+        assertThat(waiting).isNotDone();
+
+        window.grant(1, 600);
+        waiting.get(5, TimeUnit.SECONDS);
+        assertThat(window.getBytesInFlight()).isEqualTo(600);
+    }
+
+    @Test
+    void alwaysAllowsAFrameWhenNothingIsInFlight() throws Exception {
+        CreditWindow window = new CreditWindow(4, 1000);
+        window.acquire(5000, 0);
+
+        assertThat(window.getBytesInFlight()).isEqualTo(5000);
+        assertThatThrownBy(() -> window.acquire(1, 0)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void closingWakesWaitingSenders() throws Exception {
+        CreditWindow window = new CreditWindow(1, 1000);
+        window.acquire(100, 0);
+        CompletableFuture<Void> waiting = CompletableFuture.runAsync(() -> acquire(window, 100));
+        Thread.sleep(50);
+        window.close();
+
+        assertThatThrownBy(() -> waiting.get(5, TimeUnit.SECONDS)).hasRootCauseInstanceOf(IOException.class);
+        assertThatThrownBy(() -> window.awaitDrained(0)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void drainsOnceEveryByteIsCredited() throws Exception {
+        CreditWindow window = new CreditWindow(4, 1000);
+        window.acquire(300, 0);
+        window.acquire(300, 0);
+
+        assertThatThrownBy(() -> window.awaitDrained(50)).isInstanceOf(IOException.class);
+
+        CompletableFuture.delayedExecutor(50, TimeUnit.MILLISECONDS).execute(() -> window.grant(2, 600));
+        window.awaitDrained(5_000);
+        assertThat(window.getBytesInFlight()).isZero();
+    }
+
+    private static void acquire(CreditWindow window, int frameBytes) {
+        try {
+            window.acquire(frameBytes, 5_000);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
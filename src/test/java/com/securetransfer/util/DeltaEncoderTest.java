@@ -0,0 +1,112 @@
+package com.securetransfer.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DeltaEncoderTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void rebuildsAnEditedFileWindowByWindow() throws IOException {
+        byte[] old = randomBytes(600_000, 1);
+        // An edit, an insertion and a tail that is not a whole block
+        byte[] updated = new byte[old.length + 1_234];
+        System.arraycopy(old, 0, updated, 0, 200_000);
+        System.arraycopy(randomBytes(1_234, 2), 0, updated, 200_000, 1_234);
+        System.arraycopy(old, 200_000, updated, 201_234, old.length - 200_000);
+        updated[400_000] ^= 0x5A;
+
+        // Windows that are no multiple of the block size, so copies run across them
+        long[] counts = roundTrip(old, updated, 10_000);
+
+        assertThat(counts[0]).isGreaterThan(updated.length * 9L / 10);
+        assertThat(counts[0] + counts[1]).isEqualTo(counts[2]);
+    }
+
+    @Test
+    void sendsUnrelatedDataAsLiterals() throws IOException {
+        long[] counts = roundTrip(randomBytes(100_000, 3), randomBytes(70_001, 4), 16_384);
+
+        assertThat(counts[0]).isZero();
+    }
+
+    @Test
+    void countsNothingForAWindowThatDoesNotFit() throws IOException {
+        byte[] data = randomBytes(50_000, 5);
+        Path file = write("same", data);
+        BlockSignatures signatures = BlockSignatures.compute(file, HashAlgorithm.SHA_256);
+        try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ)) {
+            DeltaEncoder encoder = new DeltaEncoder(source, data.length, signatures, 0);
+
+            assertThat(encoder.encode(0, 20_000, ByteBuffer.allocate(4))).isFalse();
+            assertThat(encoder.getCopiedBytes()).isZero();
+            assertThat(encoder.getLiteralBytes()).isZero();
+        }
+    }
+
+    @Test
+    void rejectsWindowsOutOfOrder() throws IOException {
+        byte[] data = randomBytes(10_000, 6);
+        Path file = write("data", data);
+        BlockSignatures signatures = BlockSignatures.compute(file, HashAlgorithm.SHA_256);
+        try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ)) {
+            DeltaEncoder encoder = new DeltaEncoder(source, data.length, signatures, 0);
+
+            assertThatThrownBy(() -> encoder.encode(4_096, 4_096, ByteBuffer.allocate(8_192)))
+                    .isInstanceOf(IllegalStateException.class);
+        }
+    }
+
+    // Encodes every window and rebuilds it from the old copy; returns copied, literal and delta-sent bytes
+    private long[] roundTrip(byte[] old, byte[] updated, int window) throws IOException {
+        Path oldFile = write("old", old);
+        Path newFile = write("new", updated);
+        BlockSignatures signatures = BlockSignatures.compute(oldFile, HashAlgorithm.SHA_256);
+        long deltaBytes = 0;
+        try (FileChannel source = FileChannel.open(newFile, StandardOpenOption.READ);
+                FileChannel basis = FileChannel.open(oldFile, StandardOpenOption.READ)) {
+            DeltaEncoder encoder = new DeltaEncoder(source, updated.length, signatures, 0);
+            ByteBuffer payload = ByteBuffer.allocate(window + 64);
+            ByteBuffer rebuilt = ByteBuffer.allocate(window);
+            for (int start = 0; start < updated.length; start += window) {
+                int length = Math.min(window, updated.length - start);
+                payload.clear();
+                if (!encoder.encode(start, length, payload)) {
+                    continue;
+                }
+                payload.flip();
+
+                assertThat(DeltaEncoder.apply(payload, basis, rebuilt)).isEqualTo(length);
+                byte[] actual = new byte[length];
+                rebuilt.get(actual);
+                assertThat(actual).isEqualTo(Arrays.copyOfRange(updated, start, start + length));
+                deltaBytes += length;
+            }
+            return new long[] {encoder.getCopiedBytes(), encoder.getLiteralBytes(), deltaBytes};
+        }
+    }
+
+    private Path write(String name, byte[] data) throws IOException {
+        return Files.write(dir.resolve(name), data);
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,103 @@
+package com.securetransfer.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MerkleTreeTest {
+
+    private static final int LEAF_SIZE = ChunkBitmap.BLOCK_SIZE;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void carriesAnOddLeafUpUnchanged() {
+        byte[] data = new byte[2 * LEAF_SIZE + 1_000];
+        new Random(10).nextBytes(data);
+        MerkleTree tree = new MerkleTree(LEAF_SIZE, HashAlgorithm.SHA_256);
+        // Pieces that do not line up with the leaves
+        for (int offset = 0; offset < data.length; offset += 10_000) {
+            tree.update(ByteBuffer.wrap(data, offset, Math.min(10_000, data.length - offset)));
+        }
+        byte[] root = tree.root();
+
+        assertThat(tree.leafCount()).isEqualTo(3);
+        byte[] l0 = sha256(new byte[] {0}, slice(data, 0, LEAF_SIZE));
+        byte[] l1 = sha256(new byte[] {0}, slice(data, LEAF_SIZE, LEAF_SIZE));
+        byte[] l2 = sha256(new byte[] {0}, slice(data, 2 * LEAF_SIZE, 1_000));
+        assertThat(tree.leaf(2)).isEqualTo(l2);
+        assertThat(root).isEqualTo(sha256(new byte[] {1}, sha256(new byte[] {1}, l0, l1), l2));
+    }
+
+    @Test
+    void hashesLeavesStraightFromTheFileAlike() throws IOException {
+        byte[] data = new byte[3 * LEAF_SIZE + 17];
+        new Random(11).nextBytes(data);
+        MerkleTree tree = new MerkleTree(LEAF_SIZE, HashAlgorithm.BLAKE3);
+        tree.update(ByteBuffer.wrap(data));
+        byte[] root = tree.root();
+
+        Path file = Files.write(dir.resolve("file"), data);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            int leaves = MerkleTree.leafCountFor(data.length, LEAF_SIZE);
+            assertThat(leaves).isEqualTo(tree.leafCount());
+            byte[][] hashes = new byte[leaves][];
+            for (int leaf = 0; leaf < leaves; leaf++) {
+                long start = (long) leaf * LEAF_SIZE;
+                hashes[leaf] = MerkleTree.hashLeafAt(channel, start, (int) Math.min(LEAF_SIZE, data.length - start),
+                        HashAlgorithm.BLAKE3);
+                assertThat(hashes[leaf]).isEqualTo(tree.leaf(leaf));
+            }
+            assertThat(MerkleTree.root(List.of(hashes), HashAlgorithm.BLAKE3)).isEqualTo(root);
+        }
+    }
+
+    @Test
+    void emptyFileHasTheHashOfNothingAsRoot() {
+        MerkleTree tree = new MerkleTree(LEAF_SIZE, HashAlgorithm.SHA_256);
+        tree.update(ByteBuffer.allocate(0));
+
+        assertThat(tree.root()).isEqualTo(sha256());
+        assertThat(tree.leafCount()).isZero();
+        assertThat(MerkleTree.leafCountFor(0, LEAF_SIZE)).isZero();
+    }
+
+    @Test
+    void leavesLineUpWithTheReceiversBlocks() {
+        assertThatThrownBy(() -> new MerkleTree(LEAF_SIZE + 1, HashAlgorithm.SHA_256))
+                .isInstanceOf(IllegalArgumentException.class);
+        MerkleTree tree = new MerkleTree(2 * LEAF_SIZE, HashAlgorithm.SHA_256);
+        tree.update(ByteBuffer.allocate(10));
+        tree.root();
+
+        assertThatThrownBy(() -> tree.update(ByteBuffer.allocate(1))).isInstanceOf(IllegalStateException.class);
+        assertThat(MerkleTree.leafCountFor(2L * LEAF_SIZE + 1, 2 * LEAF_SIZE)).isEqualTo(2);
+    }
+
+    private static byte[] slice(byte[] data, int offset, int length) {
+        byte[] slice = new byte[length];
+        System.arraycopy(data, offset, slice, 0, length);
+        return slice;
+    }
+
+    private static byte[] sha256(byte[]... parts) {
+        MessageDigest digest = HashAlgorithm.SHA_256.newDigest();
+        for (byte[] part : parts) {
+            digest.update(part);
+        }
+        return digest.digest();
+    }
+}
@@ -0,0 +1,174 @@
+package com.securetransfer.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.securetransfer.util.ChunkBitmap.BLOCK_SIZE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ReceiveFileSinkTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void resumesFromItsCheckpoint() throws Exception {
+        byte[] data = randomBytes(3 * BLOCK_SIZE + 500, 1);
+        ReceiveFileSink sink = new ReceiveFileSink(dir, "123456", "file.bin");
+        sink.setExpectedSize(data.length);
+        sink.write(ByteBuffer.wrap(data, 0, 2 * BLOCK_SIZE), 0);
+        assertThat(sink.suspend()).isTrue();
+        byte[] checkpoint = sink.getCompleted().toByteArray();
+
+        ReceiveFileSink resumed = ReceiveFileSink.resume(sink.getPartFile(), ChunkBitmap.fromByteArray(checkpoint),
+                "123456");
+        resumed.setExpectedSize(data.length);
+        assertThat(resumed.getCompleted().firstMissingOffset()).isEqualTo(2L * BLOCK_SIZE);
+        resumed.write(ByteBuffer.wrap(data, 2 * BLOCK_SIZE, data.length - 2 * BLOCK_SIZE), 2L * BLOCK_SIZE);
+
+        assertThat(resumed.isComplete()).isTrue();
+        assertThat(resumed.finish()).isEqualTo(sha256Hex(data));
+    }
+
+    @Test
+    void keepsThePartFileWhenAnInterruptClosedItsChannel() throws Exception {
+        byte[] data = randomBytes(2 * BLOCK_SIZE, 2);
+        ReceiveFileSink sink = new ReceiveFileSink(dir, "123456", "file.bin");
+        sink.write(ByteBuffer.wrap(data, 0, BLOCK_SIZE), 0);
+
+        Thread.currentThread().interrupt();
+        try {
+            assertThatThrownBy(() -> sink.write(ByteBuffer.wrap(data, BLOCK_SIZE, BLOCK_SIZE), BLOCK_SIZE))
+                    .isInstanceOf(ClosedByInterruptException.class);
+        } finally {
+            Thread.interrupted();
+        }
+
+        assertThat(sink.suspend()).isFalse();
+        assertThat(sink.getPartFile()).exists();
+        assertThat(ChunkBitmap.fromByteArray(sink.getCompleted().toByteArray()).firstMissingOffset())
+                .isEqualTo(BLOCK_SIZE);
+    }
+
+    @Test
+    void closingAFullPipelineKeepsThePartFileAndCheckpoint() throws Exception {
+        byte[] data = randomBytes(4 * BLOCK_SIZE, 3);
+        ReceiveFileSink sink = new ReceiveFileSink(dir, "123456", "file.bin");
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ReceivePipeline<Integer> pipeline = new ReceivePipeline<>("test", 2, block -> {
+            try {
+                writing.countDown();
+                release.await();
+                sink.write(ByteBuffer.wrap(data, block * BLOCK_SIZE, BLOCK_SIZE), (long) block * BLOCK_SIZE);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        pipeline.submit(0);
+        assertThat(writing.await(5, TimeUnit.SECONDS)).isTrue();
+        pipeline.submit(1);
+        pipeline.submit(2);
+
+        // As on a dropped link: the queue is full when the transfer suspends
+        AtomicReference<byte[]> checkpoint = new AtomicReference<>();
+        CountDownLatch suspended = new CountDownLatch(1);
+        pipeline.close(() -> {
+            sink.suspend();
+            checkpoint.set(sink.getCompleted().toByteArray());
+            suspended.countDown();
+        });
+        release.countDown();
+
+        assertThat(suspended.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(sink.getPartFile()).exists();
+        assertThat(Files.size(sink.getPartFile())).isEqualTo(BLOCK_SIZE);
+        // The frames still queued were dropped, to be asked for again from here
+        assertThat(ChunkBitmap.fromByteArray(checkpoint.get()).firstMissingOffset()).isEqualTo(BLOCK_SIZE);
+    }
+
+    @Test
+    void verifiesEachLeafAgainstTheSendersHash() throws Exception {
+        byte[] data = randomBytes(2 * BLOCK_SIZE + 100, 4);
+        MerkleTree tree = new MerkleTree(BLOCK_SIZE, HashAlgorithm.SHA_256);
+        tree.update(ByteBuffer.wrap(data));
+        byte[] root = tree.root();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            ReceiveFileSink sink = new ReceiveFileSink(dir, "123456", "file.bin");
+            sink.verifyLeaves(BLOCK_SIZE, HashAlgorithm.SHA_256, executor);
+            sink.setExpectedSize(data.length);
+            sink.addLeafHashes(0, leafHashes(tree, 0, 3));
+            sink.write(ByteBuffer.wrap(data), 0);
+
+            assertThat(sink.checkLeaves()).isEmpty();
+            assertThat(sink.isComplete()).isTrue();
+            assertThat(sink.finish()).isEqualTo(HashAlgorithm.SHA_256.treeChecksum(root));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void asksForABadLeafAgainUntilItHasFailedTooOften() throws Exception {
+        byte[] data = randomBytes(2 * BLOCK_SIZE, 5);
+        MerkleTree tree = new MerkleTree(BLOCK_SIZE, HashAlgorithm.SHA_256);
+        tree.update(ByteBuffer.wrap(data));
+        ByteBuffer hashes = leafHashes(tree, 0, 2);
+        // The second leaf hash does not match what arrives
+        hashes.put(MerkleTree.HASH_SIZE, (byte) ~hashes.get(MerkleTree.HASH_SIZE));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            ReceiveFileSink sink = new ReceiveFileSink(dir, "123456", "file.bin");
+            sink.verifyLeaves(BLOCK_SIZE, HashAlgorithm.SHA_256, executor);
+            sink.setExpectedSize(data.length);
+            sink.addLeafHashes(0, hashes);
+            sink.write(ByteBuffer.wrap(data), 0);
+
+            for (int attempt = 1; attempt < 3; attempt++) {
+                assertThat(sink.checkLeaves()).containsExactly(new ReceiveFileSink.Range(BLOCK_SIZE, BLOCK_SIZE));
+                assertThat(sink.getCompleted().firstMissingOffset()).isEqualTo(BLOCK_SIZE);
+                assertThat(sink.isComplete()).isFalse();
+                sink.write(ByteBuffer.wrap(data, BLOCK_SIZE, BLOCK_SIZE), BLOCK_SIZE);
+            }
+            assertThatThrownBy(sink::checkLeaves).isInstanceOf(IOException.class);
+            sink.abort();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static ByteBuffer leafHashes(MerkleTree tree, int first, int count) {
+        ByteBuffer hashes = ByteBuffer.allocate(count * MerkleTree.HASH_SIZE);
+        for (int leaf = first; leaf < first + count; leaf++) {
+            hashes.put(tree.leaf(leaf));
+        }
+        return hashes.flip();
+    }
+
+    static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static String sha256Hex(byte[] data) {
+        MessageDigest digest = HashAlgorithm.SHA_256.newDigest();
+        return HexFormat.of().formatHex(digest.digest(data));
+    }
+}
@@ -0,0 +1,70 @@
+package com.securetransfer.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReceivePipelineTest {
+
+    @Test
+    void processesQueuedFramesBeforeTheCallback() throws Exception {
+        List<Integer> handled = new CopyOnWriteArrayList<>();
+        CountDownLatch drained = new CountDownLatch(1);
+        ReceivePipeline<Integer> pipeline = new ReceivePipeline<>("test", 4, handled::add);
+        for (int frame = 0; frame < 3; frame++) {
+            pipeline.submit(frame);
+        }
+        pipeline.close(drained::countDown);
+
+        assertThat(drained.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(handled).containsExactly(0, 1, 2);
+    }
+
+    @Test
+    void closingAFullQueueNeitherInterruptsTheWorkerNorStrandsSubmitters() throws Exception {
+        CountDownLatch working = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean interrupted = new AtomicBoolean();
+        ReceivePipeline<Integer> pipeline = new ReceivePipeline<>("test", 2, frame -> {
+            working.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+            }
+        });
+        pipeline.submit(0);
+        assertThat(working.await(5, TimeUnit.SECONDS)).isTrue();
+        pipeline.submit(1);
+        pipeline.submit(2);
+        // A reader thread blocked on the full queue, as a stripe's would be
+        Thread submitter = new Thread(() -> {
+            try {
+                pipeline.submit(3);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        submitter.start();
+
+        CountDownLatch drained = new CountDownLatch(1);
+        AtomicBoolean interruptedInCallback = new AtomicBoolean(true);
+        pipeline.close(() -> {
+            interruptedInCallback.set(Thread.currentThread().isInterrupted());
+            drained.countDown();
+        });
+        submitter.join(5_000);
+        release.countDown();
+
+        assertThat(submitter.isAlive()).isFalse();
+        assertThat(drained.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(interrupted).isFalse();
+        assertThat(interruptedInCallback).isFalse();
+    }
+}
@@ -0,0 +1,114 @@
+package com.securetransfer.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SegmentedCipherTest {
+
+    private static final int SEGMENT_SIZE = 1024;
+
+    private final SecretKey key = new SecretKeySpec(randomBytes(32, 1), "AES");
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void roundTripsWithEitherAlgorithm() throws IOException {
+        // Enough segments to be split across several tasks, with a short last one
+        byte[] data = randomBytes(20 * SEGMENT_SIZE + 300, 2);
+        for (SegmentedCipher.Algorithm algorithm : SegmentedCipher.Algorithm.values()) {
+            Path sealed = encrypt(data, algorithm);
+
+            assertThat(Files.size(sealed)).isEqualTo(SegmentedCipher.encryptedSize(data.length, SEGMENT_SIZE));
+            assertThat(decrypt(sealed)).isEqualTo(data);
+        }
+    }
+
+    @Test
+    void sealsAnEmptyFile() throws IOException {
+        Path sealed = encrypt(new byte[0], SegmentedCipher.Algorithm.AES_GCM);
+
+        assertThat(Files.size(sealed)).isEqualTo(SegmentedCipher.HEADER_SIZE + 16);
+        assertThat(decrypt(sealed)).isEmpty();
+    }
+
+    @Test
+    void rejectsATamperedSegment() throws IOException {
+        Path sealed = encrypt(randomBytes(4 * SEGMENT_SIZE, 3), SegmentedCipher.Algorithm.AES_GCM);
+        byte[] bytes = Files.readAllBytes(sealed);
+        bytes[segmentStart(2) + 5] ^= 1;
+        Files.write(sealed, bytes);
+
+        assertThatThrownBy(() -> decrypt(sealed)).isInstanceOf(IOException.class)
+                .hasMessageContaining("Segment 2 failed authentication");
+    }
+
+    @Test
+    void rejectsSwappedSegments() throws IOException {
+        Path sealed = encrypt(randomBytes(4 * SEGMENT_SIZE, 4), SegmentedCipher.Algorithm.CHACHA20_POLY1305);
+        byte[] bytes = Files.readAllBytes(sealed);
+        byte[] first = Arrays.copyOfRange(bytes, segmentStart(0), segmentStart(1));
+        System.arraycopy(bytes, segmentStart(1), bytes, segmentStart(0), first.length);
+        System.arraycopy(first, 0, bytes, segmentStart(1), first.length);
+        Files.write(sealed, bytes);
+
+        assertThatThrownBy(() -> decrypt(sealed)).isInstanceOf(IOException.class)
+                .hasMessageContaining("failed authentication");
+    }
+
+    @Test
+    void rejectsATruncatedFile() throws IOException {
+        Path sealed = encrypt(randomBytes(4 * SEGMENT_SIZE, 5), SegmentedCipher.Algorithm.AES_GCM);
+        byte[] bytes = Files.readAllBytes(sealed);
+        // Cut at a segment boundary, so only the header's length gives it away
+        Files.write(sealed, Arrays.copyOf(bytes, segmentStart(3)));
+
+        assertThatThrownBy(() -> decrypt(sealed)).isInstanceOf(IOException.class)
+                .hasMessageContaining("truncated");
+    }
+
+    private Path encrypt(byte[] data, SegmentedCipher.Algorithm algorithm) throws IOException {
+        Path plain = Files.write(dir.resolve("plain"), data);
+        Path sealed = dir.resolve("sealed-" + algorithm);
+        try (FileChannel in = FileChannel.open(plain, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(sealed, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+            SegmentedCipher.encrypt(in, out, key, algorithm, null, SEGMENT_SIZE, new SecureRandom(), null, null);
+        }
+        return sealed;
+    }
+
+    private byte[] decrypt(Path sealed) throws IOException {
+        Path opened = dir.resolve("opened");
+        try (FileChannel in = FileChannel.open(sealed, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(opened, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+            SegmentedCipher.decrypt(in, out, key, algorithm -> null, null, null);
+        }
+        return Files.readAllBytes(opened);
+    }
+
+    private static int segmentStart(int segment) {
+        return SegmentedCipher.HEADER_SIZE + segment * (SEGMENT_SIZE + 16);
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,74 @@
+package com.securetransfer.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TransferFrameTest {
+
+    @Test
+    void readsBackWhatWasWritten() {
+        ByteBuffer frame = frame(5, (byte) (TransferFrame.FLAG_LAST_CHUNK | TransferFrame.FLAG_DELTA));
+        frame.put(TransferFrame.HEADER_SIZE, new byte[] {1, 2, 3, 4, 5});
+
+        assertThat(TransferFrame.isValid(frame)).isTrue();
+        assertThat(TransferFrame.sessionId(frame)).isEqualTo(123456);
+        assertThat(TransferFrame.fileIndex(frame)).isEqualTo(3);
+        assertThat(TransferFrame.sequence(frame)).isEqualTo(42);
+        assertThat(TransferFrame.offset(frame)).isEqualTo(5_000_000_000L);
+        assertThat(TransferFrame.payloadLength(frame)).isEqualTo(5);
+        assertThat(TransferFrame.isLastChunk(frame)).isTrue();
+        assertThat(TransferFrame.isDelta(frame)).isTrue();
+        assertThat(TransferFrame.isEncrypted(frame)).isFalse();
+        assertThat(TransferFrame.carriesFileData(frame)).isTrue();
+        ByteBuffer payload = TransferFrame.payload(frame);
+        assertThat(payload.remaining()).isEqualTo(5);
+        assertThat(payload.get(4)).isEqualTo((byte) 5);
+    }
+
+    @Test
+    void readsRelativeToThePosition() {
+        ByteBuffer buffer = ByteBuffer.allocate(7 + TransferFrame.HEADER_SIZE);
+        TransferFrame.writeHeader(buffer, 7, 1, 2, 3, 4, 0, TransferFrame.FLAG_DIGEST);
+        buffer.position(7);
+
+        assertThat(TransferFrame.isValid(buffer)).isTrue();
+        assertThat(TransferFrame.fileIndex(buffer)).isEqualTo(2);
+        assertThat(TransferFrame.isDigest(buffer)).isTrue();
+        assertThat(TransferFrame.carriesFileData(buffer)).isFalse();
+    }
+
+    @Test
+    void rejectsMalformedFrames() {
+        ByteBuffer truncated = frame(5, (byte) 0).limit(TransferFrame.HEADER_SIZE + 4);
+        ByteBuffer wrongMagic = frame(0, (byte) 0);
+        wrongMagic.putInt(0, 0);
+
+        assertThat(TransferFrame.isValid(truncated)).isFalse();
+        assertThat(TransferFrame.isValid(wrongMagic)).isFalse();
+        assertThat(TransferFrame.isValid(ByteBuffer.allocate(TransferFrame.HEADER_SIZE - 1))).isFalse();
+    }
+
+    @Test
+    void leafHashesAreNotFileData() {
+        ByteBuffer frame = frame(32, TransferFrame.FLAG_LEAF_HASHES);
+
+        assertThat(TransferFrame.isLeafHashes(frame)).isTrue();
+        assertThat(TransferFrame.carriesFileData(frame)).isFalse();
+        assertThat(TransferFrame.isLastChunk(frame)).isFalse();
+    }
+
+    @Test
+    void mapsTransferCodesToSessionIds() {
+        assertThat(TransferFrame.sessionIdFor("004711")).isEqualTo(4711);
+        assertThat(TransferFrame.sessionIdFor("abc")).isEqualTo("abc".hashCode());
+    }
+
+    private static ByteBuffer frame(int payloadLength, byte flags) {
+        ByteBuffer frame = ByteBuffer.allocate(TransferFrame.HEADER_SIZE + payloadLength);
+        TransferFrame.writeHeader(frame, 0, 123456, 3, 42, 5_000_000_000L, payloadLength, flags);
+        return frame;
+    }
+}
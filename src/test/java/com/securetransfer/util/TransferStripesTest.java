@@ -0,0 +1,110 @@
+package com.securetransfer.util;
+
+import org.java_websocket.WebSocket;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TransferStripesTest {
+
+    @Test
+    void usesOnlyThePrimaryUntilTheFirstCredit() throws Exception {
+        WebSocket primary = connection();
+        WebSocket second = connection();
+        TransferStripes stripes = new TransferStripes("123456", 8, 1 << 20);
+        stripes.addStripe(0, primary);
+        stripes.addStripe(1, second);
+
+        assertThat(stripes.acquire(1, frame(0, 0, 100), 100, 0)).isSameAs(primary);
+        assertThat(stripes.acquire(2, frame(0, 100, 100), 100, 0)).isSameAs(primary);
+        assertThat(stripes.contains(second)).isTrue();
+    }
+
+    @Test
+    void handsBackWhatALostStripeHadNotAcknowledged() throws Exception {
+        WebSocket primary = connection();
+        TransferStripes stripes = new TransferStripes("123456", 8, 1 << 20);
+        stripes.addStripe(0, primary);
+        stripes.acquire(0, frame(2, 0, 100), 100, 0);
+        stripes.acquire(1, frame(2, 100, 100), 4096, 0);
+        stripes.acquire(2, frame(2, 4196, 50), 50, 0);
+        stripes.acknowledge(primary, 2, 0);
+
+        List<TransferStripes.SentRange> lost = new ArrayList<>();
+        stripes.removeConnection(primary, lost::add);
+
+        assertThat(lost).containsExactlyInAnyOrder(new TransferStripes.SentRange(2, 100, 4096),
+                new TransferStripes.SentRange(2, 4196, 50));
+        assertThat(stripes.isEmpty()).isTrue();
+        assertThatThrownBy(() -> stripes.acquire(3, frame(2, 4246, 10), 10, 0)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void doesNotTrackFramesWithoutFileData() throws Exception {
+        WebSocket primary = connection();
+        TransferStripes stripes = new TransferStripes("123456", 8, 1 << 20);
+        stripes.addStripe(0, primary);
+        ByteBuffer digest = ByteBuffer.allocate(TransferFrame.HEADER_SIZE + 32);
+        TransferFrame.writeHeader(digest, 0, 123456, 0, 0, 0, 32, TransferFrame.FLAG_DIGEST);
+
+        assertThat(stripes.acquire(7, digest, 0, 0)).isSameAs(primary);
+
+        List<TransferStripes.SentRange> lost = new ArrayList<>();
+        stripes.removeConnection(primary, lost::add);
+        assertThat(lost).isEmpty();
+    }
+
+    @Test
+    void drainsOnceEveryStripeIsCredited() throws Exception {
+        WebSocket primary = connection();
+        WebSocket second = connection();
+        TransferStripes stripes = new TransferStripes("123456", 8, 1 << 20);
+        stripes.addStripe(0, primary);
+        stripes.addStripe(1, second);
+        ByteBuffer frame = frame(0, 0, 100);
+        stripes.acquire(0, frame, 100, 0);
+
+        assertThatThrownBy(() -> stripes.awaitDrained(50)).isInstanceOf(IOException.class);
+
+        stripes.grant(primary, 1, frame.remaining());
+        stripes.awaitDrained(0);
+    }
+
+    @Test
+    void aDroppedSecondaryDoesNotFailTheDrain() throws Exception {
+        WebSocket primary = connection();
+        WebSocket second = connection();
+        TransferStripes stripes = new TransferStripes("123456", 8, 1 << 20);
+        stripes.addStripe(0, primary);
+        stripes.addStripe(1, second);
+        stripes.removeConnection(second, range -> { });
+
+        stripes.awaitDrained(0);
+        assertThat(stripes.contains(second)).isFalse();
+        assertThat(stripes.getActiveCount()).isEqualTo(1);
+    }
+
+    private static ByteBuffer frame(int fileIndex, long offset, int payloadLength) {
+        ByteBuffer frame = ByteBuffer.allocate(TransferFrame.HEADER_SIZE + payloadLength);
+        TransferFrame.writeHeader(frame, 0, 123456, fileIndex, 0, offset, payloadLength, (byte) 0);
+        return frame;
+    }
+
+    // Identity is all the stripes look at
+    private static WebSocket connection() {
+        return (WebSocket) Proxy.newProxyInstance(TransferStripesTest.class.getClassLoader(),
+                new Class<?>[] {WebSocket.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "connection@" + Integer.toHexString(System.identityHashCode(proxy));
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}